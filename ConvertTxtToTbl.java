@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import qp.utils.*;
 /*
@@ -7,17 +8,47 @@ import qp.utils.*;
   attributes of the relation. each subsequent line represents 1
   tuple of the relation. also assume that the fields of each line
   is delimited by tabs ("\t")
+
+  the tuples are written as a binary page file (see qp.utils.PageFile)
+  with pages of the given number of bytes, and the bounds of the values
+  of each page to <tablename>.zm (see qp.utils.ZoneMap). with -columns the values of
+  each attribute are also written to <tablename>.<attribute>.col, without
+  it the column files of an earlier conversion are removed,
+  with -compress the pages of the table are compressed
+  (see qp.utils.CompressedPage)
+
+  the lines are read in chunks that are parsed and encoded by a pool
+  of threads (one per core, or as many as given with -threads), while
+  the main thread writes the chunks out in order. only a bounded number
+  of chunks is in memory at any time. the number of tuples and of
+  distinct values of each attribute are written to <tablename>.stat
+  in the same pass.
 */
 
 public class ConvertTxtToTbl {
 
     public static void main(String[] args) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creats <tablename>.tbl files");
+        if (args.length < 1) {
+            System.out.println("usage: java ConvertTxtToTbl <tablename> [pagesize] [-columns] [-compress] [-threads n] \n creats <tablename>.tbl files");
             System.exit(1);
         }
         String tblname = args[0];
+        int pagesize = PageFile.DEFAULT_PAGE_SIZE;
+        boolean columns = false;
+        boolean compress = false;
+        int numthreads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-columns")) {
+                columns = true;
+            } else if (args[i].equals("-compress")) {
+                compress = true;
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                numthreads = Math.max(1, Integer.parseInt(args[++i]));
+            } else {
+                pagesize = Integer.parseInt(args[i]);
+            }
+        }
         String mdfile = tblname + ".md";
         String tblfile = tblname + ".tbl";
 
@@ -25,7 +56,6 @@ public class ConvertTxtToTbl {
         /** open the input and output streams **/
         BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
         //ObjectOutputStream outmd = new ObjectOutputStream(new FileOutputStream(mdfile));
-        ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
 
         /** First Line is METADATA **/
         int linenum = 0;
@@ -118,80 +148,178 @@ public class ConvertTxtToTbl {
             System.out.println("class not found exception --- error in schema object file");
             System.exit(1);
         }
+        PageWriter outtbl = new PageWriter(tblfile, schema, pagesize, compress);
+        ColumnWriter[] outcols = new ColumnWriter[schema.getNumCols()];
+        if (columns) {
+            for (int i = 0; i < outcols.length; i++) {
+                Attribute attr = schema.getAttribute(i);
+                outcols[i] = new ColumnWriter(ColumnWriter.fileName(tblname, attr.getColName()),
+                        attr.getType(), pagesize);
+            }
+        } else {
+            /** column files of an earlier conversion would not match the table **/
+            for (int i = 0; i < outcols.length; i++) {
+                new File(ColumnWriter.fileName(tblname, schema.getAttribute(i).getColName())).delete();
+            }
+        }
 
-        boolean flag = false;
-        StringTokenizer tokenizer;
-        while ((line = in.readLine()) != null) {
-            linenum++;
-            tokenizer = new StringTokenizer(line);
-            //int tokencount = tokenizer.countTokens();
-            //System.out.println("numtokens= "+tokenizer.countTokens()+"numcols="+numCols);
-            //if(tokencount != numCols){
-            //System.err.println("Incomplete tuple: linenum= "+linenum);
-            //System.exit(1);
-            //}
-
-            Vector data = new Vector();
-            int attrIndex = 0;
+        int[] types = SlottedPage.typesOf(schema);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != Attribute.INT && types[i] != Attribute.REAL && types[i] != Attribute.STRING) {
+                System.err.println("Invalid data type");
+                System.exit(1);
+            }
+        }
+        /** distinct values of the INTEGER columns are counted exactly,
+         ** the values at least 0 and the negative ones in a BitSet each,
+         ** the other columns with a DistinctCounter
+         **/
+        BitSet[][] seen = new BitSet[types.length][];
+        DistinctCounter[] distinct = new DistinctCounter[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                seen[i] = new BitSet[]{new BitSet(), new BitSet()};
+            } else {
+                distinct[i] = new DistinctCounter();
+            }
+        }
 
-            while (tokenizer.hasMoreElements()) {
-                String dataElement = tokenizer.nextToken();
-                int datatype = schema.typeOf(attrIndex);
-                //System.out.print("Convert :"+ dataElement+"  "+datatype);
-                if (datatype == Attribute.INT) {
-                    //System.out.println("Integer data:"+dataElement);
-                    data.add(Integer.valueOf(dataElement));
-                } else if (datatype == Attribute.REAL) {
-                    data.add(Float.valueOf(dataElement));
-                } else if (datatype == Attribute.STRING) {
-                    data.add(dataElement);
-                } else {
-                    System.err.println("Invalid data type");
-                    System.exit(1);
-                }
-                attrIndex++;
+        /** chunks being parsed, in the order of the input **/
+        ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        int maxPending = 2 * numthreads;
+        boolean compressed = compress;
+
+        while (true) {
+            ArrayList<String> lines = new ArrayList<String>(CHUNK_LINES);
+            int firstline = linenum + 1;
+            while (lines.size() < CHUNK_LINES && (line = in.readLine()) != null) {
+                lines.add(line);
+                linenum++;
+            }
+            if (lines.isEmpty()) {
+                break;
             }
-            Tuple tuple = new Tuple(data);
-            outtbl.writeObject(tuple);
+            if (pending.size() == maxPending) {
+                write(pending.poll(), outtbl, outcols, seen, distinct);
+            }
+            pending.add(pool.submit(() -> parse(lines, firstline, types, !compressed)));
+        }
+        while (!pending.isEmpty()) {
+            write(pending.poll(), outtbl, outcols, seen, distinct);
         }
+        pool.shutdown();
+
         outtbl.close();
+        outtbl.getZoneMap().write(ZoneMap.fileName(tblname));
+
+        PrintWriter outstat = new PrintWriter(new BufferedWriter(new FileWriter(tblname + ".stat")));
+        outstat.print(outtbl.getNumTuples());
+        outstat.println();
+        for (int i = 0; i < distinct.length; i++) {
+            long numdist = (seen[i] != null) ? seen[i][0].cardinality() + seen[i][1].cardinality() : distinct[i].count();
+            outstat.print(numdist + "\t");
+        }
+        outstat.close();
+        if (columns) {
+            for (int i = 0; i < outcols.length; i++) {
+                outcols[i].close();
+            }
+        }
 
         in.close();
     }
-}
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
 
 
+    static final int CHUNK_LINES = 4096;   // lines parsed by one task
 
 
+    /** the tuples of a chunk of lines, encoded for writing **/
 
+    static class Chunk {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        ArrayList<byte[]> records = new ArrayList<byte[]>();    // slotted page records, if needed
+        ArrayList<long[]> hashes = new ArrayList<long[]>();     // hash of each value of each tuple
+    }
 
 
+    /** parse the lines of a chunk, the first of them is line number firstline **/
 
+    static Chunk parse(ArrayList<String> lines, int firstline, int[] types, boolean encode) {
+        Chunk chunk = new Chunk();
+        TupleLayout layout = TupleLayout.of(types);
+        for (int l = 0; l < lines.size(); l++) {
+            StringTokenizer tokenizer = new StringTokenizer(lines.get(l));
+            if (!tokenizer.hasMoreTokens()) {
+                continue;
+            }
+            Tuple tuple = new Tuple(layout);
+            long[] hash = new long[types.length];
+            int attrIndex = 0;
+            try {
+                while (tokenizer.hasMoreElements() && attrIndex < types.length) {
+                    String dataElement = tokenizer.nextToken();
+                    Object value;
+                    if (types[attrIndex] == Attribute.INT) {
+                        value = Integer.valueOf(dataElement);
+                    } else if (types[attrIndex] == Attribute.REAL) {
+                        value = Float.valueOf(dataElement);
+                    } else {
+                        value = dataElement;
+                    }
+                    tuple.set(attrIndex, value);
+                    hash[attrIndex] = DistinctCounter.hash(value);
+                    attrIndex++;
+                }
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("line " + (firstline + l) + ": " + nfe.getMessage());
+            }
+            if (attrIndex < types.length) {
+                throw new IllegalArgumentException("line " + (firstline + l) + ": incomplete tuple");
+            }
+            chunk.tuples.add(tuple);
+            chunk.records.add(encode ? SlottedPage.encode(tuple, types) : null);
+            chunk.hashes.add(hash);
+        }
+        return chunk;
+    }
 
 
+    /** write out the tuples of a parsed chunk and count their values **/
 
+    static void write(Future<Chunk> pending, PageWriter outtbl, ColumnWriter[] outcols,
+                      BitSet[][] seen, DistinctCounter[] distinct) throws IOException {
+        Chunk chunk = null;
+        try {
+            chunk = pending.get();
+        } catch (ExecutionException e) {
+            System.err.println("ConvertTxtToTbl: " + e.getCause().getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("ConvertTxtToTbl: interrupted");
+            System.exit(1);
+        }
+        for (int t = 0; t < chunk.tuples.size(); t++) {
+            Tuple tuple = chunk.tuples.get(t);
+            outtbl.add(tuple, chunk.records.get(t));
+            if (outcols[0] != null) {
+                for (int i = 0; i < outcols.length; i++) {
+                    outcols[i].add(tuple.dataAt(i));
+                }
+            }
+            long[] hash = chunk.hashes.get(t);
+            for (int i = 0; i < distinct.length; i++) {
+                if (seen[i] != null) {
+                    int value = tuple.intAt(i);
+                    if (value >= 0) {
+                        seen[i][0].set(value);
+                    } else {
+                        seen[i][1].set(-(value + 1));
+                    }
+                } else {
+                    distinct[i].add(hash[i]);
+                }
+            }
+        }
+    }
+}
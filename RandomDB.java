@@ -1,210 +1,560 @@
-
-import java.util.*;
-import java.io.*;
-
-import qp.utils.*;
-
-public class RandomDB {
-
-    private static Random random;
-    static boolean[] pk;
-    static boolean[] fk;
-
-    public RandomDB() {
-        random = new Random(System.currentTimeMillis());
-    }
-
-
-    /**
-     * Generates a random string of length equal to range
-     **/
-
-    public String randString(int range) {
-
-        String s = "";
-        for (int j = 0; j < range; j++)
-            s += (new Character((char) (97 + random.nextInt(26)))).toString();
-        return s;
-    }
-
-
-    public static void main(String[] args) {
-
-        RandomDB rdb = new RandomDB();
-
-        if (args.length != 2) {
-            System.out.println("Usage: java RandomDB <dbname> <numrecords> ");
-            System.exit(1);
-        }
-        String tblname = args[0];
-        String srcfile = args[0] + ".det";
-        String metafile = args[0] + ".md";
-        String datafile = args[0] + ".txt";
-        String statfile = args[0] + ".stat";
-        int numtuple = Integer.parseInt(args[1]);
-
-        try {
-            BufferedReader in = new BufferedReader(new FileReader(srcfile));
-            ObjectOutputStream outmd = new ObjectOutputStream(new FileOutputStream(metafile));
-            PrintWriter outtbl = new PrintWriter(new BufferedWriter(new FileWriter(datafile)));
-            PrintWriter outstat = new PrintWriter(new BufferedWriter(new FileWriter(statfile)));
-
-            outstat.print(numtuple);
-            outstat.println();
-            /** first line is <number of columns> **/
-
-            String line = in.readLine();
-            int numCol = Integer.parseInt(line);
-            String[] datatype = new String[numCol];
-            int[] range = new int[numCol];
-            String[] keytype = new String[numCol];
-
-            /** second line is <size of tuple = number of bytes> **/
-            line = in.readLine();
-            int size = Integer.parseInt(line);
-            //outstat.print(size);
-            //outstat.println();
-
-
-            /** Capture information about data types, range and primary/foreign keys**/
-            /** format is <colname><coltype><keytype><attrsize><range>  **/
-
-            /** for schema generation **/
-            Vector attrlist = new Vector();
-            Attribute attr;
-            boolean flag = false;
-            int i = 0;
-
-
-            while ((line = in.readLine()) != null) {
-                StringTokenizer tokenizer = new StringTokenizer(line);
-                int tokenCount = tokenizer.countTokens();
-                /** get column name **/
-                String colname = tokenizer.nextToken();
-
-                /** get data type **/
-                datatype[i] = tokenizer.nextToken();
-
-                int type;
-                if (datatype[i].equals("INTEGER")) {
-                    type = Attribute.INT;
-                    //  System.out.println("integer");
-                } else if (datatype[i].equals("STRING")) {
-                    type = Attribute.STRING;
-                    // System.out.println("String");
-                } else if (datatype[i].equals("REAL")) {
-                    type = Attribute.REAL;
-                } else {
-                    type = -1;
-                    System.err.println("invalid data type");
-                    System.exit(1);
-                }
-
-                /** range of the values allowed **/
-                range[i] = Integer.parseInt(tokenizer.nextToken());
-
-
-                /** key type PK/FK/NK **/
-                keytype[i] = tokenizer.nextToken();
-                int typeofkey;
-                if (keytype[i].equals("PK")) {
-                    pk = new boolean[range[i]];
-                    typeofkey = Attribute.PK;
-
-                } else if (keytype[i].equals("FK")) {
-                    fk = new boolean[range[i]];
-                    typeofkey = Attribute.FK;
-                } else {
-                    typeofkey = -1;
-                }
-                int numbytes = Integer.parseInt(tokenizer.nextToken());
-
-
-                if (typeofkey != -1) {
-                    attr = new Attribute(tblname, colname, type);//,typeofkey,numbytes);
-                } else {
-                    attr = new Attribute(tblname, colname, type, typeofkey);
-                }
-                attr.setAttrSize(numbytes);
-                attrlist.add(attr);
-                i++;
-            }
-            Schema schema = new Schema(attrlist);
-            schema.setTupleSize(size);
-            outmd.writeObject(schema);
-            outmd.close();
-
-            for (i = 0; i < numtuple; i++) {
-//System.out.println("in table generation: "+i);
-                int numb = random.nextInt(range[0]);
-                while (pk[numb] == true) {
-                    numb = random.nextInt(range[0]);
-                }
-                pk[numb] = true;
-                outtbl.print(numb + "\t");
-
-                for (int j = 1; j < numCol; j++) {
-                    if (datatype[j].equals("STRING")) {
-                        String temp = rdb.randString(range[j]);
-                        outtbl.print(temp + "\t");
-                    } else if (datatype[j].equals("FLOAT")) {
-                        float value = range[j] * random.nextFloat();
-                        outtbl.print(value + "\t");
-                    } else if (datatype[j].equals("INTEGER")) {
-                        int value = random.nextInt(range[j]);
-                        outtbl.print(value + "\t");
-                        if (keytype[j].equals("FK")) {
-                            fk[value] = true;
-                        }
-                    }
-                }
-                if (i != numtuple - 1)
-                    outtbl.println();
-
-            }
-            outtbl.close();
-
-//System.out.println("end of table generation");
-            /** printing the number of distinct values of each column
-             in <tablename>.stat file
-             **/
-
-            for (i = 0; i < numCol; i++) {
-                if (datatype[i].equals("STRING")) {
-                    outstat.print(numtuple + "\t");
-                } else if (datatype[i].equals("FLOAT")) {
-                    outstat.print(numtuple + "\t");
-                } else if (datatype[i].equals("INTEGER")) {
-                    if (keytype[i].equals("PK")) {
-                        int numdist = rdb.getnumdistinct(pk);
-                        outstat.print(numdist + "\t");
-                    } else if (keytype[i].equals("FK")) {
-                        int numdist = rdb.getnumdistinct(fk);
-                        outstat.print(numdist + "\t");
-                    } else {
-                        if (numtuple < range[i])
-                            outstat.print(numtuple + "\t");
-                        else
-                            outstat.print(range[i] + "\t");
-                    }
-
-                }
-            }
-            outstat.close();
-            in.close();
-        } catch (IOException io) {
-            System.out.println("error in IO ");
-            System.exit(1);
-        }
-
-    }
-
-    public int getnumdistinct(boolean[] key) {
-        int lenght = key.length;
-        int count = 0;
-        for (int i = 0; i < lenght; i++) {
-            if (key[i] == true) count++;
-        }
-        return count;
-    }
-}
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+import qp.utils.*;
+
+/*
+  generates a random table from its description <dbname>.det and writes
+  the schema to <dbname>.md, the tuples to <dbname>.txt and the number
+  of tuples and of distinct values of each attribute to <dbname>.stat
+
+  the first line of the .det file is the number of columns, the second
+  the size of a tuple in bytes, then one line per column:
+
+     <colname> <type> <range> <keytype> <attrsize> [distribution]
+
+  the values of an INTEGER column are in [0, range), a STRING column
+  holds random strings of length range, a REAL column values in
+  [0, range). a PK column gets distinct values. the distribution of
+  an INTEGER column that is not a PK is one of
+     UNIFORM                    (the default)
+     ZIPF:<s>                   value k with probability proportional to 1/(k+1)^s
+     CORR:<colname>:<noise>     the value of an earlier INTEGER column scaled
+                                to this range, plus a uniform noise in [0, noise]
+
+  the rows are generated in chunks by a pool of threads and written in
+  order, so the table is streamed with bounded memory. every chunk has
+  its own random generator derived from the seed, the same seed gives
+  the same table whatever the number of threads.
+*/
+
+public class RandomDB {
+
+    static final int CHUNK_ROWS = 8192;   // rows generated by one task
+
+    static final int UNIFORM = 0;
+    static final int ZIPF = 1;
+    static final int CORR = 2;
+
+    static int numCol;
+    static String[] datatype;
+    static int[] range;
+    static String[] keytype;
+    static int[] distribution;     // distribution of the values of each column
+    static double[] skew;          // exponent of ZIPF columns
+    static int[] corrCol;          // column a CORR column follows
+    static int[] noise;            // noise added to a CORR column
+    static Permutation[] pk;       // distinct values of PK columns
+    static Zipf[] zipf;            // sampler of ZIPF columns
+
+
+    /**
+     * Appends a random string of length equal to range
+     **/
+
+    static void randString(SplittableRandom random, int range, StringBuilder out) {
+        for (int j = 0; j < range; j++)
+            out.append((char) (97 + random.nextInt(26)));
+    }
+
+
+    public static void main(String[] args) {
+
+        if (args.length < 2) {
+            System.out.println("Usage: java RandomDB <dbname> <numrecords> [-seed s] [-threads n]");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        String srcfile = args[0] + ".det";
+        String metafile = args[0] + ".md";
+        String datafile = args[0] + ".txt";
+        String statfile = args[0] + ".stat";
+        int numtuple = Integer.parseInt(args[1]);
+        long seed = System.currentTimeMillis();
+        int numthreads = Runtime.getRuntime().availableProcessors();
+        for (int a = 2; a + 1 < args.length; a += 2) {
+            if (args[a].equals("-seed")) {
+                seed = Long.parseLong(args[a + 1]);
+            } else if (args[a].equals("-threads")) {
+                numthreads = Math.max(1, Integer.parseInt(args[a + 1]));
+            }
+        }
+        System.out.println("RandomDB: " + tblname + " seed = " + seed);
+
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(srcfile));
+            ObjectOutputStream outmd = new ObjectOutputStream(new FileOutputStream(metafile));
+            Writer outtbl = new BufferedWriter(new FileWriter(datafile), 1 << 16);
+            PrintWriter outstat = new PrintWriter(new BufferedWriter(new FileWriter(statfile)));
+
+            outstat.print(numtuple);
+            outstat.println();
+            /** first line is <number of columns> **/
+
+            String line = in.readLine();
+            numCol = Integer.parseInt(line);
+            datatype = new String[numCol];
+            range = new int[numCol];
+            keytype = new String[numCol];
+            distribution = new int[numCol];
+            skew = new double[numCol];
+            corrCol = new int[numCol];
+            noise = new int[numCol];
+            pk = new Permutation[numCol];
+            zipf = new Zipf[numCol];
+
+            /** second line is <size of tuple = number of bytes> **/
+            line = in.readLine();
+            int size = Integer.parseInt(line);
+
+
+            /** Capture information about data types, range and primary/foreign keys**/
+            /** format is <colname><coltype><range><keytype><attrsize>[distribution]  **/
+
+            /** for schema generation **/
+            Vector attrlist = new Vector();
+            Attribute attr;
+            int i = 0;
+
+
+            while (i < numCol && (line = in.readLine()) != null) {
+                StringTokenizer tokenizer = new StringTokenizer(line);
+                if (!tokenizer.hasMoreTokens()) {
+                    continue;
+                }
+                /** get column name **/
+                String colname = tokenizer.nextToken();
+
+                /** get data type **/
+                datatype[i] = tokenizer.nextToken();
+
+                int type;
+                if (datatype[i].equals("INTEGER")) {
+                    type = Attribute.INT;
+                } else if (datatype[i].equals("STRING")) {
+                    type = Attribute.STRING;
+                } else if (datatype[i].equals("REAL") || datatype[i].equals("FLOAT")) {
+                    datatype[i] = "REAL";
+                    type = Attribute.REAL;
+                } else {
+                    type = -1;
+                    System.err.println("invalid data type");
+                    System.exit(1);
+                }
+
+                /** range of the values allowed **/
+                range[i] = Integer.parseInt(tokenizer.nextToken());
+
+
+                /** key type PK/FK/NK **/
+                keytype[i] = tokenizer.nextToken();
+                int typeofkey;
+                if (keytype[i].equals("PK")) {
+                    if (numtuple > range[i]) {
+                        System.err.println("RandomDB: " + numtuple + " distinct values needed for "
+                                + colname + " but its range is " + range[i]);
+                        System.exit(1);
+                    }
+                    typeofkey = Attribute.PK;
+                } else if (keytype[i].equals("FK")) {
+                    typeofkey = Attribute.FK;
+                } else {
+                    typeofkey = -1;
+                }
+                int numbytes = Integer.parseInt(tokenizer.nextToken());
+
+                if (tokenizer.hasMoreTokens()) {
+                    parseDistribution(i, tokenizer.nextToken(), attrlist);
+                }
+
+                if (typeofkey != -1) {
+                    attr = new Attribute(tblname, colname, type);//,typeofkey,numbytes);
+                } else {
+                    attr = new Attribute(tblname, colname, type, typeofkey);
+                }
+                attr.setAttrSize(numbytes);
+                attrlist.add(attr);
+                i++;
+            }
+            Schema schema = new Schema(attrlist);
+            schema.setTupleSize(size);
+            outmd.writeObject(schema);
+            outmd.close();
+
+            for (i = 0; i < numCol; i++) {
+                if (datatype[i].equals("INTEGER") && keytype[i].equals("PK")) {
+                    pk[i] = new Permutation(range[i], seed + i);
+                } else if (distribution[i] == ZIPF) {
+                    zipf[i] = new Zipf(range[i], skew[i]);
+                }
+            }
+
+            /** distinct values of the INTEGER columns are counted exactly,
+             ** the other columns with a DistinctCounter
+             **/
+            BitSet[] seen = new BitSet[numCol];
+            DistinctCounter[] distinct = new DistinctCounter[numCol];
+            for (i = 0; i < numCol; i++) {
+                if (datatype[i].equals("INTEGER")) {
+                    seen[i] = keytype[i].equals("PK") ? null : new BitSet(range[i]);
+                } else {
+                    distinct[i] = new DistinctCounter();
+                }
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+            int maxPending = 2 * numthreads;
+            final long tableSeed = seed;
+            for (int start = 0; start < numtuple; start += CHUNK_ROWS) {
+                final int first = start;
+                final int end = Math.min(numtuple, start + CHUNK_ROWS);
+                if (pending.size() == maxPending) {
+                    write(pending.poll(), outtbl, seen, distinct);
+                }
+                pending.add(pool.submit(() -> generate(first, end, tableSeed)));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll(), outtbl, seen, distinct);
+            }
+            pool.shutdown();
+            outtbl.close();
+
+            /** printing the number of distinct values of each column
+             in <tablename>.stat file
+             **/
+            for (i = 0; i < numCol; i++) {
+                String colname = ((Attribute) attrlist.elementAt(i)).getColName();
+                long numdist;
+                if (datatype[i].equals("INTEGER")) {
+                    numdist = (seen[i] == null) ? numtuple : seen[i].cardinality();
+                    if (seen[i] != null && distribution[i] == UNIFORM) {
+                        checkDistinct(colname, numdist, numtuple, range[i]);
+                    }
+                } else {
+                    numdist = distinct[i].count();
+                    if (datatype[i].equals("STRING")) {
+                        checkDistinct(colname, numdist, numtuple, Math.pow(26, range[i]));
+                    }
+                }
+                /** an estimate may not exceed the number of rows **/
+                outstat.print(Math.min(numdist, numtuple) + "\t");
+            }
+
+            outstat.close();
+            in.close();
+        } catch (IOException io) {
+            System.out.println("error in IO ");
+            System.out.println(io);
+            System.exit(1);
+        }
+
+    }
+
+
+    /** Check that a column of uniform values has about the number of
+     ** distinct values expected of numtuple draws among values ones,
+     ** values * (1 - (1 - 1/values)^numtuple), within four standard
+     ** deviations and the error of the estimate. Rows generated from
+     ** related random streams repeat values and fall short of it. More
+     ** distinct values than rows is an error
+     **/
+
+    static void checkDistinct(String colname, long numdist, int numtuple, double values) {
+        if (numdist > numtuple) {
+            System.err.println("RandomDB: " + colname + " has " + numdist + " distinct values in "
+                    + numtuple + " rows");
+            System.exit(1);
+        }
+        double expected = (values > 1e15) ? numtuple : values * -Math.expm1(numtuple * Math.log1p(-1 / values));
+        double empty = Math.exp(-numtuple / values);
+        double deviation = (values > 1e15) ? 0 : Math.sqrt(Math.max(0, values * empty * (1 - (1 + numtuple / values) * empty)));
+        if (Math.abs(numdist - expected) > 4 * deviation + 0.03 * expected + 1) {
+            System.err.println("RandomDB: " + colname + " has " + numdist + " distinct values, about "
+                    + Math.round(expected) + " expected");
+        }
+    }
+
+
+    /** read the distribution of column i, the columns before it are in attrlist **/
+
+    static void parseDistribution(int i, String spec, Vector attrlist) {
+        String[] parts = spec.split(":");
+        if (parts[0].equals("UNIFORM")) {
+            distribution[i] = UNIFORM;
+            return;
+        }
+        if (!datatype[i].equals("INTEGER") || keytype[i].equals("PK")) {
+            System.err.println("RandomDB: distribution " + spec + " needs an INTEGER column that is not a PK");
+            System.exit(1);
+        }
+        if (parts[0].equals("ZIPF") && parts.length == 2) {
+            distribution[i] = ZIPF;
+            skew[i] = Double.parseDouble(parts[1]);
+            if (skew[i] <= 0) {
+                System.err.println("RandomDB: the exponent of " + spec + " must be positive");
+                System.exit(1);
+            }
+        } else if (parts[0].equals("CORR") && parts.length == 3) {
+            distribution[i] = CORR;
+            corrCol[i] = -1;
+            for (int j = 0; j < attrlist.size(); j++) {
+                if (((Attribute) attrlist.elementAt(j)).getColName().equals(parts[1])
+                        && datatype[j].equals("INTEGER")) {
+                    corrCol[i] = j;
+                }
+            }
+            if (corrCol[i] == -1) {
+                System.err.println("RandomDB: " + spec + " must follow an earlier INTEGER column");
+                System.exit(1);
+            }
+            noise[i] = Integer.parseInt(parts[2]);
+        } else {
+            System.err.println("RandomDB: unknown distribution " + spec);
+            System.exit(1);
+        }
+    }
+
+
+    /** the seed of the generator of a chunk. The seed and the chunk
+     ** number go through the splitmix64 finalizer, so chunks do not get
+     ** overlapping streams of one generator as they would with seeds
+     ** a multiple of its step apart
+     **/
+
+    static long chunkSeed(long seed, int chunk) {
+        long z = seed ^ chunk;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+
+    /** the text of a chunk of rows and their values for the statistics **/
+
+    static class Chunk {
+        StringBuilder text = new StringBuilder();
+        int[][] ints;        // values of each INTEGER column, by row
+        long[][] hashes;     // hash of the values of each other column, by row
+    }
+
+
+    /** generate the rows first to end - 1 of the table **/
+
+    static Chunk generate(int first, int end, long seed) {
+        SplittableRandom random = new SplittableRandom(chunkSeed(seed, first / CHUNK_ROWS));
+        Chunk chunk = new Chunk();
+        int n = end - first;
+        chunk.ints = new int[numCol][];
+        chunk.hashes = new long[numCol][];
+        for (int j = 0; j < numCol; j++) {
+            if (datatype[j].equals("INTEGER")) {
+                chunk.ints[j] = new int[n];
+            } else {
+                chunk.hashes[j] = new long[n];
+            }
+        }
+        StringBuilder out = chunk.text;
+        for (int r = 0; r < n; r++) {
+            int row = first + r;
+            if (row != 0) {
+                out.append('\n');
+            }
+            for (int j = 0; j < numCol; j++) {
+                if (datatype[j].equals("STRING")) {
+                    int from = out.length();
+                    randString(random, range[j], out);
+                    chunk.hashes[j][r] = DistinctCounter.hash(out.substring(from));
+                } else if (datatype[j].equals("REAL")) {
+                    float value = range[j] * random.nextFloat();
+                    out.append(value);
+                    chunk.hashes[j][r] = DistinctCounter.hash(Float.valueOf(value));
+                } else {
+                    int value;
+                    if (pk[j] != null) {
+                        value = pk[j].get(row);
+                    } else if (distribution[j] == ZIPF) {
+                        value = zipf[j].sample(random) - 1;
+                    } else if (distribution[j] == CORR) {
+                        int base = chunk.ints[corrCol[j]][r];
+                        long scaled = (long) base * range[j] / range[corrCol[j]];
+                        value = (int) ((scaled + random.nextInt(noise[j] + 1)) % range[j]);
+                    } else {
+                        value = random.nextInt(range[j]);
+                    }
+                    out.append(value);
+                    chunk.ints[j][r] = value;
+                }
+                out.append('\t');
+            }
+        }
+        return chunk;
+    }
+
+
+    /** write out a generated chunk and count its values **/
+
+    static void write(Future<Chunk> pending, Writer outtbl, BitSet[] seen,
+                      DistinctCounter[] distinct) throws IOException {
+        Chunk chunk = null;
+        try {
+            chunk = pending.get();
+        } catch (ExecutionException e) {
+            System.err.println("RandomDB: " + e.getCause());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("RandomDB: interrupted");
+            System.exit(1);
+        }
+        outtbl.append(chunk.text);
+        for (int j = 0; j < numCol; j++) {
+            if (seen[j] != null) {
+                int[] values = chunk.ints[j];
+                for (int r = 0; r < values.length; r++) {
+                    seen[j].set(values[r]);
+                }
+            } else if (distinct[j] != null) {
+                long[] hashes = chunk.hashes[j];
+                for (int r = 0; r < hashes.length; r++) {
+                    distinct[j].add(hashes[r]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A pseudo random permutation of [0, range) that needs no memory:
+     * a 4 round Feistel network on the smallest even number of bits
+     * that holds range, values outside the range are mapped again
+     * (cycle walking) until they fall inside
+     **/
+
+    static class Permutation {
+        int range;
+        int half;         // bits in each half of the network
+        long[] keys;      // round keys
+
+
+        Permutation(int range, long seed) {
+            this.range = range;
+            int bits = 2;
+            while ((1L << bits) < range) {
+                bits += 2;
+            }
+            half = bits / 2;
+            SplittableRandom random = new SplittableRandom(seed);
+            keys = new long[4];
+            for (int k = 0; k < keys.length; k++) {
+                keys[k] = random.nextLong();
+            }
+        }
+
+
+        int get(int index) {
+            long x = index;
+            do {
+                x = encrypt(x);
+            } while (x >= range);
+            return (int) x;
+        }
+
+
+        long encrypt(long x) {
+            long mask = (1L << half) - 1;
+            long left = x >>> half;
+            long right = x & mask;
+            for (int k = 0; k < keys.length; k++) {
+                long f = round(right, keys[k]) & mask;
+                long next = left ^ f;
+                left = right;
+                right = next;
+            }
+            return (left << half) | right;
+        }
+
+
+        static long round(long x, long key) {
+            long h = (x + key) * 0xbf58476d1ce4e5b9L;
+            h ^= h >>> 31;
+            h *= 0x94d049bb133111ebL;
+            return h ^ (h >>> 29);
+        }
+    }
+
+
+    /**
+     * Samples integers 1..n with probability proportional to 1/k^s by
+     * rejection-inversion (Hormann and Derflinger), in constant time
+     * whatever the size of n
+     **/
+
+    static class Zipf {
+        int n;
+        double s;
+        double hIntegralX1;
+        double hIntegralN;
+        double threshold;
+
+
+        Zipf(int n, double s) {
+            this.n = n;
+            this.s = s;
+            hIntegralX1 = hIntegral(1.5) - 1;
+            hIntegralN = hIntegral(n + 0.5);
+            threshold = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+
+        int sample(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > n) {
+                    k = n;
+                }
+                if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+
+        double h(double x) {
+            return Math.exp(-s * Math.log(x));
+        }
+
+
+        double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - s) * logX) * logX;
+        }
+
+
+        double hIntegralInverse(double x) {
+            double t = x * (1 - s);
+            if (t < -1) {
+                t = -1;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+
+        /** log(1 + x) / x, accurate near 0 **/
+
+        static double helper1(double x) {
+            return (Math.abs(x) > 1e-8) ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+
+        /** (exp(x) - 1) / x, accurate near 0 **/
+
+        static double helper2(double x) {
+            return (Math.abs(x) > 1e-8) ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+        }
+    }
+}
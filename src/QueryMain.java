@@ -17,10 +17,12 @@ public class QueryMain {
 
     public static void main(String[] args) {
 
-        if (args.length != 2) {
-            System.out.println("usage: java QueryMain <queryfilename> <resultfile>");
+        if (args.length < 2) {
+            System.out.println("usage: java QueryMain <queryfilename> <resultfile> [options]");
+            printOptions();
             System.exit(1);
         }
+        setOptions(args);
 
 
         /** Enter the number of bytes per page **/
@@ -68,6 +70,8 @@ public class QueryMain {
 
         SQLQuery sqlquery = p.getSQLQuery();
         int numJoin = sqlquery.getNumJoin();
+        /** several conditions between the same tables share one join **/
+        numJoin = Math.min(numJoin, sqlquery.getFromList().size() - 1);
 
 
         /** If there are joins then assigns buffers to each join operator
@@ -190,7 +194,77 @@ public class QueryMain {
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime) / 1000.0;
         System.out.println("Execution time = " + executiontime);
+        System.out.println("Buffer pool of " + BufferManager.getNumFrames() + " pages: "
+                + BufferManager.getHits() + " hits, " + BufferManager.getMisses() + " misses");
+        if (ExternalMergeSort.getTotalRuns() > 0) {
+            System.out.println("Sorted runs: " + ExternalMergeSort.getTotalRuns() + ", average "
+                    + Math.round(ExternalMergeSort.getTotalAverageRunLength()) + " tuples");
+        }
+
+    }
+
+
+    /** The arguments after the query and result file names
+     ** choose among the alternative execution methods
+     **/
+
+    protected static void setOptions(String[] args) {
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-mmap")) {
+                Scan.setAccessMethod(Scan.MAPPED);
+            } else if (args[i].equals("-columnar")) {
+                Scan.setAccessMethod(Scan.COLUMNAR);
+            } else if (args[i].equals("-vector")) {
+                VectorBatch.setEnabled(true);
+            } else if (args[i].equals("-prefetch") && i + 1 < args.length) {
+                try {
+                    PrefetchScan.setDepth(Integer.parseInt(args[++i]));
+                } catch (NumberFormatException e) {
+                    System.out.println("-prefetch expects a number of batches");
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-replacementselection")) {
+                ExternalMergeSort.setRunGeneration(ExternalMergeSort.REPLACEMENT_SELECTION);
+            } else if (args[i].equals("-syncspill")) {
+                SpillIO.setEnabled(false);
+            } else if (args[i].equals("-nojoinfilters")) {
+                JoinFilter.setEnabled(false);
+            } else if (args[i].equals("-threads") && i + 1 < args.length) {
+                try {
+                    int threads = Integer.parseInt(args[++i]);
+                    ParallelHashJoin.setThreads(threads);
+                    ExternalMergeSort.setThreads(threads);
+                } catch (NumberFormatException e) {
+                    System.out.println("-threads expects a number of threads");
+                    System.exit(1);
+                }
+            } else if (args[i].equals("-policy") && i + 1 < args.length) {
+                ReplacementPolicy policy = BufferManager.policyFor(args[++i]);
+                if (policy == null) {
+                    System.out.println("unknown replacement policy " + args[i]);
+                    printOptions();
+                    System.exit(1);
+                }
+                BufferManager.setPolicy(policy);
+            } else {
+                System.out.println("unknown option " + args[i]);
+                printOptions();
+                System.exit(1);
+            }
+        }
+    }
 
+    protected static void printOptions() {
+        System.out.println("options:");
+        System.out.println("  -mmap        scan tables by memory mapping their page files");
+        System.out.println("  -columnar    read only the needed columns of tables with column files");
+        System.out.println("  -vector      pass column batches with selection vectors from scans");
+        System.out.println("  -prefetch n  read up to n batches of each table ahead in the background");
+        System.out.println("  -replacementselection  generate the sorted runs by replacement selection");
+        System.out.println("  -syncspill   read and write the temporary files of sorts and joins without I/O threads");
+        System.out.println("  -nojoinfilters  do not filter the scans below joins with the keys of the other input");
+        System.out.println("  -threads n   run sorts, and hash joins whose right input fits in memory, on n threads");
+        System.out.println("  -policy p    replacement policy of the buffer pool: LRU (default), CLOCK or LRU-k");
     }
 
 
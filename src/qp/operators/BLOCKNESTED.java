@@ -4,8 +4,10 @@
 
 package qp.operators;
 
-import qp.utils.Attribute;
+import qp.optimizer.BufferManager;
 import qp.utils.Batch;
+import qp.utils.BatchFile;
+import qp.utils.JoinFilter;
 import qp.utils.Tuple;
 
 import java.io.*;
@@ -19,20 +21,20 @@ public class BLOCKNESTED extends Join {
     /** The following fields are useful during execution of
      ** the BLOCKNESTED operation
      **/
-    int leftindex;     // Index of the join attribute in left table
-    int rightindex;    // Index of the join attribute in right table
+    int[] leftindex;     // Indexes of the join attributes in left table
+    int[] rightindex;    // Indexes of the join attributes in right table
 
     String rfname;    // The file name where the right table is materialize
+    BatchFile rfile;  // The file the right table is materialized in
+    PageReadAhead rightpages;   // reads the batches of the right file in order
 
     static int filenum = 0;   // To get unique filenum for this operation
 
     Batch outbatch;   // Output buffer
     Batch leftbatch;  // Buffer for left input stream
-    ArrayList<Batch> rightbatches = new ArrayList<>(); // Buffers for right input stream
+    ArrayList<Batch> rightbatches = new ArrayList<>(); // Buffers for right input stream, pinned in the buffer pool
+    ArrayList<Tuple> righttuples = new ArrayList<>();   // tuples of the right batches, in order
     int numBufferedRightTuples;
-    int rCapacity;
-
-    ObjectInputStream in; // File pointer to the right hand materialized file
 
     int lcurs;    // Cursor for left side buffer
     int rcurs;    // Cursor for right side buffer
@@ -41,6 +43,7 @@ public class BLOCKNESTED extends Join {
 
     public BLOCKNESTED(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        conditionList = jn.getConditionList();
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
@@ -59,10 +62,8 @@ public class BLOCKNESTED extends Join {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
-        Attribute leftattr = con.getLhs();
-        Attribute rightattr = (Attribute) con.getRhs();
-        leftindex = left.getSchema().indexOf(leftattr);
-        rightindex = right.getSchema().indexOf(rightattr);
+        leftindex = leftIndexes();
+        rightindex = rightIndexes();
         Batch rightpage;
         /** initialize the cursors of input buffers **/
 
@@ -89,12 +90,16 @@ public class BLOCKNESTED extends Join {
             //if(right.getOpType() != OpType.SCAN){
             filenum++;
             rfname = "BNtemp-" + String.valueOf(filenum);
+            JoinFilter[] filters = newJoinFilters();
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                rfile = new BatchFile(rfname);
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    rfile.add(rightpage);
+                    for (int i = 0; filters != null && i < rightpage.size(); i++) {
+                        addToJoinFilters(filters, rightpage.elementAt(i), rightindex);
+                    }
                 }
-                out.close();
+                rfile.flush();
             } catch (IOException io) {
                 System.out.println("BLOCKNESTED:writing the temporary file error");
                 return false;
@@ -102,6 +107,10 @@ public class BLOCKNESTED extends Join {
             //}
             if (!right.close())
                 return false;
+            /** the left tuples without a match are dropped by the scans **/
+            if (filters != null) {
+                pushJoinFilters(filters);
+            }
         }
         if (left.open())
             return true;
@@ -139,14 +148,9 @@ public class BLOCKNESTED extends Join {
                 /** Whenver a new left page came , we have to start the
                  ** scanning of right table
                  **/
-                try {
-
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    eosr = false;
-                } catch (IOException io) {
-                    System.err.println("BLOCKNESTED:error in reading the file");
-                    System.exit(1);
-                }
+                closeRightPages();
+                rightpages = new PageReadAhead(rfile, 0, rfile.getNumBatches());
+                eosr = false;
 
             }
 
@@ -155,12 +159,15 @@ public class BLOCKNESTED extends Join {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
                         readRightBatches();
+                        if (eosr) {
+                            break;
+                        }
                     }
 
                     for (i = lcurs; i < leftbatch.size(); i++) {
                         for (j = rcurs; j < numBufferedRightTuples; j++) {
                             Tuple lefttuple = leftbatch.elementAt(i);
-                            Tuple righttuple = rightbatches.get(j/ rCapacity).elementAt(j % rCapacity);
+                            Tuple righttuple = righttuples.get(j);
                             if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
                                 Tuple outtuple = lefttuple.joinWith(righttuple);
 
@@ -189,9 +196,6 @@ public class BLOCKNESTED extends Join {
                     }
                     lcurs = 0;
 
-                } catch (ClassNotFoundException c) {
-                    System.out.println("BLOCKNESTED:Some error in deserialization ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("BLOCKNESTED:temporary file reading error");
                     System.exit(1);
@@ -201,26 +205,41 @@ public class BLOCKNESTED extends Join {
         return outbatch;
     }
 
-    public void readRightBatches() throws IOException, ClassNotFoundException {
-        rightbatches.clear();
-        numBufferedRightTuples = 0;
-        rCapacity = 0;
-        try {
-            Batch rBatch;
-            for (int i = 0; i < numBuff - 2; i++) {
-                rBatch = (Batch) in.readObject();
-                rightbatches.add(rBatch);
-                numBufferedRightTuples += rBatch.size();
-                if (i == 0) {
-                    rCapacity = rBatch.capacity();
-                }
-            }
+    /** Pin the next block of numBuff - 2 batches of the right file
+     ** in the buffer pool, in place of the previous block. The batch
+     ** after the block is pinned while the block is joined
+     **/
 
-        } catch (EOFException e) {
+    public void readRightBatches() throws IOException {
+        releaseRightBatches();
+        Batch rBatch;
+        for (int i = 0; i < numBuff - 2 && rightpages.hasNext(); i++) {
+            rBatch = (Batch) rightpages.next();
+            rightbatches.add(rBatch);
+            for (int j = 0; j < rBatch.size(); j++) {
+                righttuples.add(rBatch.elementAt(j));
+            }
         }
+        numBufferedRightTuples = righttuples.size();
         if (rightbatches.size() == 0) {
             eosr = true;
-            in.close();
+        }
+    }
+
+
+    void releaseRightBatches() {
+        for (int i = 0; i < rightbatches.size(); i++) {
+            BufferManager.unpin(rightbatches.get(i));
+        }
+        rightbatches.clear();
+        righttuples.clear();
+    }
+
+
+    void closeRightPages() {
+        if (rightpages != null) {
+            rightpages.close();
+            rightpages = null;
         }
     }
 
@@ -228,8 +247,17 @@ public class BLOCKNESTED extends Join {
     /** Close the operator */
     public boolean close() {
 
-        File f = new File(rfname);
-        f.delete();
+        releaseRightBatches();
+        closeRightPages();
+        if (rfile != null) {
+            BufferManager.invalidate(rfname);
+            try {
+                rfile.delete();
+            } catch (IOException io) {
+                System.out.println("BLOCKNESTED:Error in deleting the temporary file");
+            }
+            rfile = null;
+        }
         return true;
 
     }
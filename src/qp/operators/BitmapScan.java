@@ -0,0 +1,143 @@
+/**
+ * Reads the rows of a base table that satisfy several selection
+ * conditions at once, through bitmap indexes on their attributes
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+
+/** Each condition selects the bitmaps of the values of its attribute
+ ** that satisfy it and ORs them, the results of the conditions are
+ ** ANDed, all before the table is read. Only the pages holding rows of
+ ** the final bitmap are then read, through the buffer pool, in table
+ ** order. The Select operators above the scan still check the
+ ** conditions.
+ **/
+
+public class BitmapScan extends RowIdScan {
+
+    Vector conds;      // selection conditions answered by bitmap indexes
+    int slotBits;      // bits of a row number of the bitmaps that hold the slot
+
+    int estimatedPages = -1;   // pages holding qualifying rows, -1 until known
+
+
+    public BitmapScan(Scan scan, Vector conds) {
+        super(scan.getTabName(), scan.getOpType());
+        schema = scan.getSchema();
+        neededAttrs = scan.getNeededAttributes();
+        pushedConds = scan.getPushedConditions();
+        this.conds = conds;
+    }
+
+
+    public Vector getConditions() {
+        return conds;
+    }
+
+
+    /** whether a bitmap index on the attribute of the selection
+     ** condition is up to date with the table
+     **/
+
+    public static boolean canUse(String tabname, Condition cn) {
+        return cn.getOpType() == Condition.SELECT
+                && BitmapIndex.exists(tabname, cn.getLhs().getColName());
+    }
+
+
+    /** AND of the rows satisfying each condition, null if an index
+     ** cannot be read
+     **/
+
+    RoaringBitmap selectRows() {
+        RoaringBitmap result = null;
+        for (int i = 0; i < conds.size(); i++) {
+            Condition cn = (Condition) conds.elementAt(i);
+            BitmapIndex index;
+            try {
+                index = BitmapIndex.read(BitmapIndex.fileName(tabname, cn.getLhs().getColName()));
+            } catch (IOException e) {
+                System.err.println("BitmapScan: Error reading the bitmap index of " + tabname + "." + cn.getLhs().getColName());
+                return null;
+            }
+            slotBits = index.getSlotBits();
+            RoaringBitmap matches = index.select(cn.getExprType(), conditionKey(schema, cn));
+            result = (result == null) ? matches : RoaringBitmap.and(result, matches);
+        }
+        return result;
+    }
+
+
+    /** Number of table pages the scan reads. The indexes know the
+     ** rows of every value, so this is exact. It is computed once,
+     ** -1 if an index cannot be read
+     **/
+
+    public int pagesToRead() {
+        if (estimatedPages < 0) {
+            RoaringBitmap matches = selectRows();
+            if (matches == null) {
+                return -1;
+            }
+            int[] found = matches.toArray();
+            int pages = 0;
+            int last = -1;
+            for (int i = 0; i < found.length; i++) {
+                if (found[i] >>> slotBits != last) {
+                    last = found[i] >>> slotBits;
+                    pages++;
+                }
+            }
+            estimatedPages = pages;
+        }
+        return estimatedPages;
+    }
+
+
+    /** pages of the index files read to find the rows **/
+
+    public int indexPages() {
+        long bytes = 0;
+        for (int i = 0; i < conds.size(); i++) {
+            Condition cn = (Condition) conds.elementAt(i);
+            bytes += new File(BitmapIndex.fileName(tabname, cn.getLhs().getColName())).length();
+        }
+        return (int) ((bytes + Batch.getPageSize() - 1) / Batch.getPageSize());
+    }
+
+
+    /** compute the places of the rows to be returned from the row
+     ** numbers of the bitmap, (page << slotBits) | slot
+     **/
+
+    protected boolean openPageFile() {
+        if (!super.openPageFile()) {
+            return false;
+        }
+        RoaringBitmap matches = selectRows();
+        if (matches == null) {
+            return false;
+        }
+        int[] rows = matches.toArray();
+        int slotMask = (1 << slotBits) - 1;
+        rowIds = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rowIds[i] = ((long) (rows[i] >>> slotBits) << 32) | (rows[i] & slotMask);
+        }
+        return true;
+    }
+
+
+    public Object clone() {
+        Scan newscan = (Scan) super.clone();
+        BitmapScan bs = new BitmapScan(newscan, conds);
+        bs.estimatedPages = estimatedPages;
+        return bs;
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Scans a base table from its column files
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Only the column files of the attributes needed by the query are
+ ** read. The tuples keep the schema of the table, the attributes that
+ ** are not read are left 0 or null so that the attribute indexes used
+ ** by the operators above stay valid.
+ **/
+
+public class ColumnScan extends Scan {
+
+    ColumnReader[] readers;   // reader of each needed attribute, null if not needed
+    int numtuples;            // Number of tuples in the table
+    int rowno;                // Number of tuples returned so far
+
+
+    public ColumnScan(Scan scan) {
+        super(scan.getTabName(), scan.getOpType());
+        schema = scan.getSchema();
+        neededAttrs = scan.getNeededAttributes();
+        pushedConds = scan.getPushedConditions();
+    }
+
+
+    /** whether the column files of all needed attributes, or of the
+     ** first attribute if none is needed, exist and are current: not
+     ** older than the table file and holding as many tuples
+     **/
+
+    public boolean hasColumnFiles() {
+        File tblfile = new File(filename);
+        if (!PageFile.isPageFile(filename)) {
+            return false;
+        }
+        int tabletuples;
+        try {
+            PageFile table = PageFile.open(filename);
+            tabletuples = table.getNumTuples();
+            table.close();
+        } catch (IOException e) {
+            return false;
+        }
+        boolean anyNeeded = false;
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            anyNeeded = anyNeeded || isNeeded(i);
+        }
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            if (!isNeeded(i) && (anyNeeded || i != 0)) {
+                continue;
+            }
+            Attribute attr = schema.getAttribute(i);
+            File colfile = new File(ColumnWriter.fileName(tabname, attr.getColName()));
+            if (!colfile.exists() || colfile.lastModified() < tblfile.lastModified()) {
+                return false;
+            }
+            try {
+                ColumnReader reader = new ColumnReader(colfile.getPath(), attr.getType());
+                int count = reader.getNumValues();
+                reader.close();
+                if (count != tabletuples) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public boolean open() {
+        /** num of tuples per batch**/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+        eos = false;
+        prepareJoinFilters();
+
+        layout = TupleLayout.of(schema);
+        readers = new ColumnReader[schema.getNumCols()];
+        numtuples = -1;
+        rowno = 0;
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            if (!isNeeded(i)) {
+                continue;
+            }
+            Attribute attr = schema.getAttribute(i);
+            String colfile = ColumnWriter.fileName(tabname, attr.getColName());
+            try {
+                readers[i] = new ColumnReader(colfile, attr.getType());
+            } catch (IOException e) {
+                System.err.println(" Error reading " + colfile);
+                close();
+                return false;
+            }
+            numtuples = readers[i].getNumValues();
+        }
+        if (numtuples == -1) {
+            /** no attribute is needed, still every row has to be returned **/
+            numtuples = countRows();
+        }
+        return numtuples >= 0;
+    }
+
+
+    /** number of rows from the header of any column file **/
+
+    int countRows() {
+        Attribute attr = schema.getAttribute(0);
+        String colfile = ColumnWriter.fileName(tabname, attr.getColName());
+        try {
+            ColumnReader reader = new ColumnReader(colfile, attr.getType());
+            int count = reader.getNumValues();
+            reader.close();
+            return count;
+        } catch (IOException e) {
+            System.err.println(" Error reading " + colfile);
+            return -1;
+        }
+    }
+
+
+    /** assemble the next batch of rows from the needed columns **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+
+        Batch tuples = new Batch(batchsize);
+        try {
+            while (!tuples.isFull() && rowno < numtuples) {
+                Tuple tuple = new Tuple(layout);
+                for (int i = 0; i < readers.length; i++) {
+                    if (readers[i] != null) {
+                        tuple.set(i, readers[i].next());
+                    }
+                }
+                rowno++;
+                if (filterCols == null || mayJoin(tuple)) {
+                    tuples.add(tuple);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("ColumnScan:Error reading columns of " + tabname);
+            System.exit(1);
+        }
+        if (rowno == numtuples) {
+            eos = true;
+        }
+        return tuples;
+    }
+
+
+    /** number of bytes read from the column files so far **/
+
+    public long getBytesRead() {
+        long bytes = 0;
+        for (int i = 0; i < readers.length; i++) {
+            if (readers[i] != null) {
+                bytes += readers[i].getBytesRead();
+            }
+        }
+        return bytes;
+    }
+
+
+    public boolean close() {
+        if (readers == null) {
+            return true;
+        }
+        boolean ok = true;
+        for (int i = 0; i < readers.length; i++) {
+            try {
+                if (readers[i] != null) {
+                    readers[i].close();
+                    readers[i] = null;
+                }
+            } catch (IOException e) {
+                System.err.println("ColumnScan: Error closing columns of " + tabname);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+
+    public Object clone() {
+        return new ColumnScan((Scan) super.clone());
+    }
+}
@@ -6,6 +6,8 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.Vector;
+
 public class Debug {
 
 
@@ -88,11 +90,20 @@ public class Debug {
                 case JoinType.HASHJOIN:
                     System.out.print("HashJoin(");
                     break;
+                case JoinType.INDEXNESTED:
+                    System.out.print("IndexNested(");
+                    break;
             }
             //System.out.print("Join(");
             PPrint(((Join) node).getLeft());
             System.out.print("  [");
-            PPrint(((Join) node).getCondition());
+            Vector conds = ((Join) node).getConditionList();
+            for (int i = 0; i < conds.size(); i++) {
+                if (i > 0) {
+                    System.out.print(" AND ");
+                }
+                PPrint((Condition) conds.elementAt(i));
+            }
             System.out.print("]  ");
             PPrint(((Join) node).getRight());
             System.out.print(")");
@@ -111,7 +122,22 @@ public class Debug {
             System.out.print(")");
 
         } else if (optype == OpType.SCAN) {
-            System.out.print(((Scan) node).getTabName());
+            if (node instanceof BitmapScan) {
+                Vector conds = ((BitmapScan) node).getConditions();
+                System.out.print("BitmapScan(" + ((Scan) node).getTabName());
+                for (int i = 0; i < conds.size(); i++) {
+                    System.out.print("  '");
+                    PPrint((Condition) conds.elementAt(i));
+                    System.out.print("'");
+                }
+                System.out.print(")");
+            } else if (node instanceof IndexScan) {
+                System.out.print("IndexScan(" + ((Scan) node).getTabName() + "  '");
+                PPrint(((IndexScan) node).getCondition());
+                System.out.print("')");
+            } else {
+                System.out.print(((Scan) node).getTabName());
+            }
         }
     }
 
@@ -119,7 +145,7 @@ public class Debug {
     /** print a tuple **/
 
     public static void PPrint(Tuple t) {
-        for (int i = 0; i < t.data().size(); i++) {
+        for (int i = 0; i < t.size(); i++) {
             Object data = t.dataAt(i);
             if (data instanceof Integer) {
                 System.out.print(((Integer) data).intValue() + "\t");
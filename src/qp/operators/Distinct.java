@@ -151,11 +151,14 @@ public class Distinct extends Operator {
     // hashVariant is used to vary the hash function
     private int _hashTuple(Tuple tuple, int partitions, int hashVariant) {
         int hashInput = 0;
-        for (Object col_value : tuple.data()) {
-            if (col_value instanceof Integer) {
-                hashInput += (int) col_value;
+        TupleLayout layout = tuple.getLayout();
+        for (int i = 0; i < tuple.size(); i++) {
+            if (layout.typeOf(i) == Attribute.INT) {
+                hashInput += tuple.intAt(i);
+            } else if (layout.typeOf(i) == Attribute.REAL) {
+                hashInput += Float.floatToIntBits(tuple.floatAt(i));
             } else {
-                hashInput += _stringHash(col_value);
+                hashInput += _stringHash(tuple.stringAt(i));
             }
         }
         return (hashVariant * hashInput + (hashInput % hashVariant)) % (partitions - 1);
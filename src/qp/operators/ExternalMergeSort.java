@@ -4,19 +4,46 @@ import qp.utils.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ExternalMergeSort extends Operator {
+
+    public static final int SORT_RUNS = 0;              // runs of numBuff pages sorted in memory
+    public static final int REPLACEMENT_SELECTION = 1;  // runs grown through a heap of numBuff pages
+
+    static int runGeneration = SORT_RUNS;   // how the sorts generate their runs
+
+    static int threads = 1;   // Number of threads sorting and merging the runs of a sort
+
+    static long totalRuns = 0;        // Number of runs generated by all the sorts
+    static long totalRunTuples = 0;   // Number of tuples written to those runs
+
     protected Operator base;
 
     int numBuff;
     int batchSize;
     int[] attrIndex;
+    SortKey sortKey;     // Prefixes the tuples are compared on
 
     Vector attrSet;
     List<File> sortedFiles;
     String fileName;
 
-    ObjectInputStream in;
+    int finalFanIn;                   // most runs merged by the final pass, which feeds next()
+    SpillIO.Reader[] finalRuns;       // the runs merged by the final pass
+    LoserTree finalMerge;             // the final merge pass, null when closed
+
+    int numRuns;       // Number of runs generated by this sort
+    long runTuples;    // Number of tuples written to them
+
+    Batch inbatch;       // input batch the runs are generated from
+    int incurs;          // Cursor for the input batch
+    boolean eosin;       // Whether end of stream (input) is reached
+
+    ForkJoinPool pool;   // sorts and merges runs concurrently, null on a single thread
 
     public ExternalMergeSort(Operator base, Vector as, int opType, int numBuff, String fileName) {
         super(opType);
@@ -24,10 +51,126 @@ public class ExternalMergeSort extends Operator {
         this.attrSet = as;
         this.numBuff = numBuff;
         this.fileName = fileName;
+        this.finalFanIn = finalFanIn(numBuff);
+    }
+
+
+    /** set the number of runs the final merge pass may merge, at most
+     ** finalFanIn(numBuff). A parent that streams another sorted input
+     ** at the same time gives each a part of the buffers
+     **/
+
+    public void setFinalFanIn(int runs) {
+        finalFanIn = Math.max(1, Math.min(runs, finalFanIn(numBuff)));
+    }
+
+
+    /** Number of runs the final merge pass may merge with numBuff
+     ** buffers. It needs a page per run, and with background I/O
+     ** (see SpillIO) another one per run for the page read ahead
+     **/
+
+    public static int finalFanIn(int numBuff) {
+        return SpillIO.isEnabled() ? Math.max(1, (numBuff - 2) / 2) : numBuff - 1;
+    }
+
+
+    /** set how the sorts generate their sorted runs, SORT_RUNS or
+     ** REPLACEMENT_SELECTION
+     **/
+
+    public static void setRunGeneration(int method) {
+        runGeneration = method;
+    }
+
+    public static int getRunGeneration() {
+        return runGeneration;
+    }
+
+
+    /** expected pages of a run generated with numBuff buffers: a block
+     ** of the buffers of a task sorted in memory, or about twice the
+     ** heap of numBuff pages with replacement selection, which runs on
+     ** a single thread
+     **/
+
+    public static int runPages(int numBuff) {
+        return (runGeneration == REPLACEMENT_SELECTION) ? 2 * numBuff : taskBuffers(numBuff);
+    }
+
+
+    /** set the number of threads of a sort. With more than one, blocks
+     ** of the input are sorted and written as runs concurrently, and
+     ** the groups of runs of a merge pass are merged concurrently. The
+     ** numBuff pages of the sort are shared by the tasks running at the
+     ** same time (see taskBuffers)
+     **/
+
+    public static void setThreads(int n) {
+        threads = n;
+    }
+
+    public static int getThreads() {
+        return threads;
+    }
+
+
+    /** threads a sort with numBuff buffers runs on, each needs 3 buffers at least **/
+
+    static int sortThreads(int numBuff) {
+        return Math.max(1, Math.min(threads, numBuff / 3));
+    }
+
+
+    /** buffers of each task of a sort with numBuff buffers: all of them
+     ** on a single thread, else an equal share for each thread
+     **/
+
+    public static int taskBuffers(int numBuff) {
+        return numBuff / sortThreads(numBuff);
+    }
+
+
+    /** Number of runs an intermediate merge pass merges into one. A
+     ** merge task needs a page per run and an output page, with
+     ** background I/O twice as many for the pages read ahead and the
+     ** page being written. At least two runs are merged, so with fewer
+     ** than 6 buffers per task the background I/O goes over them
+     **/
+
+    public static int mergeFanIn(int numBuff) {
+        int buffers = taskBuffers(numBuff);
+        return SpillIO.isEnabled() ? Math.max(2, (buffers - 2) / 2) : buffers - 1;
+    }
+
+
+    /** Number of runs generated by this sort **/
+
+    public int getNumRuns() {
+        return numRuns;
+    }
+
+    /** average number of tuples in the runs of this sort **/
+
+    public double getAverageRunLength() {
+        return (numRuns == 0) ? 0 : (double) runTuples / numRuns;
+    }
+
+    /** Number of runs generated by all the sorts so far **/
+
+    public static long getTotalRuns() {
+        return totalRuns;
+    }
+
+    /** average number of tuples in the runs of all the sorts so far **/
+
+    public static double getTotalAverageRunLength() {
+        return (totalRuns == 0) ? 0 : (double) totalRunTuples / totalRuns;
     }
 
     /**
-     * Do sorting and save sorted result to disk
+     * Do sorting and save sorted runs to disk. The final merge pass is
+     * not written, next() returns its tuples as they are merged
      * @return boolean for successful execution
      */
     public boolean open() {
@@ -52,57 +195,98 @@ public class ExternalMergeSort extends Operator {
             int index = baseSchema.indexOf(attr);
             attrIndex[i] = index;
         }
+        sortKey = new SortKey(baseSchema, attrIndex);
 
         sortedFiles = new ArrayList<>();
 
         /**
          * Key parts: create sorted runs and merge sorted runs
          */
+        int numThreads = sortThreads(numBuff);
+        pool = (numThreads > 1) ? new ForkJoinPool(numThreads) : null;
         createSortedRuns();
         mergeSortedFiles();
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
 
-        try {
-            in = new ObjectInputStream(new FileInputStream(sortedFiles.get(0)));
-        } catch (Exception e) {
-            System.err.println(" Error reading " + sortedFiles.get(0));
-            return false;
+        finalRuns = new SpillIO.Reader[sortedFiles.size()];
+        for (int i = 0; i < finalRuns.length; i++) {
+            try {
+                finalRuns[i] = new SpillIO.Reader(new ObjectInputStream(new FileInputStream(sortedFiles.get(i))));
+            } catch (IOException e) {
+                System.err.println(" Error reading " + sortedFiles.get(i));
+                close();
+                return false;
+            }
         }
+        finalMerge = new LoserTree(finalRuns);
 
         return true;
     }
 
+    /**
+     * The next batch of the final merge pass, null at the end
+     */
     public Batch next() {
-        if(sortedFiles.size() != 1) {
-            System.out.println("ExternalMergeSort: sorted file not merged properly. ");
+        if (finalMerge == null) {
+            return null;
         }
-
-        try {
-            Batch thisBatch = (Batch) in.readObject();
-            return thisBatch;
-        } catch (IOException e) {
+        Batch thisBatch = new Batch(batchSize);
+        Tuple tuple;
+        while (!thisBatch.isFull() && (tuple = finalMerge.next()) != null) {
+            thisBatch.add(tuple);
+        }
+        if (thisBatch.isEmpty()) {
             return null;
-        } catch (ClassNotFoundException e) {
-            System.out.println("File not found. ");
         }
-        return null;
+        return thisBatch;
     }
 
     public boolean close() {
-        for(File file: sortedFiles)
-            file.delete();
-        try {
-            in.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (finalRuns != null) {
+            for (int i = 0; i < finalRuns.length; i++) {
+                try {
+                    if (finalRuns[i] != null) {
+                        finalRuns[i].close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            finalRuns = null;
+        }
+        finalMerge = null;
+        if (sortedFiles != null) {
+            for (File file : sortedFiles)
+                file.delete();
         }
         return true;
     }
 
     /**
-     * Generate sorted runs
+     * Generate sorted runs with the chosen method
      * Save the sorted runs to file system
      */
     public void createSortedRuns() {
+        numRuns = 0;
+        runTuples = 0;
+        if (runGeneration == REPLACEMENT_SELECTION) {
+            createReplacementSelectionRuns();
+        } else if (pool != null) {
+            createParallelSortedRuns();
+        } else {
+            createMemorySortedRuns();
+        }
+        totalRuns += numRuns;
+        totalRunTuples += runTuples;
+    }
+
+    /**
+     * Generate sorted runs of numBuff pages, each sorted in memory
+     */
+    public void createMemorySortedRuns() {
         Batch batch = base.next();
         int counter = 0;
         while(batch != null && !batch.isEmpty()) {
@@ -114,32 +298,198 @@ public class ExternalMergeSort extends Operator {
                 batch = base.next();
             }
             counter++;
+            numRuns++;
+            runTuples += thisRun.getTupleSize();
 
-            // Take out the tuples from BatchBlock and sort
-            List<Tuple> allTuples = thisRun.getTuples();
-            Collections.sort(allTuples, new AttributeComparator(attrIndex));
+            sortedFiles.add(sortRun(thisRun, counter));
+        }
+    }
 
-            // Save the sorted run to file system and record the File
-            BatchesBlock sortedRun = new BatchesBlock(numBuff, batchSize);
-            sortedRun.addTuples((Vector) allTuples);
-            File result = writeToSortTempFile(sortedRun, counter);
-            sortedFiles.add(result);
+    /**
+     * Generate sorted runs as createMemorySortedRuns, the blocks read
+     * being sorted and written by the tasks of the pool while the next
+     * ones are read. Each block has the taskBuffers pages of a task, and
+     * the block being read and those waiting or being sorted are at
+     * most one per thread, so they fit in numBuff pages
+     */
+    public void createParallelSortedRuns() {
+        List<ForkJoinTask<File>> tasks = new ArrayList<>();
+        int blockPages = taskBuffers(numBuff);
+        int numThreads = pool.getParallelism();
+        Batch batch = base.next();
+        int counter = 0;
+        while(batch != null && !batch.isEmpty()) {
+
+            BatchesBlock thisRun = new BatchesBlock(blockPages, batchSize);
+            while(!thisRun.isFull() && batch != null && !batch.isEmpty()) {
+                thisRun.addBatch(batch);
+                batch = base.next();
+            }
+            counter++;
+            numRuns++;
+            runTuples += thisRun.getTupleSize();
+
+            final BatchesBlock block = thisRun;
+            final int runNumber = counter;
+            tasks.add(pool.submit(new Callable<File>() {
+                public File call() {
+                    return sortRun(block, runNumber);
+                }
+            }));
+            if (tasks.size() - sortedFiles.size() >= numThreads) {
+                sortedFiles.add(joinTask(tasks.get(sortedFiles.size())));
+            }
+        }
+        while (sortedFiles.size() < tasks.size()) {
+            sortedFiles.add(joinTask(tasks.get(sortedFiles.size())));
+        }
+    }
+
+    /**
+     * Sort the tuples of a block and save them as a run
+     * @return the run file
+     */
+    File sortRun(BatchesBlock block, int counter) {
+        // Take out the tuples from BatchBlock and sort them on their key prefixes
+        List<Tuple> allTuples = block.getTuples();
+        RunEntry[] entries = new RunEntry[allTuples.size()];
+        for (int i = 0; i < entries.length; i++) {
+            Tuple tuple = allTuples.get(i);
+            entries[i] = new RunEntry(0, sortKey.prefix(tuple), tuple);
+        }
+        Arrays.sort(entries, new Comparator<RunEntry>() {
+            public int compare(RunEntry e1, RunEntry e2) {
+                return sortKey.compare(e1.prefix, e1.tuple, e2.prefix, e2.tuple);
+            }
+        });
+        Vector<Tuple> sortedTuples = new Vector<>(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            sortedTuples.add(entries[i].tuple);
         }
+
+        // Save the sorted run to file system and record the File
+        BatchesBlock sortedRun = new BatchesBlock(numBuff, batchSize);
+        sortedRun.addTuples(sortedTuples);
+        return writeToSortTempFile(sortedRun, counter);
     }
 
+    /**
+     * Wait for a task of the pool and get its file
+     */
+    File joinTask(ForkJoinTask<File> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("ExternalMergeSort: sorting task failed " + e.getCause());
+            System.exit(1);
+            return null;
+        }
+    }
 
     /**
-     * Do merging until there is only one file
+     * Generate sorted runs by replacement selection. A heap holds as
+     * many tuples as numBuff pages, its smallest tuple is written to the
+     * current run and replaced by the next input tuple, which belongs to
+     * the current run if it is not smaller than the tuple written, else
+     * to the next one. Runs are about twice the memory on random input,
+     * and an input already sorted is a single run
+     */
+    public void createReplacementSelectionRuns() {
+        int capacity = numBuff * batchSize;
+        PriorityQueue<RunEntry> heap = new PriorityQueue<>(capacity, new Comparator<RunEntry>() {
+            public int compare(RunEntry e1, RunEntry e2) {
+                if (e1.run != e2.run) {
+                    return Integer.compare(e1.run, e2.run);
+                }
+                return sortKey.compare(e1.prefix, e1.tuple, e2.prefix, e2.tuple);
+            }
+        });
+
+        inbatch = null;
+        incurs = 0;
+        eosin = false;
+        Tuple tuple;
+        while (heap.size() < capacity && (tuple = nextInputTuple()) != null) {
+            heap.add(new RunEntry(0, sortKey.prefix(tuple), tuple));
+        }
+
+        int run = -1;
+        SpillIO.Writer out = null;
+        Batch outbatch = new Batch(batchSize);
+        while (!heap.isEmpty()) {
+            RunEntry smallest = heap.poll();
+            if (smallest.run != run) {
+                /** the heap holds only tuples of the next run, start it **/
+                if (out != null) {
+                    if (!outbatch.isEmpty()) {
+                        tryWriteToRun(out, outbatch);
+                        outbatch = new Batch(batchSize);
+                    }
+                    tryCloseRun(out);
+                }
+                run = smallest.run;
+                numRuns++;
+                File runFile = new File(this.fileName + "-ExternalSortTemp-" + numRuns);
+                sortedFiles.add(runFile);
+                out = tryInitRunWriter(runFile);
+            }
+            outbatch.add(smallest.tuple);
+            runTuples++;
+            if (outbatch.isFull()) {
+                tryWriteToRun(out, outbatch);
+                outbatch = new Batch(batchSize);
+            }
+
+            Tuple next = nextInputTuple();
+            if (next != null) {
+                long prefix = sortKey.prefix(next);
+                smallest.run = (sortKey.compare(prefix, next, smallest.prefix, smallest.tuple) >= 0) ? run : run + 1;
+                smallest.prefix = prefix;
+                smallest.tuple = next;
+                heap.add(smallest);
+            }
+        }
+        if (out != null) {
+            if (!outbatch.isEmpty()) {
+                tryWriteToRun(out, outbatch);
+            }
+            tryCloseRun(out);
+        }
+    }
+
+    /**
+     * The next tuple of the input, null at the end of it
+     */
+    protected Tuple nextInputTuple() {
+        if (eosin) {
+            return null;
+        }
+        if (inbatch == null || incurs == inbatch.size()) {
+            inbatch = base.next();
+            incurs = 0;
+            if (inbatch == null || inbatch.isEmpty()) {
+                eosin = true;
+                inbatch = null;
+                return null;
+            }
+        }
+        return inbatch.elementAt(incurs++);
+    }
+
+
+    /**
+     * Do merging until the final pass can merge the runs left
      */
     public void mergeSortedFiles() {
 
         int counter = 0;
         int runsCounter = 0;
-        int inputNumBuff = numBuff - 1;
+        int inputNumBuff = mergeFanIn(numBuff);
         List<File> outputSortedFile;
 
-        while (sortedFiles.size() > 1) { // Merge until there is only one file left
+        while (sortedFiles.size() > finalFanIn) { // Merge until the final pass can take the files left
             outputSortedFile = new ArrayList<>();
+            List<ForkJoinTask<File>> tasks = new ArrayList<>();
             runsCounter = 0;
             for (int i = 0; i * inputNumBuff < sortedFiles.size(); i++) {
 
@@ -150,11 +500,27 @@ public class ExternalMergeSort extends Operator {
                 } else {
                     currentFilesToBeSort = sortedFiles.subList(i * inputNumBuff, (i+1) * inputNumBuff);
                 }
+                if (pool != null) {
+                    // The groups of runs are independent, merge them concurrently
+                    final List<File> group = currentFilesToBeSort;
+                    final int mergeTimes = counter;
+                    final int mergeNumRuns = runsCounter;
+                    tasks.add(pool.submit(new Callable<File>() {
+                        public File call() {
+                            return mergeSortedRuns(group, mergeTimes, mergeNumRuns);
+                        }
+                    }));
+                    runsCounter++;
+                    continue;
+                }
                 File resultFile = mergeSortedRuns(currentFilesToBeSort, counter, runsCounter);
 
                 runsCounter++;
                 outputSortedFile.add(resultFile);
             }
+            for (ForkJoinTask<File> task : tasks) {
+                outputSortedFile.add(joinTask(task));
+            }
 
             for (File file : sortedFiles) {
                 file.delete();
@@ -174,102 +540,178 @@ public class ExternalMergeSort extends Operator {
      */
     public File mergeSortedRuns(List<File> runFiles, int mergeTimes, int mergeNumRuns) {
 
-        int inputNumBuff = numBuff - 1;
         int numRuns = runFiles.size();
-        int runIndex;
-        ArrayList<ObjectInputStream> inputStreams = new ArrayList<>();
-        ArrayList<Batch> inputBatchesArray = new ArrayList<>(numRuns);
+        SpillIO.Reader[] inputRuns = new SpillIO.Reader[numRuns];
 
-        // Get all inputStream and get one batch from each inputStream for runFiles
+        // Get a reader for each of the runFiles, they read ahead
         for (int i = 0; i < numRuns; i++) {
             try {
-                ObjectInputStream iStream = new ObjectInputStream(new FileInputStream(runFiles.get(i)));
-                inputStreams.add(iStream);
+                inputRuns[i] = new SpillIO.Reader(new ObjectInputStream(new FileInputStream(runFiles.get(i))));
             } catch (IOException e) {
                 System.out.println("ExternalMergeSort: Reading temporary file error");
             }
-
-            Batch thisBatch = getNextBatch(inputStreams.get(i));
-            inputBatchesArray.add(i, thisBatch);
-            if (thisBatch == null) {
-                System.out.println("ExternalMergeSort: run " + i + " is empty.");
-            }
         }
 
         File resultFile = new File(this.fileName + "-MergedRunFile-" + mergeTimes + "-" + mergeNumRuns);
-        ObjectOutputStream oStream = tryInitObjectOutputStream(resultFile);
-        Batch tempBatch;
+        SpillIO.Writer oStream = tryInitRunWriter(resultFile);
         Batch outputBuffer = new Batch(batchSize);
 
         /**
          * Do merging:
-         * Use a PriorityQueue to get smallest tuple
-         * Use a map to store the runIndex for each tuple
+         * A loser tree over the runs gives the smallest tuple
          */
-        Queue<Tuple> firstTuplesPQ = new PriorityQueue<>(numRuns, new AttributeComparator(attrIndex));
-        Map<Tuple, Integer> runIndexMap = new HashMap<>(numRuns);
-
-
-        for (runIndex = 0; runIndex < numRuns; runIndex++) {
-            tempBatch = inputBatchesArray.get(runIndex);
-            Tuple tuple = tempBatch.elementAt(0);
-            tempBatch.remove(0);
-            firstTuplesPQ.add(tuple);
-            runIndexMap.put(tuple, runIndex);
-            if (tempBatch.isEmpty()) {
-                inputBatchesArray.set(runIndex, getNextBatch(inputStreams.get(runIndex)));
+        LoserTree runHeads = new LoserTree(inputRuns);
+        Tuple smallest;
+        while ((smallest = runHeads.next()) != null) {
+            outputBuffer.add(smallest);
+
+            if (outputBuffer.isFull()) {
+                // written in the background, the next tuples go to a new buffer
+                tryWriteToRun(oStream, outputBuffer);
+                outputBuffer = new Batch(batchSize);
             }
         }
 
-        // Keep adding new tuples and getting top tuples from the firstTuplesPQ
-        while (!firstTuplesPQ.isEmpty()) {
-            Tuple topTuple = firstTuplesPQ.remove();
-            outputBuffer.add(topTuple);
+        // process remaining tuples in outputBuffer
+        if (!outputBuffer.isEmpty()) {
+            tryWriteToRun(oStream, outputBuffer);
+        }
 
-            if (outputBuffer.isFull()) {
-                tryWriteToObjectOutputStream(oStream, outputBuffer);
-                outputBuffer.clear();
+        for (int i = 0; i < numRuns; i++) {
+            try {
+                if (inputRuns[i] != null) {
+                    inputRuns[i].close();
+                }
+            } catch (IOException e) {
+                System.out.println("ExternalMergeSort: could not close input stream");
             }
+        }
+        tryCloseRun(oStream);
+        return resultFile;
+    }
 
-            runIndex = runIndexMap.get(topTuple);
-            tempBatch = inputBatchesArray.get(runIndex);
+    /**
+     * Tournament tree of the current tuples of k runs. Each inner node
+     * keeps the run that lost the match played there and the overall
+     * winner is kept apart, it is the run with the smallest tuple. When
+     * the winner moves to its next tuple only the matches on its path
+     * to the root are played again, log2(k) comparisons. Each run is
+     * read through a cursor into its current page, and a run at its end
+     * loses every match. Ties go to the earlier run
+     */
+    class LoserTree {
+        int k;                          // Number of runs
+        int[] tree;                     // tree[0] the winner, tree[1..k-1] the losers of the inner nodes
+        SpillIO.Reader[] streams;       // the runs, each reading its next page ahead
+        Batch[] pages;                  // current page of each run, null at its end
+        int[] cursors;                  // Cursor into the current page of each run
+        long[] heads;                   // key prefix of the current tuple of each run
+
+        LoserTree(SpillIO.Reader[] streams) {
+            k = streams.length;
+            this.streams = streams;
+            pages = new Batch[k];
+            cursors = new int[k];
+            heads = new long[k];
+            for (int run = 0; run < k; run++) {
+                pages[run] = nextPage(run);
+                setHead(run);
+            }
+            tree = new int[Math.max(1, k)];
+            if (k > 0) {
+                tree[0] = playMatches(1);
+            }
+        }
 
-            if (tempBatch != null) {
-                Tuple tuple = tempBatch.elementAt(0);
-                tempBatch.remove(0);
-                firstTuplesPQ.add(tuple);
-                runIndexMap.put(tuple, runIndex);
-                if (tempBatch.isEmpty()) {
-                    inputBatchesArray.set(runIndex, getNextBatch(inputStreams.get(runIndex)));
+        /** the smallest tuple of the runs, null when they are all read **/
+
+        Tuple next() {
+            if (k == 0) {
+                return null;
+            }
+            int winner = tree[0];
+            if (pages[winner] == null) {
+                return null;
+            }
+            Tuple smallest = pages[winner].elementAt(cursors[winner]);
+            cursors[winner]++;
+            if (cursors[winner] == pages[winner].size()) {
+                pages[winner] = nextPage(winner);
+            }
+            setHead(winner);
+            /** replay the matches from the leaf of the winner up **/
+            for (int node = (winner + k) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
                 }
             }
+            tree[0] = winner;
+            return smallest;
         }
 
-        // process remaining tuples in outputBuffer
-        if (!outputBuffer.isEmpty()) {
-            tryWriteToObjectOutputStream(oStream, outputBuffer);
-            outputBuffer.clear();
+        /** winner of the subtree at the node, leaves are nodes k to 2k-1 **/
+
+        int playMatches(int node) {
+            if (node >= k) {
+                return node - k;
+            }
+            int run1 = playMatches(2 * node);
+            int run2 = playMatches(2 * node + 1);
+            if (beats(run2, run1)) {
+                tree[node] = run1;
+                return run2;
+            }
+            tree[node] = run2;
+            return run1;
         }
-        runIndexMap.clear();
 
-        tryCloseObjectOutputStream(oStream);
-        return resultFile;
+        /** whether the current tuple of run1 comes before that of run2 **/
+
+        boolean beats(int run1, int run2) {
+            if (pages[run1] == null) {
+                return false;
+            }
+            if (pages[run2] == null) {
+                return true;
+            }
+            int diff = sortKey.compare(heads[run1], pages[run1].elementAt(cursors[run1]),
+                    heads[run2], pages[run2].elementAt(cursors[run2]));
+            return diff < 0 || (diff == 0 && run1 < run2);
+        }
+
+        /** the prefix of the current tuple of the run is computed once **/
+
+        void setHead(int run) {
+            if (pages[run] != null) {
+                heads[run] = sortKey.prefix(pages[run].elementAt(cursors[run]));
+            }
+        }
+
+        /** the next page of the run that is not empty, null at its end **/
+
+        Batch nextPage(int run) {
+            cursors[run] = 0;
+            if (streams[run] == null) {
+                return null;
+            }
+            Batch page;
+            do {
+                page = getNextBatch(streams[run]);
+            } while (page != null && page.isEmpty());
+            return page;
+        }
     }
 
     /**
-     * Get the next Batch from inputStream
-     * @return The Batch
+     * Get the next Batch from a run
+     * @return The Batch, null at the end of the run
      */
-    protected Batch getNextBatch(ObjectInputStream inputStream) {
+    protected Batch getNextBatch(SpillIO.Reader run) {
         try {
-            Batch batch = (Batch) inputStream.readObject();
-            if(batch == null) {
-                System.out.println("batch is null");
-            }
-            return batch;
-        } catch (EOFException e) {
-            return null;
-        } catch (ClassNotFoundException | IOException e) {
+            return run.next();
+        } catch (IOException e) {
             System.out.println("Encounter error when read from stream");
         }
         return null;
@@ -284,10 +726,10 @@ public class ExternalMergeSort extends Operator {
     public File writeToSortTempFile(BatchesBlock run, int numRuns) {
         try {
             File outputFile = new File(this.fileName + "-ExternalSortTemp-" + numRuns);
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(outputFile));
+            SpillIO.Writer out = new SpillIO.Writer(new ObjectOutputStream(new FileOutputStream(outputFile)));
 
             for (Batch batch : run.getBatchesVector()) {
-                out.writeObject(batch);
+                out.write(batch);
             }
             out.close();
             return outputFile;
@@ -297,25 +739,28 @@ public class ExternalMergeSort extends Operator {
         return null;
     }
 
-    public ObjectOutputStream tryInitObjectOutputStream(File file) {
+    public SpillIO.Writer tryInitRunWriter(File file) {
         try {
-            return new ObjectOutputStream(new FileOutputStream(file, true));
+            return new SpillIO.Writer(new ObjectOutputStream(new FileOutputStream(file, true)));
         } catch (IOException io) {
             System.out.println("ExternalMergeSort: cannot initialize object output stream");
         }
         return null;
     }
 
-    public void tryWriteToObjectOutputStream(ObjectOutputStream out, Batch batch) {
+    /**
+     * Append a batch to a run, it is written in the background and
+     * must not be changed afterwards
+     */
+    public void tryWriteToRun(SpillIO.Writer out, Batch batch) {
         try {
-            out.writeObject(batch);
-            out.reset();          //reset the ObjectOutputStream to enable appending result
+            out.write(batch);
         } catch (IOException io) {
             System.out.println("ExternalMergeSort: encounter error when append to object output stream");
         }
     }
 
-    public void tryCloseObjectOutputStream(ObjectOutputStream out) {
+    public void tryCloseRun(SpillIO.Writer out) {
         try {
             out.close();
         } catch (IOException io) {
@@ -323,16 +768,17 @@ public class ExternalMergeSort extends Operator {
         }
     }
 
-    class AttributeComparator implements Comparator<Tuple> {
-        private int[] attrIndex;
+    /** a tuple with its key prefix, and in the replacement selection heap the run it goes to **/
 
-        public AttributeComparator(int[] attrIndex) {
-            this.attrIndex = attrIndex;
-        }
+    static class RunEntry {
+        int run;
+        long prefix;    // key prefix of the tuple
+        Tuple tuple;
 
-        @Override
-        public int compare(Tuple tuple1, Tuple tuple2) {
-            return Tuple.compareTuples(tuple1, tuple2, attrIndex[0]);
+        RunEntry(int run, long prefix, Tuple tuple) {
+            this.run = run;
+            this.prefix = prefix;
+            this.tuple = tuple;
         }
     }
 
@@ -0,0 +1,474 @@
+/**
+ * hybrid hash join algorithm
+ **/
+
+package qp.operators;
+
+import qp.optimizer.BufferManager;
+import qp.utils.Batch;
+import qp.utils.BatchFile;
+import qp.utils.JoinFilter;
+import qp.utils.Tuple;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Vector;
+
+/** The right input is hashed on the join attribute into
+ ** spillPartitions(numBuff) partitions written to temporary files, one
+ ** output page each, and a resident partition kept in memory as a hash
+ ** table. With the input page, the resident partition gets the buffers
+ ** left, residentPages(numBuff), and is written out like the others if
+ ** it grows beyond them. The left input is then hashed the same way:
+ ** the tuples of the resident partition are joined at once, the others
+ ** are written to the matching left partition files. Each pair of
+ ** partition files is joined in turn by loading the right one into a
+ ** hash table and reading the left one. A right partition that does
+ ** not fit in numBuff - 2 pages is partitioned again into numBuff - 1
+ ** partitions, together with its left partition, with another hash
+ ** function. Every pass so uses at most numBuff buffers. A filter of
+ ** the right keys is pushed into the scans of the left input before it
+ ** is read.
+ **/
+
+public class HashJoin extends Join {
+
+    public static final int MAXLEVEL = 4;    // passes after which a partition is loaded whatever its size
+
+    static int filenum = 0;   // To get unique filenames for this operation
+
+    int batchsize;  //Number of tuples per out batch
+
+    /** The following fields are useful during execution of
+     ** the HashJoin operation
+     **/
+    int[] leftindex;     // Indexes of the join attributes in left table
+    int[] rightindex;    // Indexes of the join attributes in right table
+    int leftcapacity;  // Number of left tuples per page
+    int rightcapacity; // Number of right tuples per page
+    int nspill;        // Number of partitions the first pass writes to files
+    int nparts;        // Number of partitions a partition is split into again
+
+    HashMap<Object, Vector<Tuple>> table;   // right tuples being joined, by join key
+    Partitions leftparts;   // left partitions while the left input is read
+    Vector<Pair> pending;   // pairs of partitions not joined yet
+
+    boolean readingLeft;    // whether the left input is being read
+    BatchFile probefile;    // left partition being joined
+    int probeno;            // Number of the next batch of the left partition
+    Batch probebatch;       // Buffer for the probe tuples
+    boolean pinned;         // whether probebatch is pinned in the buffer pool
+    int pcurs;              // Cursor for the probe buffer
+
+    Tuple probetuple;       // probe tuple the matches are joined with
+    Vector<Tuple> matches;  // right tuples with the key of the probe tuple
+    int mcurs;              // Cursor for the matches
+
+    boolean eos;    // Whether all the partitions are joined
+
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        conditionList = jn.getConditionList();
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+
+    /** During open finds the index of the join attributes,
+     ** partitions the right input and opens the left one
+     **/
+
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+
+        leftindex = leftIndexes();
+        rightindex = rightIndexes();
+        leftcapacity = Batch.getPageSize() / left.getSchema().getTupleSize();
+        rightcapacity = Batch.getPageSize() / right.getSchema().getTupleSize();
+        nspill = spillPartitions(numBuff);
+        nparts = Math.max(2, numBuff - 1);
+
+        pending = new Vector<Pair>();
+        probefile = null;
+        probebatch = null;
+        pinned = false;
+        pcurs = 0;
+        matches = null;
+        eos = false;
+
+        /** partition 0 of the files holds the resident partition
+         ** if it has to be written out
+         **/
+        if (!right.open()) {
+            return false;
+        }
+        Partitions rightparts = new Partitions("R", nspill + 1, rightcapacity);
+        JoinFilter[] filters = newJoinFilters();
+        table = new HashMap<Object, Vector<Tuple>>();
+        int resident = 0;
+        int residentLimit = residentPages(numBuff) * rightcapacity;
+        try {
+            Batch rightpage;
+            while ((rightpage = right.next()) != null) {
+                for (int i = 0; i < rightpage.size(); i++) {
+                    Tuple t = rightpage.elementAt(i);
+                    if (filters != null) {
+                        addToJoinFilters(filters, t, rightindex);
+                    }
+                    int p = partition(joinKey(t, rightindex), 0, nspill + 1);
+                    if (p == 0 && table != null) {
+                        addToTable(t, rightindex);
+                        resident++;
+                        if (resident > residentLimit) {
+                            /** the resident partition does not fit **/
+                            for (Vector<Tuple> tuples : table.values()) {
+                                for (int j = 0; j < tuples.size(); j++) {
+                                    rightparts.add(0, tuples.get(j));
+                                }
+                            }
+                            table = null;
+                        }
+                    } else {
+                        rightparts.add(p, t);
+                    }
+                }
+            }
+            rightparts.flush();
+        } catch (IOException io) {
+            System.out.println("HashJoin: writing the temporary file error");
+            rightparts.delete();
+            return false;
+        }
+        if (!right.close()) {
+            return false;
+        }
+
+        /** the left tuples without a match are dropped by the scans **/
+        if (filters != null) {
+            pushJoinFilters(filters);
+        }
+
+        leftparts = new Partitions("L", nspill + 1, leftcapacity);
+        for (int p = 0; p <= nspill; p++) {
+            pending.add(new Pair(rightparts.files[p], 0));
+        }
+        readingLeft = true;
+        return left.open();
+    }
+
+
+    /** Number of partitions the first pass writes to files. About
+     ** half the buffers go to their output pages and half to the
+     ** resident partition, which trades the tuples joined without being
+     ** written for the size of the partitions joined later
+     **/
+
+    public static int spillPartitions(int numBuff) {
+        return Math.max(1, (numBuff - 1) / 2);
+    }
+
+
+    /** pages the resident partition may use: the buffers left after
+     ** the input page and the output pages of the spilled partitions
+     **/
+
+    public static int residentPages(int numBuff) {
+        return Math.max(1, numBuff - 1 - spillPartitions(numBuff));
+    }
+
+
+    /** from input buffers selects the tuples satisfying join condition
+     ** And returns a page of output tuples
+     **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (matches != null && mcurs < matches.size()) {
+                outbatch.add(probetuple.joinWith(matches.get(mcurs)));
+                mcurs++;
+                continue;
+            }
+            probetuple = nextProbeTuple();
+            if (probetuple == null) {
+                eos = true;
+                if (outbatch.isEmpty()) {
+                    close();
+                    return null;
+                }
+                return outbatch;
+            }
+            matches = table.get(joinKey(probetuple, leftindex));
+            mcurs = 0;
+        }
+        return outbatch;
+    }
+
+
+    /** next left tuple to be looked up in the hash table, null when
+     ** all partitions are joined
+     **/
+
+    Tuple nextProbeTuple() {
+        try {
+            while (true) {
+                if (probebatch != null && pcurs < probebatch.size()) {
+                    Tuple t = probebatch.elementAt(pcurs++);
+                    if (readingLeft) {
+                        int p = partition(joinKey(t, leftindex), 0, nspill + 1);
+                        if (p != 0 || table == null) {
+                            leftparts.add(p, t);
+                            continue;
+                        }
+                    }
+                    return t;
+                }
+                releaseProbeBatch();
+                if (readingLeft) {
+                    probebatch = left.next();
+                    pcurs = 0;
+                    if (probebatch == null) {
+                        /** the left partitions are complete **/
+                        leftparts.flush();
+                        for (int p = 0; p <= nspill; p++) {
+                            pending.get(p).left = leftparts.files[p];
+                        }
+                        leftparts = null;
+                        readingLeft = false;
+                        left.close();
+                    }
+                } else if (probefile != null && probeno < probefile.getNumBatches()) {
+                    probebatch = (Batch) BufferManager.pin(probefile, probeno++);
+                    pinned = true;
+                    pcurs = 0;
+                } else if (!nextPartition()) {
+                    return null;
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("HashJoin: temporary file reading error");
+            System.exit(1);
+            return null;
+        }
+    }
+
+
+    /** Load the next pair of partitions to be joined, partitioning
+     ** again those whose right partition is too large. False if there
+     ** is none left
+     **/
+
+    boolean nextPartition() throws IOException {
+        deleteFile(probefile);
+        probefile = null;
+        table = null;
+        while (!pending.isEmpty()) {
+            Pair pair = pending.remove(pending.size() - 1);
+            if (pair.right == null || pair.left == null) {
+                pair.delete();
+                continue;
+            }
+            if (pair.right.getNumBatches() <= numBuff - 2 || pair.level >= MAXLEVEL) {
+                table = new HashMap<Object, Vector<Tuple>>();
+                for (int i = 0; i < pair.right.getNumBatches(); i++) {
+                    Batch b = (Batch) BufferManager.pin(pair.right, i);
+                    for (int j = 0; j < b.size(); j++) {
+                        addToTable(b.elementAt(j), rightindex);
+                    }
+                    BufferManager.unpin(b);
+                }
+                deleteFile(pair.right);
+                probefile = pair.left;
+                probeno = 0;
+                return true;
+            }
+            /** the right partition does not fit, split both again **/
+            Partitions rightparts = repartition(pair.right, rightindex, rightcapacity, "R", pair.level + 1);
+            Partitions leftparts = repartition(pair.left, leftindex, leftcapacity, "L", pair.level + 1);
+            for (int p = 0; p < nparts; p++) {
+                Pair split = new Pair(rightparts.files[p], pair.level + 1);
+                split.left = leftparts.files[p];
+                pending.add(split);
+            }
+        }
+        return false;
+    }
+
+
+    /** hash the tuples of a partition file into new partitions, and delete it **/
+
+    Partitions repartition(BatchFile file, int[] index, int capacity, String side, int level) throws IOException {
+        Partitions parts = new Partitions(side, nparts, capacity);
+        for (int i = 0; i < file.getNumBatches(); i++) {
+            Batch b = (Batch) BufferManager.pin(file, i);
+            for (int j = 0; j < b.size(); j++) {
+                Tuple t = b.elementAt(j);
+                parts.add(partition(joinKey(t, index), level, nparts), t);
+            }
+            BufferManager.unpin(b);
+        }
+        parts.flush();
+        deleteFile(file);
+        return parts;
+    }
+
+
+    void addToTable(Tuple t, int[] index) {
+        Object key = joinKey(t, index);
+        Vector<Tuple> tuples = table.get(key);
+        if (tuples == null) {
+            tuples = new Vector<Tuple>(1);
+            table.put(key, tuples);
+        }
+        tuples.add(t);
+    }
+
+
+    /** Partition of the key among n. Each level of partitioning
+     ** mixes the hash code of the key differently, so the tuples
+     ** of a partition are spread over all the partitions of the next
+     ** level, and none follows the hash table layout
+     **/
+
+    static int partition(Object key, int level, int n) {
+        return Math.floorMod(hash(key, level), n);
+    }
+
+    static int hash(Object key, int level) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+
+    void releaseProbeBatch() {
+        if (pinned) {
+            BufferManager.unpin(probebatch);
+            pinned = false;
+        }
+        probebatch = null;
+    }
+
+
+    static void deleteFile(BatchFile file) {
+        if (file == null) {
+            return;
+        }
+        BufferManager.invalidate(file.getFileName());
+        try {
+            file.delete();
+        } catch (IOException io) {
+            System.out.println("HashJoin:Error in deleting the temporary file");
+        }
+    }
+
+
+    /** Close the operator, removing the partition files left **/
+
+    public boolean close() {
+        releaseProbeBatch();
+        deleteFile(probefile);
+        probefile = null;
+        if (leftparts != null) {
+            leftparts.delete();
+            leftparts = null;
+        }
+        if (pending != null) {
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).delete();
+            }
+            pending.clear();
+        }
+        table = null;
+        matches = null;
+        return true;
+    }
+
+
+    /** a right partition and the left partition joined with it **/
+
+    static class Pair {
+
+        BatchFile right;   // file of the right partition, null if empty
+        BatchFile left;    // file of the left partition, null if empty
+        int level;         // Number of partitioning passes that made them
+
+        Pair(BatchFile right, int level) {
+            this.right = right;
+            this.level = level;
+        }
+
+        void delete() {
+            deleteFile(right);
+            deleteFile(left);
+            right = null;
+            left = null;
+        }
+    }
+
+
+    /** The partitions of one input: an output page for each and a
+     ** file created when its first page is written
+     **/
+
+    static class Partitions {
+
+        String prefix;        // start of the names of the files
+        int capacity;         // Number of tuples per page
+        Batch[] buffers;      // output page of each partition
+        BatchFile[] files;    // file of each partition, null while empty
+
+        Partitions(String side, int n, int capacity) {
+            filenum++;
+            prefix = "HJtemp-" + filenum + side;
+            this.capacity = capacity;
+            buffers = new Batch[n];
+            files = new BatchFile[n];
+        }
+
+        void add(int p, Tuple t) throws IOException {
+            if (buffers[p] == null) {
+                buffers[p] = new Batch(capacity);
+            }
+            buffers[p].add(t);
+            if (buffers[p].isFull()) {
+                write(p);
+            }
+        }
+
+        void write(int p) throws IOException {
+            if (files[p] == null) {
+                files[p] = new BatchFile(prefix + "-" + p);
+            }
+            files[p].add(buffers[p]);
+            buffers[p] = null;
+        }
+
+        /** write the pages that are not full **/
+
+        void flush() throws IOException {
+            for (int p = 0; p < buffers.length; p++) {
+                if (buffers[p] != null && !buffers[p].isEmpty()) {
+                    write(p);
+                }
+            }
+        }
+
+        void delete() {
+            for (int p = 0; p < files.length; p++) {
+                deleteFile(files[p]);
+                files[p] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * index nested loop join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.util.Vector;
+
+/** For each tuple of the left input the rows of the right table with
+ ** the same join key are looked up in an index on the right join
+ ** attribute (see BuildIndex), so the right table is neither scanned
+ ** nor materialized. The right input must be a base table, possibly
+ ** with selections on it, which are checked on the rows looked up.
+ **/
+
+public class IndexNestedJoin extends Join {
+
+
+    int batchsize;  //Number of tuples per out batch
+
+    /** The following fields are useful during execution of
+     ** the IndexNestedJoin operation
+     **/
+    int leftindex;     // Index of the join attribute in left table
+    int[] leftindexes;    // Indexes of all the join attributes in left table
+    int[] rightindexes;   // Indexes of all the join attributes in right table
+
+    IndexScan inner;       // looks up the rows of the right table
+    Vector innerSelects;   // selections on the right table
+
+    Batch leftbatch;  // Buffer for left input stream
+    Tuple lefttuple;  // left tuple the matching rows are joined with
+    Vector matches;   // rows of the right table matching the current left tuple
+
+    int lcurs;    // Cursor for left side buffer
+    int mcurs;    // Cursor for the matching rows
+    boolean eosl;  // Whether end of stream (left table) is reached
+
+    public IndexNestedJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        conditionList = jn.getConditionList();
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+
+    /** the scan of the base table under the selections of the
+     ** operator, null if it is not such a table
+     **/
+
+    public static Scan innerScan(Operator node) {
+        while (node.getOpType() == OpType.SELECT) {
+            node = ((Select) node).getBase();
+        }
+        return (node.getOpType() == OpType.SCAN) ? (Scan) node : null;
+    }
+
+
+    /** the first join condition whose right attribute has an index
+     ** on the base table of the right input, null if there is none
+     **/
+
+    public static Condition indexedCondition(Join jn) {
+        Scan scan = innerScan(jn.getRight());
+        if (scan == null) {
+            return null;
+        }
+        Vector conds = jn.getConditionList();
+        for (int i = 0; i < conds.size(); i++) {
+            Condition cn = (Condition) conds.elementAt(i);
+            Attribute rightattr = (Attribute) cn.getRhs();
+            if (rightattr.getTabName().equals(scan.getTabName())
+                    && BTreeIndex.exists(scan.getTabName(), rightattr.getColName())) {
+                return cn;
+            }
+        }
+        return null;
+    }
+
+
+    /** whether the right input of the join is a base table with
+     ** an index on a right join attribute
+     **/
+
+    public static boolean canUse(Join jn) {
+        return indexedCondition(jn) != null;
+    }
+
+
+    /** the index scan probed for the indexed right join attribute **/
+
+    public static IndexScan innerIndexScan(Join jn) {
+        return new IndexScan(innerScan(jn.getRight()), (Attribute) indexedCondition(jn).getRhs());
+    }
+
+
+    /** During open finds the index of the join attribute, opens
+     ** the index of the right table and the left input. The rows
+     ** looked up must also satisfy the other join conditions
+     **/
+
+    public boolean open() {
+        close();
+
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+
+        leftindex = left.getSchema().indexOf(indexedCondition(this).getLhs());
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+
+        innerSelects = new Vector();
+        Operator node = right;
+        while (node.getOpType() == OpType.SELECT) {
+            ((Select) node).prepare();
+            innerSelects.add(node);
+            node = ((Select) node).getBase();
+        }
+        inner = innerIndexScan(this);
+        if (!inner.open()) {
+            return false;
+        }
+
+        lcurs = 0;
+        mcurs = 0;
+        matches = null;
+        leftbatch = null;
+        eosl = false;
+        return left.open();
+    }
+
+
+    /** from input buffers selects the tuples satisfying join condition
+     ** And returns a page of output tuples
+     **/
+
+    public Batch next() {
+        if (eosl) {
+            close();
+            return null;
+        }
+        Batch outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (matches == null || mcurs == matches.size()) {
+                /** look up the rows of the next left tuple **/
+                if (leftbatch == null || lcurs == leftbatch.size()) {
+                    leftbatch = left.next();
+                    lcurs = 0;
+                    if (leftbatch == null) {
+                        eosl = true;
+                        return outbatch;
+                    }
+                    continue;
+                }
+                lefttuple = leftbatch.elementAt(lcurs++);
+                matches = inner.probe(lefttuple.dataAt(leftindex));
+                mcurs = 0;
+                continue;
+            }
+            Tuple righttuple = (Tuple) matches.elementAt(mcurs++);
+            if (satisfiesSelects(righttuple)
+                    && lefttuple.checkJoin(righttuple, leftindexes, rightindexes)) {
+                outbatch.add(lefttuple.joinWith(righttuple));
+            }
+        }
+        return outbatch;
+    }
+
+
+    boolean satisfiesSelects(Tuple tuple) {
+        for (int i = 0; i < innerSelects.size(); i++) {
+            if (!((Select) innerSelects.elementAt(i)).checkCondition(tuple)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** Close the operator */
+    public boolean close() {
+        if (inner != null) {
+            inner.close();
+            inner = null;
+        }
+        return true;
+    }
+
+
+}
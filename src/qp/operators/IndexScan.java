@@ -0,0 +1,208 @@
+/**
+ * Reads the rows of a base table that a selection condition can
+ * match, through a B+-tree index on the attribute of the condition
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Vector;
+
+/** The index gives the place of the rows whose key satisfies the
+ ** condition. The places are sorted so every table page is read once,
+ ** through the buffer pool, and the rows come out in table order. The
+ ** Select above the scan still checks the condition. Conditions with
+ ** != are not answered by the index. An index scan without a
+ ** condition returns no rows by itself, the rows of each key are
+ ** looked up with probe (see IndexNestedJoin).
+ **/
+
+public class IndexScan extends RowIdScan {
+
+    Condition cond;      // the selection condition answered by the index, null if probed
+    Attribute attr;      // the indexed attribute
+    BTreeIndex index;    // index on the attribute
+
+
+    public IndexScan(Scan scan, Condition cn) {
+        super(scan.getTabName(), scan.getOpType());
+        schema = scan.getSchema();
+        neededAttrs = scan.getNeededAttributes();
+        pushedConds = scan.getPushedConditions();
+        cond = cn;
+        attr = cn.getLhs();
+    }
+
+
+    /** an index scan on the given attribute that is only probed **/
+
+    public IndexScan(Scan scan, Attribute attr) {
+        super(scan.getTabName(), scan.getOpType());
+        schema = scan.getSchema();
+        neededAttrs = scan.getNeededAttributes();
+        this.attr = attr;
+    }
+
+
+    public Condition getCondition() {
+        return cond;
+    }
+
+    public Attribute getAttribute() {
+        return attr;
+    }
+
+
+    /** whether an index can answer the condition, and there is an
+     ** index on its attribute that is up to date with the table
+     **/
+
+    public static boolean canUse(String tabname, Condition cn) {
+        return cn.getOpType() == Condition.SELECT
+                && cn.getExprType() != Condition.NOTEQUAL
+                && BTreeIndex.exists(tabname, cn.getLhs().getColName());
+    }
+
+
+    BTreeIndex openIndex() throws IOException {
+        return BTreeIndex.open(BTreeIndex.fileName(tabname, attr.getColName()), schema.typeOf(attr));
+    }
+
+
+    /** Fraction of the rows of the table the condition is expected
+     ** to match. Equality uses the number of distinct values, ranges
+     ** assume the keys are spread evenly between the smallest and the
+     ** largest key of the index, or match half of the rows if the keys
+     ** are strings or the index cannot be read
+     **/
+
+    public double selectivity(int numdistinct) {
+        int exprtype = cond.getExprType();
+        if (exprtype == Condition.EQUAL) {
+            return 1.0 / Math.max(numdistinct, 1);
+        }
+        int type = schema.typeOf(attr);
+        if (type == Attribute.STRING) {
+            return 0.5;
+        }
+        Object[] range;
+        try {
+            BTreeIndex idx = openIndex();
+            range = idx.keyRange();
+            idx.close();
+        } catch (IOException e) {
+            return 0.5;
+        }
+        if (range == null) {
+            return 0.0;
+        }
+        double min = ((Number) range[0]).doubleValue();
+        double max = ((Number) range[1]).doubleValue();
+        double value = ((Number) conditionKey(schema, cond)).doubleValue();
+        if (max <= min) {
+            return 1.0;
+        }
+        double below = Math.min(1.0, Math.max(0.0, (value - min) / (max - min)));
+        if (exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE) {
+            return below;
+        }
+        return 1.0 - below;
+    }
+
+
+    /** number of levels of the index, 1 if it cannot be read **/
+
+    public int indexHeight() {
+        try {
+            BTreeIndex idx = openIndex();
+            int height = idx.getHeight();
+            idx.close();
+            return height;
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+
+    /** look up the places of the matching rows in the index **/
+
+    protected boolean openPageFile() {
+        if (!super.openPageFile()) {
+            return false;
+        }
+        try {
+            index = openIndex();
+        } catch (IOException e) {
+            System.err.println("IndexScan: Error reading the index of " + tabname + "." + attr.getColName());
+            return false;
+        }
+        if (cond == null) {
+            rowIds = new long[0];
+            return true;
+        }
+        Object key = conditionKey(schema, cond);
+        int exprtype = cond.getExprType();
+        Object low = null;
+        Object high = null;
+        if (exprtype == Condition.EQUAL || exprtype == Condition.GREATERTHAN || exprtype == Condition.GTOE) {
+            low = key;
+        }
+        if (exprtype == Condition.EQUAL || exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE) {
+            high = key;
+        }
+        rowIds = lookup(low, exprtype != Condition.GREATERTHAN, high, exprtype != Condition.LESSTHAN);
+        return true;
+    }
+
+
+    /** the places of the rows with keys in the range, in table order **/
+
+    long[] lookup(Object low, boolean lowInclusive, Object high, boolean highInclusive) {
+        long[] found = null;
+        try {
+            found = index.lookup(low, lowInclusive, high, highInclusive);
+        } catch (IOException e) {
+            System.err.println("IndexScan: Error reading the index of " + tabname + "." + attr.getColName());
+            System.exit(1);
+        }
+        Arrays.sort(found);
+        return found;
+    }
+
+
+    /** the rows of the table whose indexed attribute equals the key **/
+
+    public Vector probe(Object key) {
+        long[] found = lookup(key, true, key, true);
+        Vector rows = new Vector(found.length);
+        for (int i = 0; i < found.length; i++) {
+            rows.add(readRow((int) (found[i] >>> 32), (int) found[i]));
+        }
+        return rows;
+    }
+
+
+    public boolean close() {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                System.err.println("IndexScan: Error closing the index of " + tabname);
+            }
+            index = null;
+        }
+        return super.close();
+    }
+
+
+    public Object clone() {
+        Scan newscan = (Scan) super.clone();
+        if (cond == null) {
+            return new IndexScan(newscan, attr);
+        }
+        return new IndexScan(newscan, cond);
+    }
+}
@@ -7,6 +7,7 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 public class Join extends qp.operators.Operator {
@@ -14,6 +15,7 @@ public class Join extends qp.operators.Operator {
     Operator left;   // left child
     Operator right;   // right child
     Condition con;     //join condition
+    Vector conditionList;   // all the join conditions, con first, ANDed
     int numBuff;    // Number of buffers available
 
     int jointype;  // JoinType.NestedJoin/SortMerge/HashJoin
@@ -24,6 +26,8 @@ public class Join extends qp.operators.Operator {
         this.left = left;
         this.right = right;
         this.con = cn;
+        conditionList = new Vector();
+        conditionList.add(cn);
 
     }
 
@@ -78,18 +82,163 @@ public class Join extends qp.operators.Operator {
 
     public void setCondition(Condition cond) {
         this.con = cond;
+        conditionList.setElementAt(cond, 0);
     }
 
     public Condition getCondition() {
         return con;
     }
 
+
+    /** The join conditions, tuples join if they satisfy all of
+     ** them. Each has its left hand side in the left input
+     **/
+
+    public Vector getConditionList() {
+        return conditionList;
+    }
+
+    public void setConditionList(Vector conds) {
+        conditionList = conds;
+        con = (Condition) conds.elementAt(0);
+    }
+
+    public void addCondition(Condition cn) {
+        conditionList.add(cn);
+    }
+
+
+    /** swap the sides of all the join conditions, for a join whose inputs are swapped **/
+
+    public void flipConditions() {
+        for (int i = 0; i < conditionList.size(); i++) {
+            ((Condition) conditionList.elementAt(i)).flip();
+        }
+    }
+
+
+    /** indexes of the left attributes of the join conditions in the left schema **/
+
+    protected int[] leftIndexes() {
+        int[] indexes = new int[conditionList.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = left.getSchema().indexOf(((Condition) conditionList.elementAt(i)).getLhs());
+        }
+        return indexes;
+    }
+
+    /** indexes of the right attributes of the join conditions in the right schema **/
+
+    protected int[] rightIndexes() {
+        int[] indexes = new int[conditionList.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = right.getSchema().indexOf((Attribute) ((Condition) conditionList.elementAt(i)).getRhs());
+        }
+        return indexes;
+    }
+
+
+    /** The join key of a tuple, the value at the index if there is
+     ** one join attribute, else the list of the values, which equals
+     ** the list of the same values of the other input
+     **/
+
+    protected static Object joinKey(Tuple t, int[] indexes) {
+        if (indexes.length == 1) {
+            return t.dataAt(indexes[0]);
+        }
+        Object[] values = new Object[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            values[i] = t.dataAt(indexes[i]);
+        }
+        return Arrays.asList(values);
+    }
+
+    /** Filters for the keys of the right input, one for each join
+     ** condition, to be pushed into the left input once the keys are
+     ** all added. Null if filters are turned off, an entry is null if
+     ** the attributes of its condition differ in type
+     **/
+
+    protected JoinFilter[] newJoinFilters() {
+        if (!JoinFilter.isEnabled()) {
+            return null;
+        }
+        JoinFilter[] filters = new JoinFilter[conditionList.size()];
+        for (int i = 0; i < filters.length; i++) {
+            Condition cn = (Condition) conditionList.elementAt(i);
+            Attribute leftattr = cn.getLhs();
+            Attribute rightattr = (Attribute) cn.getRhs();
+            int type = right.getSchema().typeOf(rightattr);
+            if (left.getSchema().typeOf(leftattr) == type) {
+                filters[i] = new JoinFilter(leftattr, type);
+            }
+        }
+        return filters;
+    }
+
+
+    /** add the keys of a right tuple to the filters **/
+
+    protected static void addToJoinFilters(JoinFilter[] filters, Tuple t, int[] rightindexes) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i] != null) {
+                filters[i].add(t.dataAt(rightindexes[i]));
+            }
+        }
+    }
+
+
+    /** build the filters and push them into the left input **/
+
+    protected void pushJoinFilters(JoinFilter[] filters) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i] != null) {
+                filters[i].build();
+                pushJoinFilter(left, filters[i]);
+            }
+        }
+    }
+
+
+    /** Push a built filter into the scans below the node
+     ** that read the table of its attribute. The joins below are
+     ** inner joins, a tuple without a match cannot reach the output
+     ** through them either. Returns whether a scan takes the filter
+     **/
+
+    protected static boolean pushJoinFilter(Operator node, JoinFilter filter) {
+        if (node instanceof PrefetchScan) {
+            return pushJoinFilter(((PrefetchScan) node).getSource(), filter);
+        } else if (node.getOpType() == OpType.SCAN) {
+            Scan scan = (Scan) node;
+            if (scan.getSchema().indexOf(filter.getAttribute()) < 0) {
+                return false;
+            }
+            scan.setJoinFilter(filter);
+            return true;
+        } else if (node.getOpType() == OpType.SELECT) {
+            return pushJoinFilter(((Select) node).getBase(), filter);
+        } else if (node.getOpType() == OpType.PROJECT) {
+            return pushJoinFilter(((Project) node).getBase(), filter);
+        } else if (node.getOpType() == OpType.JOIN) {
+            boolean pushed = pushJoinFilter(((Join) node).getLeft(), filter);
+            return pushJoinFilter(((Join) node).getRight(), filter) || pushed;
+        }
+        return false;
+    }
+
+
     public Object clone() {
         Operator newleft = (Operator) left.clone();
         Operator newright = (Operator) right.clone();
-        Condition newcond = (Condition) con.clone();
+        Vector newconds = new Vector();
+        for (int i = 0; i < conditionList.size(); i++) {
+            newconds.add(((Condition) conditionList.elementAt(i)).clone());
+        }
 
-        Join jn = new Join(newleft, newright, newcond, optype);
+        Join jn = new Join(newleft, newright, (Condition) newconds.elementAt(0), optype);
+        jn.setConditionList(newconds);
         Schema newsche = newleft.getSchema().joinWith(newright.getSchema());
         jn.setSchema(newsche);
         jn.setJoinType(jointype);
@@ -0,0 +1,90 @@
+/**
+ * Scans a base table by memory mapping its page file
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** The pages are decoded straight out of the mapped region, so repeated
+ ** scans of a hot table are served from the OS page cache without being
+ ** copied through a read buffer first. Large files are mapped one window
+ ** of pages at a time. Files that are not page files are read as in Scan.
+ **/
+
+public class MappedScan extends Scan {
+
+    static final int WINDOW_BYTES = 1 << 28;   // bytes mapped at a time
+
+    MappedByteBuffer window;   // mapped region holding the current pages
+    int windowStart;           // first page in the mapped window
+    int windowPages;           // number of pages in the mapped window
+
+
+    public MappedScan(Scan scan) {
+        super(scan.getTabName(), scan.getOpType());
+        schema = scan.getSchema();
+        neededAttrs = scan.getNeededAttributes();
+        pushedConds = scan.getPushedConditions();
+    }
+
+
+    protected boolean openPageFile() {
+        if (!super.openPageFile()) {
+            return false;
+        }
+        window = null;
+        windowStart = 0;
+        windowPages = 0;
+        return true;
+    }
+
+
+    /** point page at the given page of the mapped window, mapping
+     ** the following window when the current one is used up
+     **/
+
+    protected void fetchPage(int pageno) {
+        if (window == null || pageno >= windowStart + windowPages) {
+            mapWindow(pageno);
+        }
+        int pageSize = pagefile.getPageSize();
+        ByteBuffer view = window.duplicate();
+        view.position((pageno - windowStart) * pageSize);
+        view.limit(view.position() + pageSize);
+        page = view.slice();
+    }
+
+
+    void mapWindow(int first) {
+        int pageSize = pagefile.getPageSize();
+        int maxPages = Math.max(1, WINDOW_BYTES / pageSize);
+        windowStart = first;
+        windowPages = Math.min(maxPages, pagefile.getNumPages() - first);
+        try {
+            window = pagefile.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    pagefile.pageOffset(first), (long) windowPages * pageSize);
+        } catch (IOException e) {
+            System.err.println("MappedScan:Error mapping " + filename);
+            System.exit(1);
+        }
+    }
+
+
+    public boolean close() {
+        window = null;
+        page = null;
+        return super.close();
+    }
+
+
+    public Object clone() {
+        MappedScan newscan = new MappedScan((Scan) super.clone());
+        return newscan;
+    }
+}
@@ -4,6 +4,7 @@
 
 package qp.operators;
 
+import qp.optimizer.BufferManager;
 import qp.utils.*;
 
 import java.io.*;
@@ -18,17 +19,18 @@ public class NestedJoin extends Join {
     /** The following fields are useful during execution of
      ** the NestedJoin operation
      **/
-    int leftindex;     // Index of the join attribute in left table
-    int rightindex;    // Index of the join attribute in right table
+    int[] leftindex;     // Indexes of the join attributes in left table
+    int[] rightindex;    // Indexes of the join attributes in right table
 
     String rfname;    // The file name where the right table is materialize
+    BatchFile rfile;  // The file the right table is materialized in
+    PageReadAhead rightpages;   // reads the batches of the right file in order
 
     static int filenum = 0;   // To get unique filenum for this operation
 
     Batch outbatch;   // Output buffer
     Batch leftbatch;  // Buffer for left input stream
-    Batch rightbatch;  // Buffer for right input stream
-    ObjectInputStream in; // File pointer to the right hand materialized file
+    Batch rightbatch;  // Buffer for right input stream, pinned in the buffer pool
 
     int lcurs;    // Cursor for left side buffer
     int rcurs;    // Cursor for right side buffer
@@ -37,6 +39,7 @@ public class NestedJoin extends Join {
 
     public NestedJoin(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        conditionList = jn.getConditionList();
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
@@ -55,10 +58,8 @@ public class NestedJoin extends Join {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
-        Attribute leftattr = con.getLhs();
-        Attribute rightattr = (Attribute) con.getRhs();
-        leftindex = left.getSchema().indexOf(leftattr);
-        rightindex = right.getSchema().indexOf(rightattr);
+        leftindex = leftIndexes();
+        rightindex = rightIndexes();
         Batch rightpage;
         /** initialize the cursors of input buffers **/
 
@@ -86,11 +87,11 @@ public class NestedJoin extends Join {
             filenum++;
             rfname = "NJtemp-" + String.valueOf(filenum);
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                rfile = new BatchFile(rfname);
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    rfile.add(rightpage);
                 }
-                out.close();
+                rfile.flush();
             } catch (IOException io) {
                 System.out.println("NestedJoin:writing the temporay file error");
                 return false;
@@ -135,14 +136,9 @@ public class NestedJoin extends Join {
                 /** Whenver a new left page came , we have to start the
                  ** scanning of right table
                  **/
-                try {
-
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    eosr = false;
-                } catch (IOException io) {
-                    System.err.println("NestedJoin:error in reading the file");
-                    System.exit(1);
-                }
+                closeRightPages();
+                rightpages = new PageReadAhead(rfile, 0, rfile.getNumBatches());
+                eosr = false;
 
             }
 
@@ -150,7 +146,17 @@ public class NestedJoin extends Join {
 
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        releaseRightBatch();
+                        if (!rightpages.hasNext()) {
+                            eosr = true;
+                            break;
+                        }
+                        /** the batches of the right file are read through the
+                         ** buffer pool, so they are read from the file again
+                         ** only if they were evicted since the last left page.
+                         ** The next one is pinned meanwhile
+                         **/
+                        rightbatch = (Batch) rightpages.next();
                     }
 
                     for (i = lcurs; i < leftbatch.size(); i++) {
@@ -184,16 +190,6 @@ public class NestedJoin extends Join {
                         rcurs = 0;
                     }
                     lcurs = 0;
-                } catch (EOFException e) {
-                    try {
-                        in.close();
-                    } catch (IOException io) {
-                        System.out.println("NestedJoin:Error in temporary file reading");
-                    }
-                    eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin:Some error in deserialization ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("NestedJoin:temporary file reading error");
                     System.exit(1);
@@ -204,11 +200,38 @@ public class NestedJoin extends Join {
     }
 
 
+    /** unpin the current right batch, if there is one **/
+
+    void releaseRightBatch() {
+        if (rightbatch != null) {
+            BufferManager.unpin(rightbatch);
+            rightbatch = null;
+        }
+    }
+
+
+    void closeRightPages() {
+        if (rightpages != null) {
+            rightpages.close();
+            rightpages = null;
+        }
+    }
+
+
     /** Close the operator */
     public boolean close() {
 
-        File f = new File(rfname);
-        f.delete();
+        releaseRightBatch();
+        closeRightPages();
+        if (rfile != null) {
+            BufferManager.invalidate(rfname);
+            try {
+                rfile.delete();
+            } catch (IOException io) {
+                System.out.println("NestedJoin:Error in deleting the temporary file");
+            }
+            rfile = null;
+        }
         return true;
 
     }
@@ -0,0 +1,81 @@
+/**
+ * Pins the pages of a temporary file in order, reading the next one
+ * in the background
+ **/
+
+package qp.operators;
+
+import qp.optimizer.BufferManager;
+import qp.utils.PageSource;
+import qp.utils.SpillIO;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/** While the caller works on a page, an I/O thread (see SpillIO) pins
+ ** the next one in the buffer pool, reading it from the file if it is
+ ** not there. This takes one buffer more than reading the pages one by
+ ** one. The caller unpins the pages it gets, close() unpins the page
+ ** read ahead when the caller stops early.
+ **/
+
+public class PageReadAhead {
+
+    PageSource source;
+    int nextno;              // Number of the next page to read
+    int end;                 // Number of the page after the last one
+    Future<Object> ahead;    // pinning of the next page, null after the last one
+
+
+    /** read the pages first to end - 1 of the source **/
+
+    public PageReadAhead(PageSource source, int first, int end) {
+        this.source = source;
+        this.nextno = first;
+        this.end = end;
+        readAhead();
+    }
+
+
+    void readAhead() {
+        if (nextno >= end) {
+            ahead = null;
+            return;
+        }
+        final int pageno = nextno++;
+        ahead = SpillIO.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+                return BufferManager.pin(source, pageno);
+            }
+        });
+    }
+
+
+    public boolean hasNext() {
+        return ahead != null;
+    }
+
+
+    /** the next page, pinned **/
+
+    public Object next() throws IOException {
+        Object page = SpillIO.await(ahead);
+        readAhead();
+        return page;
+    }
+
+
+    /** unpin the page read ahead, if any **/
+
+    public void close() {
+        if (ahead != null) {
+            try {
+                BufferManager.unpin(SpillIO.await(ahead));
+            } catch (IOException e) {
+                /** the page is not wanted anymore **/
+            }
+            ahead = null;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * hash join run by several threads
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+import qp.utils.JoinFilter;
+import qp.utils.Tuple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** The worker threads take the batches of the right input in turn and
+ ** radix partition their tuples on the low bits of the hash of their
+ ** join key into buckets of their own, into a power of two of
+ ** partitions, several per thread. They then take the partitions one
+ ** by one and build a hash table of each from the buckets of all the
+ ** threads. The keys of the right input are pushed as a filter into
+ ** the scans of the left one. Once open() returns, the workers take the
+ ** batches of the left input in turn, partition each the same way so
+ ** that the tuples probing one hash table follow each other, probe the
+ ** tables, and put the output batches they fill in a shared queue that
+ ** next() reads. The workers wait when the queue is full and are
+ ** stopped by close() the way PrefetchScan stops its reader.
+ **
+ ** The right input is kept in memory and the left one is streamed, so
+ ** the right input must fit in buildPages(numBuff) pages, the buffers
+ ** left after the left page, the output page and the queued page of
+ ** each thread. Plans whose right input is estimated larger use the
+ ** serial HashJoin (see fits), and so does everything with a single
+ ** thread.
+ **/
+
+public class ParallelHashJoin extends Join {
+
+    static int threads = 1;    // Number of worker threads, 1 for the serial HashJoin
+
+    static final Batch END = new Batch(0);   // put in the queue by a worker that is done
+
+    int batchsize;  //Number of tuples per out batch
+
+    int[] leftindex;     // Indexes of the join attributes in left table
+    int[] rightindex;    // Indexes of the join attributes in right table
+
+    int nparts;                              // Number of partitions, a power of two
+    HashMap<Object, Vector<Tuple>>[] tables; // right tuples of each partition, by join key
+    AtomicInteger nextPart;                  // next partition to be built by a worker
+
+    Thread[] workers;                    // threads probing with the left input
+    ArrayBlockingQueue<Batch> queue;     // output batches not yet returned
+    int running;                         // Number of workers that did not put END
+    volatile boolean stopped;            // tells the workers to stop early
+    volatile Throwable failure;          // first error of a worker, null if none
+    boolean leftOpen;                    // whether the left input is open
+
+    public ParallelHashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        conditionList = jn.getConditionList();
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+
+    /** set the number of threads of hash joins, 1 runs them serially **/
+
+    public static void setThreads(int n) {
+        threads = n;
+    }
+
+    public static int getThreads() {
+        return threads;
+    }
+
+
+    /** pages the right input may use with numBuff buffers, after a
+     ** left page, an output page and a queued output page per thread
+     **/
+
+    public static int buildPages(int numBuff) {
+        return numBuff - 3 * threads;
+    }
+
+
+    /** whether a hash join with that many right pages runs on several threads **/
+
+    public static boolean fits(int rightpages, int numBuff) {
+        return threads > 1 && rightpages <= buildPages(numBuff);
+    }
+
+
+    /** partition the right input and build its hash tables, then
+     ** start the workers on the left input
+     **/
+
+    public boolean open() {
+        close();
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+
+        leftindex = leftIndexes();
+        rightindex = rightIndexes();
+
+        /** four partitions per thread balance the work when the
+         ** partitions differ in size
+         **/
+        nparts = Integer.highestOneBit(Math.max(1, 4 * threads - 1)) << 1;
+        failure = null;
+
+        if (!right.open()) {
+            return false;
+        }
+        final Vector<ArrayList<Tuple>[]> shares = new Vector<ArrayList<Tuple>[]>();
+        runWorkers(new Runnable() {
+            public void run() {
+                partitionShare(shares);
+            }
+        });
+        right.close();
+        tables = new HashMap[nparts];
+        nextPart = new AtomicInteger(0);
+        runWorkers(new Runnable() {
+            public void run() {
+                buildTables(shares);
+            }
+        });
+
+        /** the left tuples without a match are dropped by the scans,
+         ** a tuple of each key is enough to fill the filters
+         **/
+        JoinFilter[] filters = newJoinFilters();
+        if (filters != null) {
+            for (int p = 0; p < nparts; p++) {
+                for (Vector<Tuple> tuples : tables[p].values()) {
+                    addToJoinFilters(filters, tuples.get(0), rightindex);
+                }
+            }
+            pushJoinFilters(filters);
+        }
+        if (!left.open()) {
+            tables = null;
+            return false;
+        }
+        leftOpen = true;
+
+        queue = new ArrayBlockingQueue<Batch>(threads);
+        stopped = false;
+        running = threads;
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        probeTables();
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        put(END);
+                    }
+                }
+            }, "hashjoin-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        return true;
+    }
+
+
+    /** run the task on every thread and wait for them all **/
+
+    void runWorkers(final Runnable task) {
+        Thread[] pool = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            pool[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                }
+            }, "hashjoin-" + i);
+            pool[i].setDaemon(true);
+            pool[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            try {
+                pool[i].join();
+            } catch (InterruptedException e) {
+                failure = e;
+            }
+        }
+        checkFailure();
+    }
+
+
+    /** stop the query if a worker failed **/
+
+    void checkFailure() {
+        if (failure != null) {
+            System.err.println("ParallelHashJoin: a worker failed: " + failure);
+            System.exit(1);
+        }
+    }
+
+
+    /** the next batch of the input, the threads take them in turn **/
+
+    static Batch nextBatch(Operator input) {
+        synchronized (input) {
+            return input.next();
+        }
+    }
+
+
+    ArrayList<Tuple>[] newBuckets() {
+        ArrayList<Tuple>[] buckets = new ArrayList[nparts];
+        for (int p = 0; p < nparts; p++) {
+            buckets[p] = new ArrayList<Tuple>();
+        }
+        return buckets;
+    }
+
+
+    /** partition batches of the right input into buckets of this thread **/
+
+    void partitionShare(Vector<ArrayList<Tuple>[]> shares) {
+        ArrayList<Tuple>[] buckets = newBuckets();
+        int mask = nparts - 1;
+        Batch batch;
+        while ((batch = nextBatch(right)) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                Tuple t = batch.elementAt(i);
+                buckets[HashJoin.hash(joinKey(t, rightindex), 0) & mask].add(t);
+            }
+        }
+        shares.add(buckets);
+    }
+
+
+    /** build the hash tables of partitions from the buckets of all the threads **/
+
+    void buildTables(Vector<ArrayList<Tuple>[]> shares) {
+        int p;
+        while ((p = nextPart.getAndIncrement()) < nparts) {
+            HashMap<Object, Vector<Tuple>> table = new HashMap<Object, Vector<Tuple>>();
+            for (int s = 0; s < shares.size(); s++) {
+                ArrayList<Tuple> bucket = shares.get(s)[p];
+                for (int i = 0; i < bucket.size(); i++) {
+                    Tuple t = bucket.get(i);
+                    Object key = joinKey(t, rightindex);
+                    Vector<Tuple> tuples = table.get(key);
+                    if (tuples == null) {
+                        tuples = new Vector<Tuple>(1);
+                        table.put(key, tuples);
+                    }
+                    tuples.add(t);
+                }
+                shares.get(s)[p] = null;
+            }
+            tables[p] = table;
+        }
+    }
+
+
+    /** body of the worker threads: probe the tables with batches of the left input **/
+
+    void probeTables() {
+        Batch outbatch = new Batch(batchsize);
+        ArrayList<Tuple>[] buckets = newBuckets();
+        int mask = nparts - 1;
+        Batch batch;
+        while (!stopped && (batch = nextBatch(left)) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                Tuple t = batch.elementAt(i);
+                buckets[HashJoin.hash(joinKey(t, leftindex), 0) & mask].add(t);
+            }
+            for (int p = 0; p < nparts; p++) {
+                ArrayList<Tuple> probe = buckets[p];
+                HashMap<Object, Vector<Tuple>> table = tables[p];
+                for (int i = 0; i < probe.size() && !table.isEmpty(); i++) {
+                    Tuple lefttuple = probe.get(i);
+                    Vector<Tuple> matches = table.get(joinKey(lefttuple, leftindex));
+                    if (matches == null) {
+                        continue;
+                    }
+                    for (int j = 0; j < matches.size(); j++) {
+                        outbatch.add(lefttuple.joinWith(matches.get(j)));
+                        if (outbatch.isFull()) {
+                            if (!put(outbatch)) {
+                                return;
+                            }
+                            outbatch = new Batch(batchsize);
+                        }
+                    }
+                }
+                probe.clear();
+            }
+        }
+        if (!outbatch.isEmpty()) {
+            put(outbatch);
+        }
+    }
+
+
+    /** put a batch in the queue, false if the join was stopped meanwhile **/
+
+    boolean put(Batch batch) {
+        try {
+            while (!queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+
+    /** the next batch joined by a worker, waiting for it if needed **/
+
+    public Batch next() {
+        if (workers == null) {
+            return null;
+        }
+        while (true) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                System.err.println("ParallelHashJoin: interrupted while joining");
+                System.exit(1);
+                return null;
+            }
+            if (batch != END) {
+                return batch;
+            }
+            checkFailure();
+            running--;
+            if (running == 0) {
+                close();
+                return null;
+            }
+        }
+    }
+
+
+    /** stop the workers, close the left input and drop the tables **/
+
+    public boolean close() {
+        if (workers != null) {
+            stopped = true;
+            for (int i = 0; i < workers.length; i++) {
+                while (workers[i].isAlive()) {
+                    queue.clear();
+                    try {
+                        workers[i].join(10);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            workers = null;
+            queue = null;
+        }
+        if (leftOpen) {
+            left.close();
+            leftOpen = false;
+        }
+        tables = null;
+        return true;
+    }
+}
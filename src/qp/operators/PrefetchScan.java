@@ -0,0 +1,228 @@
+/**
+ * Reads a base table ahead of its consumer in a background thread
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/** The wrapped scan runs in a thread of its own and puts the batches
+ ** it reads into a queue, so up to depth batches are read while the
+ ** operators above work on the earlier ones: the thread takes a
+ ** permit before reading a batch and next() gives it back when it
+ ** returns the batch. The batches are handed over in groups of up to
+ ** half the depth, so the two threads do not wake each other up for
+ ** every batch, and a group is handed over early when the thread has
+ ** to wait for a permit. An error of the scan ends the queue and is
+ ** thrown again by next(). The thread is never interrupted, as that
+ ** would close the file channel under the scan, so close() drains
+ ** the queue and waits for the thread to notice it must stop.
+ **/
+
+public class PrefetchScan extends Scan {
+
+    static int depth = 0;    // Number of batches read ahead, 0 to scan without prefetching
+
+    static final Batch END = new Batch(0);   // put in the queue after the last batch
+
+    Scan source;                       // the scan run in the background
+    ArrayBlockingQueue<Batch[]> queue;   // groups of batches read and not yet returned
+    Semaphore permits;                   // batches the reader may still read ahead
+    Batch[] group;                       // group being returned
+    int next;                            // next batch of the group to return
+    Thread reader;                     // thread running the source scan
+    volatile boolean stopped;          // tells the reader to stop early
+    volatile Throwable failure;        // error of the source scan, null if none
+
+
+    public PrefetchScan(Scan scan) {
+        super(scan.getTabName(), scan.getOpType());
+        schema = scan.getSchema();
+        neededAttrs = scan.getNeededAttributes();
+        pushedConds = scan.getPushedConditions();
+        source = scan;
+    }
+
+
+    /** set how many batches scans read ahead, 0 turns prefetching off **/
+
+    public static void setDepth(int n) {
+        depth = n;
+    }
+
+    public static int getDepth() {
+        return depth;
+    }
+
+
+    public Scan getSource() {
+        return source;
+    }
+
+
+    /** start the reader thread, a scan opened again starts over **/
+
+    public boolean open() {
+        close();
+        if (!source.open()) {
+            return false;
+        }
+        queue = new ArrayBlockingQueue<Batch[]>(Math.max(1, depth) + 1);
+        permits = new Semaphore(Math.max(1, depth));
+        failure = null;
+        group = null;
+        next = 0;
+        stopped = false;
+        eos = false;
+        reader = new Thread(new Runnable() {
+            public void run() {
+                readAhead();
+            }
+        }, "prefetch-" + tabname);
+        reader.setDaemon(true);
+        reader.start();
+        return true;
+    }
+
+
+    /** body of the reader thread **/
+
+    void readAhead() {
+        int size = Math.max(1, depth / 2);
+        Batch[] batches = new Batch[size];
+        int n = 0;
+        try {
+            while (!stopped) {
+                if (!permits.tryAcquire()) {
+                    /** hand over the batches read before waiting for the consumer **/
+                    if (n > 0 && !hand(Arrays.copyOf(batches, n))) {
+                        return;
+                    }
+                    n = 0;
+                    if (!acquire()) {
+                        return;
+                    }
+                }
+                Batch batch = source.next();
+                if (batch == null) {
+                    break;
+                }
+                batches[n++] = batch;
+                if (n == size) {
+                    if (!hand(batches)) {
+                        return;
+                    }
+                    batches = new Batch[size];
+                    n = 0;
+                }
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+        if (n > 0 && !hand(Arrays.copyOf(batches, n))) {
+            return;
+        }
+        hand(new Batch[]{END});
+    }
+
+
+    /** wait for a permit to read a batch, false if the scan was stopped meanwhile **/
+
+    boolean acquire() {
+        try {
+            while (!permits.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    return false;
+                }
+            }
+            return !stopped;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+
+    /** put a group of batches in the queue, false if the scan was stopped meanwhile **/
+
+    boolean hand(Batch[] batches) {
+        try {
+            while (!queue.offer(batches, 10, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+
+    /** the next batch read by the background thread, waiting for it if needed **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        if (group == null || next == group.length) {
+            try {
+                group = queue.take();
+                next = 0;
+            } catch (InterruptedException e) {
+                System.err.println("PrefetchScan: interrupted while reading " + filename);
+                System.exit(1);
+                return null;
+            }
+        }
+        Batch batch = group[next++];
+        if (batch == END) {
+            eos = true;
+            Throwable error = failure;
+            close();
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new RuntimeException("PrefetchScan: error reading " + filename, error);
+            }
+            return null;
+        }
+        permits.release();
+        return batch;
+    }
+
+
+    /** stop the reader thread and close the source scan **/
+
+    public boolean close() {
+        if (reader == null) {
+            return true;
+        }
+        stopped = true;
+        while (reader.isAlive()) {
+            queue.clear();
+            try {
+                reader.join(10);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        reader = null;
+        queue = null;
+        permits = null;
+        return source.close();
+    }
+
+
+    public Object clone() {
+        Scan newsource = (Scan) source.clone();
+        return new PrefetchScan(newsource);
+    }
+}
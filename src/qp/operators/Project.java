@@ -27,6 +27,7 @@ public class Project extends Operator {
      **/
 
     int[] attrIndex;
+    TupleLayout layout;   // layout of the output tuples
 
 
     public Project(Operator base, Vector as, int type) {
@@ -76,6 +77,7 @@ public class Project extends Operator {
             //  Debug.PPrint(attr);
             //System.out.println("  "+index+"  ");
         }
+        layout = TupleLayout.of(schema);
 
         if (base.open())
             return true;
@@ -101,16 +103,18 @@ public class Project extends Operator {
             return null;
         }
         //System.out.println("Project:---------------base tuples---------");
+        if (inbatch instanceof VectorBatch && !((VectorBatch) inbatch).isMaterialized()) {
+            /** reorder the columns, no value is copied **/
+            return ((VectorBatch) inbatch).project(layout, attrIndex);
+        }
         for (int i = 0; i < inbatch.size(); i++) {
             Tuple basetuple = inbatch.elementAt(i);
             //Debug.PPrint(basetuple);
             //System.out.println();
-            Vector present = new Vector();
+            Tuple outtuple = new Tuple(layout);
             for (int j = 0; j < attrSet.size(); j++) {
-                Object data = basetuple.dataAt(attrIndex[j]);
-                present.add(data);
+                outtuple.setFrom(j, basetuple, attrIndex[j]);
             }
-            Tuple outtuple = new Tuple(present);
             outbatch.add(outtuple);
         }
         return outbatch;
@@ -0,0 +1,73 @@
+/**
+ * Base of the scans that read the rows of a base table found through
+ * an index
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+/** A subclass finds the places of the rows to be returned when the
+ ** table is opened (see openPageFile) and keeps them in rowIds, as
+ ** page << 32 | slot in table order. The rows are then read one by
+ ** one through the buffer pool, each table page once.
+ **/
+
+public abstract class RowIdScan extends Scan {
+
+    long[] rowIds;    // places of the rows to be returned, as page << 32 | slot
+    int nextRow;      // next place to be read
+
+
+    public RowIdScan(String tabname, int type) {
+        super(tabname, type);
+    }
+
+
+    /** the constant of a selection condition as a key of the type of its attribute **/
+
+    static Object conditionKey(Schema schema, Condition cn) {
+        String value = (String) cn.getRhs();
+        int type = schema.typeOf(cn.getLhs());
+        if (type == Attribute.INT) {
+            return Integer.valueOf(Integer.parseInt(value));
+        } else if (type == Attribute.REAL) {
+            return Float.valueOf(Float.parseFloat(value));
+        }
+        return value;
+    }
+
+
+    /** the open() of Scan reads tables that are not page files as a
+     ** stream, an index always refers to a page file
+     **/
+
+    public boolean open() {
+        batchsize = Batch.getPageSize() / schema.getTupleSize();
+        eos = false;
+        prepareJoinFilters();
+        nextRow = 0;
+        return openPageFile();
+    }
+
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch tuples = new Batch(batchsize);
+        while (!tuples.isFull()) {
+            if (nextRow == rowIds.length) {
+                eos = true;
+                return tuples;
+            }
+            Tuple t = readRow((int) (rowIds[nextRow] >>> 32), (int) rowIds[nextRow]);
+            nextRow++;
+            if (filterCols == null || mayJoin(t)) {
+                tuples.add(t);
+            }
+        }
+        return tuples;
+    }
+}
@@ -5,21 +5,55 @@
 
 package qp.operators;
 
+import qp.optimizer.BufferManager;
 import qp.utils.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
-/** Scan operator - read data from a file */
+/** Scan operator - read data from a file
+ ** The file is either a binary page file (see PageFile) or
+ ** an older stream of serialized tuples
+ **/
 
 public class Scan extends Operator {
 
+    /** enumeration of the ways a page file can be read **/
+
+    public static final int STREAM = 0;   // read page by page into a buffer
+    public static final int MAPPED = 1;   // memory map the file, see MappedScan
+    public static final int COLUMNAR = 2; // read only the needed column files, see ColumnScan
+
+    static int accessMethod = STREAM;   // access method used in execution plans
+
     String filename;  //corresponding file name
     String tabname;  //tablename
 
     int batchsize; // Number of tuples per out batch;
 
-    ObjectInputStream in;      // Input file being scanned
+    Vector neededAttrs;   // attributes used by the query, null if all of them are
+    Vector pushedConds;   // selection conditions the scan may use to skip rows
+    Vector joinFilters;   // filters of the keys of the joins above, see JoinFilter
+    int[] filterCols;     // attribute of each join filter, null if there are no filters
+
+    ObjectInputStream in;      // Input file being scanned, if it is a stream of tuples
+
+    /** The following fields are used when the input is a page file **/
+
+    PageFile pagefile;     // Input file being scanned, if it is a page file
+    int[] types;           // type of each attribute, used to decode records
+    TupleLayout layout;    // layout of the decoded tuples
+    boolean[] needed;      // attributes decoded into vector batches
+    ByteBuffer page;       // the page being decoded
+    Object pinned;         // page pinned in the buffer pool, null if none
+    int pageno;            // Number of the next page to be read
+    int slot;              // next record to be decoded in the page
+    int numslots;          // number of records in the page
+    int rowPage;           // page fetched by readRow, -1 if none
+    CompressedPage cpage;  // decoder of the page, if the pages are compressed
+    int[] rows;            // rows of a compressed page that can qualify, null if all
+    ZoneMap zonemap;       // bounds of the values of each page, null if not used
 
     boolean eos;            // To indicate whether end of stream reached or not
 
@@ -30,6 +64,8 @@ public class Scan extends Operator {
         super(type);
         this.tabname = tabname;
         filename = tabname + ".tbl";
+        pushedConds = new Vector();
+        joinFilters = new Vector();
 
     }
 
@@ -38,6 +74,133 @@ public class Scan extends Operator {
         return tabname;
     }
 
+
+    /** The attributes of the table the query refers to, the other
+     ** attributes need not be read by a columnar scan
+     **/
+
+    public void setNeededAttributes(Vector attrs) {
+        neededAttrs = attrs;
+    }
+
+    public Vector getNeededAttributes() {
+        return neededAttrs;
+    }
+
+
+    /** whether the query needs the attribute at the given index **/
+
+    protected boolean isNeeded(int index) {
+        if (neededAttrs == null) {
+            return true;
+        }
+        Attribute attr = schema.getAttribute(index);
+        for (int i = 0; i < neededAttrs.size(); i++) {
+            if (attr.equals((Attribute) neededAttrs.elementAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** Add a selection condition of the Select above this scan. The
+     ** scan may drop tuples that cannot satisfy it, e.g. whole pages
+     ** of a compressed file, the Select still checks the rest
+     **/
+
+    public void addPushedCondition(Condition cn) {
+        pushedConds.add(cn);
+    }
+
+    public Vector getPushedConditions() {
+        return pushedConds;
+    }
+
+
+    /** Add a filter of the keys a join above will find a match for,
+     ** built at run time from the other input of the join. The scan
+     ** drops the tuples whose value of the attribute of the filter
+     ** cannot match, before decoding them when it can. A filter on
+     ** the same attribute is replaced. It must be set before open()
+     **/
+
+    public void setJoinFilter(JoinFilter filter) {
+        for (int i = 0; i < joinFilters.size(); i++) {
+            if (((JoinFilter) joinFilters.elementAt(i)).getAttribute().equals(filter.getAttribute())) {
+                joinFilters.setElementAt(filter, i);
+                return;
+            }
+        }
+        joinFilters.add(filter);
+    }
+
+
+    /** find the attributes of the join filters in the schema **/
+
+    protected void prepareJoinFilters() {
+        filterCols = null;
+        if (joinFilters.isEmpty()) {
+            return;
+        }
+        filterCols = new int[joinFilters.size()];
+        for (int i = 0; i < filterCols.length; i++) {
+            filterCols[i] = schema.indexOf(((JoinFilter) joinFilters.elementAt(i)).getAttribute());
+        }
+    }
+
+
+    /** whether the tuple may pass the join filters **/
+
+    protected boolean mayJoin(Tuple t) {
+        for (int i = 0; i < filterCols.length; i++) {
+            if (!((JoinFilter) joinFilters.elementAt(i)).mayContain(t.dataAt(filterCols[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** whether the row of the current page may pass the join filters,
+     ** only the attributes of the filters are decoded
+     **/
+
+    protected boolean rowMayJoin(int row) {
+        for (int i = 0; i < filterCols.length; i++) {
+            Object key = (cpage != null) ? cpage.valueAt(row, filterCols[i])
+                    : SlottedPage.getField(page, row, types, filterCols[i]);
+            if (!((JoinFilter) joinFilters.elementAt(i)).mayContain(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** whether the page may hold rows passing the join filters, by its zone map **/
+
+    protected boolean pageMayJoin(int pageno) {
+        for (int i = 0; i < filterCols.length; i++) {
+            int col = filterCols[i];
+            if (!((JoinFilter) joinFilters.elementAt(i)).mayOverlap(zonemap.minOf(pageno, col), zonemap.maxOf(pageno, col))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** set the access method used for the scans of an execution plan **/
+
+    public static void setAccessMethod(int method) {
+        accessMethod = method;
+    }
+
+    public static int getAccessMethod() {
+        return accessMethod;
+    }
+
     /** Open file prepare a stream pointer to read input file */
 
     public boolean open() {
@@ -48,6 +211,11 @@ public class Scan extends Operator {
 
         //System.out.println("Scan:----------Scanning:"+tabname);
         eos = false;
+        prepareJoinFilters();
+
+        if (PageFile.isPageFile(filename)) {
+            return openPageFile();
+        }
 
         try {
             in = new ObjectInputStream(new FileInputStream(filename));
@@ -60,6 +228,58 @@ public class Scan extends Operator {
     }
 
 
+    /** prepare to decode the pages of a binary page file **/
+
+    protected boolean openPageFile() {
+        try {
+            pagefile = PageFile.open(filename);
+        } catch (IOException e) {
+            System.err.println(" Error reading " + filename);
+            return false;
+        }
+        int format = pagefile.getLayout();
+        if (format != PageFile.ROWS && format != PageFile.COMPRESSED) {
+            System.err.println(" Scan: " + filename + " is not a table file");
+            return false;
+        }
+        types = SlottedPage.typesOf(schema);
+        layout = TupleLayout.of(types);
+        needed = new boolean[types.length];
+        for (int i = 0; i < types.length; i++) {
+            needed[i] = isNeeded(i);
+        }
+        cpage = (format == PageFile.COMPRESSED) ? new CompressedPage(types) : null;
+        zonemap = (pushedConds.isEmpty() && joinFilters.isEmpty()) ? null : loadZoneMap();
+        page = null;
+        pinned = null;
+        pageno = 0;
+        slot = 0;
+        numslots = 0;
+        rowPage = -1;
+        return true;
+
+    }
+
+
+    /** The zone map of the table, null if there is none or it
+     ** is older than the table file
+     **/
+
+    ZoneMap loadZoneMap() {
+        File zmfile = new File(ZoneMap.fileName(tabname));
+        if (!zmfile.exists() || zmfile.lastModified() < new File(filename).lastModified()) {
+            return null;
+        }
+        try {
+            ZoneMap zm = ZoneMap.read(zmfile.getPath(), types);
+            return (zm.getNumPages() == pagefile.getNumPages()) ? zm : null;
+        } catch (IOException e) {
+            System.err.println(" Scan: ignoring unreadable zone map of " + tabname);
+            return null;
+        }
+    }
+
+
     /** Next operator - get a tuple from the file
      **
      **
@@ -74,6 +294,10 @@ public class Scan extends Operator {
             return null;
         }
 
+        if (pagefile != null) {
+            return nextFromPages();
+        }
+
         Batch tuples = new Batch(batchsize);
 
         while (!tuples.isFull()) {
@@ -81,7 +305,9 @@ public class Scan extends Operator {
                 Tuple data = (Tuple) in.readObject();
                 //System.out.print("SCAN:");
                 //Debug.PPrint(data);
-                tuples.add(data);
+                if (filterCols == null || mayJoin(data)) {
+                    tuples.add(data);
+                }
             } catch (ClassNotFoundException cnf) {
                 System.err.println("Scan:Class not found for reading file  " + filename);
                 System.exit(1);
@@ -99,14 +325,168 @@ public class Scan extends Operator {
         return tuples;
     }
 
+
+    /** Decode the records of the current page into the batch and
+     ** read the following pages until the batch is full
+     **/
+
+    protected Batch nextFromPages() {
+        if (VectorBatch.isEnabled()) {
+            return nextVector();
+        }
+        Batch tuples = new Batch(batchsize);
+        while (!tuples.isFull()) {
+            if (slot == numslots) {
+                if (!readNextPage()) {
+                    eos = true;
+                    return tuples;
+                }
+            }
+            while (slot < numslots && !tuples.isFull()) {
+                int row = (cpage != null && rows != null) ? rows[slot] : slot;
+                slot++;
+                if (filterCols != null && !rowMayJoin(row)) {
+                    continue;
+                }
+                if (cpage != null) {
+                    tuples.add(cpage.getRow(row));
+                } else {
+                    tuples.add(SlottedPage.getRecord(page, row, layout));
+                }
+            }
+        }
+        return tuples;
+    }
+
+
+    /** as nextFromPages, decoding the records straight into the
+     ** columns of a vector batch. Only the attributes the query
+     ** needs are decoded, the others are left 0 or null
+     **/
+
+    protected Batch nextVector() {
+        VectorBatch tuples = new VectorBatch(layout, batchsize);
+        while (!tuples.isFull()) {
+            if (slot == numslots) {
+                if (!readNextPage()) {
+                    eos = true;
+                    return tuples;
+                }
+            }
+            while (slot < numslots && !tuples.isFull()) {
+                int row = (cpage != null && rows != null) ? rows[slot] : slot;
+                slot++;
+                if (filterCols != null && !rowMayJoin(row)) {
+                    continue;
+                }
+                if (cpage != null) {
+                    cpage.getRow(row, tuples, needed);
+                } else {
+                    SlottedPage.getRecord(page, row, tuples, needed);
+                }
+            }
+        }
+        return tuples;
+    }
+
+
+    /** Read the next page of the file that has rows to return, pages
+     ** the zone map rules out for the pushed conditions or the join
+     ** filters are not read. returns false if there are no more pages
+     **/
+
+    protected boolean readNextPage() {
+        while (pageno < pagefile.getNumPages()) {
+            if (zonemap != null && (!zonemap.mayMatch(pageno, pushedConds, schema)
+                    || (filterCols != null && !pageMayJoin(pageno)))) {
+                pageno++;
+                continue;
+            }
+            fetchPage(pageno);
+            pageno++;
+            if (preparePage()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** make page hold the given page of the file, the page is
+     ** read through the buffer pool and stays pinned until the
+     ** next page is fetched
+     **/
+
+    protected void fetchPage(int pageno) {
+        releasePage();
+        try {
+            pinned = BufferManager.pin(pagefile, pageno);
+        } catch (IOException e) {
+            System.err.println("Scan:Error reading " + filename);
+            System.exit(1);
+        }
+        page = ((ByteBuffer) pinned).duplicate();
+    }
+
+
+    /** Decode the row in the given slot of a page, for the scans
+     ** that read single rows through an index. The page is fetched
+     ** unless it is the page of the previous row
+     **/
+
+    protected Tuple readRow(int pageno, int row) {
+        if (pageno != rowPage) {
+            fetchPage(pageno);
+            if (cpage != null) {
+                cpage.load(page);
+            }
+            rowPage = pageno;
+        }
+        return (cpage != null) ? cpage.getRow(row) : SlottedPage.getRecord(page, row, layout);
+    }
+
+
+    /** unpin the current page, if it is pinned **/
+
+    protected void releasePage() {
+        if (pinned != null) {
+            BufferManager.unpin(pinned);
+            pinned = null;
+        }
+    }
+
+
+    /** Set up the decoding of the page just fetched, a compressed
+     ** page is filtered with the pushed conditions first.
+     ** returns false if no row of the page is to be returned
+     **/
+
+    protected boolean preparePage() {
+        slot = 0;
+        if (cpage == null) {
+            numslots = SlottedPage.numRecords(page);
+        } else {
+            cpage.load(page);
+            rows = pushedConds.isEmpty() ? null : cpage.select(pushedConds, schema);
+            numslots = (rows == null) ? cpage.numRows() : rows.length;
+        }
+        return numslots > 0;
+    }
+
     /** Close the file.. This routine is called when the end of filed
      ** is already reached
      **/
 
 
     public boolean close() {
+        releasePage();
         try {
-            in.close();
+            if (pagefile != null) {
+                pagefile.close();
+                pagefile = null;
+            } else if (in != null) {
+                in.close();
+            }
         } catch (IOException e) {
             System.err.println("Scan: Error closing " + filename);
             return false;
@@ -119,6 +499,10 @@ public class Scan extends Operator {
         String newtab = tabname;
         Scan newscan = new Scan(newtab, optype);
         newscan.setSchema((Schema) schema.clone());
+        newscan.setNeededAttributes(neededAttrs);
+        for (int i = 0; i < pushedConds.size(); i++) {
+            newscan.addPushedCondition((Condition) pushedConds.elementAt(i));
+        }
         return newscan;
     }
 }
@@ -23,6 +23,15 @@ public class Select extends Operator {
     Batch outbatch;  // This is the current output buffer
     int start;       // Cursor position in the input buffer
 
+    /** The condition, resolved once when the operator is opened **/
+
+    int index;            // index of the attribute in the tuples
+    int datatype;         // type of the attribute
+    int exprtype;         // comparison operator
+    int checkInt;         // constant of the condition, by type
+    float checkFloat;
+    String checkString;
+
 
     /** constructor **/
 
@@ -61,6 +70,7 @@ public class Select extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
+        prepare();
 
         if (base.open())
             return true;
@@ -69,6 +79,27 @@ public class Select extends Operator {
     }
 
 
+    /** set up checkCondition for the condition, without opening
+     ** the base operator
+     **/
+
+    protected void prepare() {
+        Attribute attr = con.getLhs();
+        index = schema.indexOf(attr);
+        datatype = schema.typeOf(attr);
+        exprtype = con.getExprType();
+        checkString = (String) con.getRhs();
+        if (datatype == Attribute.INT) {
+            checkInt = Integer.parseInt(checkString);
+        } else if (datatype == Attribute.REAL) {
+            checkFloat = Float.parseFloat(checkString);
+        }
+        if (exprtype < Condition.LESSTHAN || exprtype > Condition.NOTEQUAL) {
+            System.out.println("Select:Incorrect condition operator");
+        }
+    }
+
+
     /** returns a batch of tuples that satisfies the
      ** condition specified on the tuples coming from base operator
      ** NOTE: This operation is performed on the fly
@@ -84,6 +115,10 @@ public class Select extends Operator {
             return null;
         }
 
+        if (VectorBatch.isEnabled()) {
+            return nextVector();
+        }
+
         /** An output buffer is initiated**/
         outbatch = new Batch(batchsize);
 
@@ -130,6 +165,113 @@ public class Select extends Operator {
     }
 
 
+    /** Returns the next input batch that has qualifying tuples. A vector
+     ** batch is filtered in place by shrinking its selection vector,
+     ** other batches are filtered into a new batch. Empty batches are
+     ** not returned as the operators above take them as the end
+     **/
+
+    protected Batch nextVector() {
+        while (true) {
+            inbatch = base.next();
+            if (inbatch == null) {
+                eos = true;
+                close();
+                return null;
+            }
+            if (inbatch instanceof VectorBatch && !((VectorBatch) inbatch).isMaterialized()) {
+                filter((VectorBatch) inbatch);
+                outbatch = inbatch;
+            } else {
+                outbatch = new Batch(Math.max(batchsize, inbatch.size()));
+                for (int i = 0; i < inbatch.size(); i++) {
+                    Tuple present = inbatch.elementAt(i);
+                    if (checkCondition(present))
+                        outbatch.add(present);
+                }
+            }
+            if (!outbatch.isEmpty()) {
+                return outbatch;
+            }
+        }
+    }
+
+
+    /** keep in the selection vector of the batch only the
+     ** rows that satisfy the condition
+     **/
+
+    protected void filter(VectorBatch batch) {
+        int[] sel = batch.getSelection();
+        int n = batch.getSelectionSize();
+        int k = 0;
+        if (datatype == Attribute.INT) {
+            int[] col = batch.intColumn(index);
+            int c = checkInt;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    for (int s = 0; s < n; s++) {
+                        int r = sel[s];
+                        if (col[r] < c) sel[k++] = r;
+                    }
+                    break;
+                case Condition.GREATERTHAN:
+                    for (int s = 0; s < n; s++) {
+                        int r = sel[s];
+                        if (col[r] > c) sel[k++] = r;
+                    }
+                    break;
+                case Condition.LTOE:
+                    for (int s = 0; s < n; s++) {
+                        int r = sel[s];
+                        if (col[r] <= c) sel[k++] = r;
+                    }
+                    break;
+                case Condition.GTOE:
+                    for (int s = 0; s < n; s++) {
+                        int r = sel[s];
+                        if (col[r] >= c) sel[k++] = r;
+                    }
+                    break;
+                case Condition.EQUAL:
+                    for (int s = 0; s < n; s++) {
+                        int r = sel[s];
+                        if (col[r] == c) sel[k++] = r;
+                    }
+                    break;
+                case Condition.NOTEQUAL:
+                    for (int s = 0; s < n; s++) {
+                        int r = sel[s];
+                        if (col[r] != c) sel[k++] = r;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } else if (datatype == Attribute.REAL) {
+            float[] col = batch.floatColumn(index);
+            for (int s = 0; s < n; s++) {
+                int r = sel[s];
+                float v = col[r];
+                boolean ok;
+                if (v != v) {
+                    ok = exprtype == Condition.NOTEQUAL;
+                } else {
+                    ok = Condition.satisfies(exprtype, (v < checkFloat) ? -1 : ((v > checkFloat) ? 1 : 0));
+                }
+                if (ok) sel[k++] = r;
+            }
+        } else {
+            Object[] col = batch.refColumn(index);
+            for (int s = 0; s < n; s++) {
+                int r = sel[s];
+                if (Condition.satisfies(exprtype, ((String) col[r]).compareTo(checkString))) sel[k++] = r;
+            }
+        }
+        batch.setSelectionSize(k);
+    }
+
+
     /** closes the output connection
      ** i.e., no more pages to output
      **/
@@ -150,78 +292,22 @@ public class Select extends Operator {
      **/
 
     protected boolean checkCondition(Tuple tuple) {
-        Attribute attr = con.getLhs();
-        int index = schema.indexOf(attr);
-        int datatype = schema.typeOf(attr);
-        Object srcValue = tuple.dataAt(index);
-        String checkValue = (String) con.getRhs();
-        int exprtype = con.getExprType();
-
+        int cmp;
         if (datatype == Attribute.INT) {
-            int srcVal = ((Integer) srcValue).intValue();
-            int checkVal = Integer.parseInt(checkValue);
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal)
-                    return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal)
-                    return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal)
-                    return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal)
-                    return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal)
-                    return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal)
-                    return true;
-            } else {
-                System.out.println("Select:Incorrect condition operator");
-            }
+            cmp = Integer.compare(tuple.intAt(index), checkInt);
         } else if (datatype == Attribute.STRING) {
-            String srcVal = (String) srcValue;
-            int flag = srcVal.compareTo(checkValue);
-
-            if (exprtype == Condition.LESSTHAN) {
-                if (flag < 0) return true;
-
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (flag > 0) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (flag <= 0) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (flag >= 0) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (flag == 0) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (flag != 0) return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
-            }
-
+            cmp = tuple.stringAt(index).compareTo(checkString);
         } else if (datatype == Attribute.REAL) {
-            float srcVal = ((Float) srcValue).floatValue();
-            float checkVal = Float.parseFloat(checkValue);
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal) return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal) return true;
-            } else {
-                System.out.println("Select:Incorrect condition operator");
+            float srcVal = tuple.floatAt(index);
+            if (srcVal != srcVal) {
+                /** NaN only differs from every value **/
+                return exprtype == Condition.NOTEQUAL;
             }
+            cmp = (srcVal < checkFloat) ? -1 : ((srcVal > checkFloat) ? 1 : 0);
+        } else {
+            return false;
         }
-        return false;
+        return Condition.satisfies(exprtype, cmp);
     }
 
 
@@ -5,15 +5,17 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.Condition;
 import qp.utils.RandNumb;
+import qp.utils.SpillIO;
 import qp.utils.Tuple;
 import java.util.Vector;
 
 public class SortMergeJoin extends Join {
     int batchsize;      // Number of tuples per out batch
 
-    int leftindex;      // Index of the join attribute in left table
-    int rightindex;
+    int[] leftindex;      // Indexes of the join attributes in left table
+    int[] rightindex;
     int leftBatchSize;
     int rightBatchSize;
 
@@ -21,8 +23,6 @@ public class SortMergeJoin extends Join {
     int rightCur;    // Cursor for right side buffer
     int tempcurs;
 
-    Attribute leftattr;
-    Attribute rightattr;
     Batch outbatch;     // Output batch
     Batch leftBatch;    // Buffer for left input stream
     Batch rightBatch;   // Buffer for right input stream
@@ -42,6 +42,7 @@ public class SortMergeJoin extends Join {
 
     public SortMergeJoin(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        conditionList = jn.getConditionList();
         schema = jn.getSchema();
         jointype = jn.getJoinType();
     }
@@ -61,29 +62,31 @@ public class SortMergeJoin extends Join {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
-        leftattr = con.getLhs();
-        rightattr = (Attribute) con.getRhs();
-
+        /** both inputs are sorted on all the join attributes, in
+         ** the order of the conditions, so that equal keys meet
+         **/
         Vector<Attribute> leftSet = new Vector<>();
         Vector<Attribute> rightSet = new Vector<>();
-        leftSet.add(leftattr);
-        rightSet.add(rightattr);
+        for (int i = 0; i < conditionList.size(); i++) {
+            Condition cn = (Condition) conditionList.elementAt(i);
+            leftSet.add(cn.getLhs());
+            rightSet.add((Attribute) cn.getRhs());
+        }
 
-        leftindex = left.getSchema().indexOf(leftattr);
-        rightindex = right.getSchema().indexOf(rightattr);
+        leftindex = leftIndexes();
+        rightindex = rightIndexes();
 
         leftBatchSize = Batch.getPageSize() / left.getSchema().getTupleSize();
         rightBatchSize = Batch.getPageSize() / right.getSchema().getTupleSize();
 
         sortedLeft = new ExternalMergeSort(left, leftSet, optype, numBuff, "LeftSort" + RandNumb.randInt(100000, 999999));
         sortedRight = new ExternalMergeSort(right, rightSet, optype, numBuff, "RightSort" + RandNumb.randInt(100000,999999));
-
-        if (!left.open() || !right.open()) {
-            return false;
-        }
+        sortedLeft.setFinalFanIn(finalFanIn(numBuff));
+        sortedRight.setFinalFanIn(finalFanIn(numBuff));
 
         /** Both right table and left side table
-         ** are sorted here at the beginning
+         ** are sorted here at the beginning, the sorts open them.
+         ** Their final merge passes are not written but feed the join
          **/
         if (!sortedLeft.open() || !sortedRight.open()) {
             System.out.println("SortMergeJoin: Could not open left or right table");
@@ -100,6 +103,12 @@ public class SortMergeJoin extends Join {
         leftBatch = sortedLeft.next();
         rightBatch = sortedRight.next();
 
+        if (leftBatch == null || rightBatch == null) {
+            // an empty input, nothing joins
+            reachEnd = true;
+            return true;
+        }
+
         refTuple = rightBatch.elementAt(0);
         saveRightTableSameTuples();
 
@@ -107,6 +116,16 @@ public class SortMergeJoin extends Join {
     }
 
 
+    /** Number of runs the final merge pass of each sort may merge. The
+     ** two final passes are read at the same time and share the buffers,
+     ** with background I/O each run also has a page read ahead
+     **/
+
+    public static int finalFanIn(int numBuff) {
+        return SpillIO.isEnabled() ? Math.max(1, (numBuff - 4) / 4) : Math.max(1, (numBuff - 2) / 2);
+    }
+
+
 
     /** from input buffers selects the tuples satisfying join condition
      * And returns a page of output tuples
@@ -1,10 +1,28 @@
 /**
  * simple buffer manager that distributes the buffers equally among
- * all the join operators
+ * all the join operators, and keeps the buffers as a pool of page
+ * frames shared by the operators
  **/
 
 package qp.optimizer;
 
+import qp.utils.PageSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+
+/**
+ * The pool has one frame per buffer. An operator pins a page of a
+ * PageSource while it uses the page and unpins it when it is done, a
+ * page that is asked for again while it is still in a frame is not
+ * read from the file. When a page has to be read and no frame is
+ * empty, the replacement policy picks an unpinned frame to evict. If
+ * every frame is pinned the page is handed out without being cached.
+ * Pages are read outside the lock of the pool, so operators in other
+ * threads are not held up by the I/O.
+ */
 
 public class BufferManager {
 
@@ -13,12 +31,28 @@ public class BufferManager {
 
     static int buffPerJoin;
 
+    static ReplacementPolicy policy = new LRUPolicy();   // chooses the frames to evict
+
+    /** The following fields hold the pool **/
+
+    static PageId[] frameId = new PageId[0];     // page in each frame, null if empty
+    static Object[] framePage = new Object[0];   // contents of the page in each frame
+    static int[] pinCount = new int[0];          // Number of pins on each frame
+    static int[] free = new int[0];              // empty frames
+    static int numFree = 0;                      // Number of empty frames
+    static HashMap<PageId, Integer> frameOf = new HashMap<PageId, Integer>();         // frame holding each page
+    static IdentityHashMap<Object, Integer> frameOfPage = new IdentityHashMap<Object, Integer>();   // frame holding each page object
+
+    static long hits = 0;      // Number of pins served from the pool
+    static long misses = 0;    // Number of pins that read the page
+
 
     public BufferManager(int numBuffer, int numJoin) {
         this.numBuffer = numBuffer;
         this.numJoin = numJoin;
         if (numJoin > 0)
             buffPerJoin = numBuffer / numJoin;
+        initPool(numBuffer);
     }
 
     public static int getBuffersPerJoin() {
@@ -29,4 +63,204 @@ public class BufferManager {
         return numBuffer;
     }
 
+
+    /** set the replacement policy, the pool is emptied **/
+
+    public static synchronized void setPolicy(ReplacementPolicy p) {
+        policy = p;
+        initPool(frameId.length);
+    }
+
+    public static ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+
+    /** the policy of the given name: LRU, CLOCK or LRU-k
+     ** (e.g. LRU-2), null if the name is not one of these
+     **/
+
+    public static ReplacementPolicy policyFor(String name) {
+        name = name.toUpperCase();
+        if (name.equals("LRU")) {
+            return new LRUPolicy();
+        } else if (name.equals("CLOCK")) {
+            return new ClockPolicy();
+        } else if (name.startsWith("LRU-")) {
+            try {
+                int k = Integer.parseInt(name.substring(4));
+                return (k > 0) ? new LRUKPolicy(k) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+
+    /** empty the pool and give it numFrames frames **/
+
+    static synchronized void initPool(int numFrames) {
+        frameId = new PageId[numFrames];
+        framePage = new Object[numFrames];
+        pinCount = new int[numFrames];
+        free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            free[i] = numFrames - 1 - i;
+        }
+        numFree = numFrames;
+        frameOf.clear();
+        frameOfPage.clear();
+        policy.reset(numFrames);
+    }
+
+
+    /** Pin page pageno of the source, reading it if it is not in
+     ** the pool. The page object is shared, the caller must not
+     ** change it and must unpin it when it is done with it
+     **/
+
+    public static Object pin(PageSource source, int pageno) throws IOException {
+        PageId id = new PageId(source.getFileName(), pageno);
+        synchronized (BufferManager.class) {
+            Object page = pinCached(id);
+            if (page != null) {
+                hits++;
+                return page;
+            }
+            misses++;
+        }
+        Object page = source.loadPage(pageno);
+        synchronized (BufferManager.class) {
+            Object cached = pinCached(id);
+            if (cached != null) {
+                return cached;
+            }
+            int frame = emptyFrame();
+            if (frame < 0) {
+                return page;
+            }
+            frameId[frame] = id;
+            framePage[frame] = page;
+            pinCount[frame] = 1;
+            frameOf.put(id, frame);
+            frameOfPage.put(page, frame);
+            policy.accessed(frame);
+            return page;
+        }
+    }
+
+
+    /** pin the page if it is in a frame, null if it is not **/
+
+    static Object pinCached(PageId id) {
+        Integer frame = frameOf.get(id);
+        if (frame == null) {
+            return null;
+        }
+        pinCount[frame]++;
+        policy.accessed(frame);
+        return framePage[frame];
+    }
+
+
+    /** an empty frame, evicting a page if needed, -1 if all are pinned **/
+
+    static int emptyFrame() {
+        if (numFree > 0) {
+            return free[--numFree];
+        }
+        if (frameId.length == 0) {
+            return -1;
+        }
+        int frame = policy.victim(pinCount);
+        if (frame < 0) {
+            return -1;
+        }
+        drop(frame);
+        return free[--numFree];
+    }
+
+
+    /** remove the page from the frame and make the frame empty **/
+
+    static void drop(int frame) {
+        frameOf.remove(frameId[frame]);
+        frameOfPage.remove(framePage[frame]);
+        frameId[frame] = null;
+        framePage[frame] = null;
+        pinCount[frame] = 0;
+        policy.removed(frame);
+        free[numFree++] = frame;
+    }
+
+
+    /** Release a pin on a page returned by pin, pages that were
+     ** not cached or were dropped since are ignored
+     **/
+
+    public static synchronized void unpin(Object page) {
+        Integer frame = frameOfPage.get(page);
+        if (frame != null && pinCount[frame] > 0) {
+            pinCount[frame]--;
+        }
+    }
+
+
+    /** Drop the pages of the file from the pool, e.g. when the file
+     ** is deleted. Operators still holding one of the pages may go on
+     ** using it
+     **/
+
+    public static synchronized void invalidate(String filename) {
+        for (int i = 0; i < frameId.length; i++) {
+            if (frameId[i] != null && frameId[i].filename.equals(filename)) {
+                drop(i);
+            }
+        }
+    }
+
+
+    public static int getNumFrames() {
+        return frameId.length;
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+
+    /** a page of a file **/
+
+    static class PageId {
+
+        String filename;
+        int pageno;
+
+        PageId(String filename, int pageno) {
+            this.filename = filename;
+            this.pageno = pageno;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof PageId)) {
+                return false;
+            }
+            PageId other = (PageId) o;
+            return pageno == other.pageno && filename.equals(other.filename);
+        }
+
+        public int hashCode() {
+            return 31 * filename.hashCode() + pageno;
+        }
+    }
 }
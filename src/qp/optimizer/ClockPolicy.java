@@ -0,0 +1,48 @@
+/**
+ * Clock (second chance) replacement
+ **/
+
+package qp.optimizer;
+
+/** The frames form a circle swept by a hand. An access sets the
+ ** reference bit of the frame, the hand clears the bits it passes
+ ** and stops at the first unpinned frame whose bit is already clear.
+ **/
+
+public class ClockPolicy implements ReplacementPolicy {
+
+    boolean[] referenced;   // reference bit of each frame
+    int hand;               // next frame to be looked at
+
+
+    public void reset(int numFrames) {
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public void accessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void removed(int frame) {
+        referenced[frame] = false;
+    }
+
+    /** two turns clear every bit, so after that all the frames are pinned **/
+
+    public int victim(int[] pinCount) {
+        int n = referenced.length;
+        for (int step = 0; step < 2 * n; step++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            if (pinCount[frame] > 0) {
+                continue;
+            }
+            if (!referenced[frame]) {
+                return frame;
+            }
+            referenced[frame] = false;
+        }
+        return -1;
+    }
+}
@@ -36,7 +36,7 @@ public class DynamicProgrammingOptimizer extends Optimizer {
         private Map<BitSet, Integer> optimalCosts = new HashMap<>();
         private Map<BitSet, Operator> optimalPlans = new HashMap<>();
         private List<String> relations = new ArrayList<>();
-        private Map<BitSet, Condition> joins = new HashMap<>();
+        private Map<BitSet, List<Condition>> joins = new HashMap<>();
         private Map<Integer, List<BitSet>> allPossibleBitSets = new HashMap<>();
 
 
@@ -44,31 +44,34 @@ public class DynamicProgrammingOptimizer extends Optimizer {
             super(sqlquery);
         }
 
-        private Optional<Condition> findConditionBetween(BitSet original, BitSet additional) {
+        /** All the join conditions between the two subsets, with their
+         ** right hand side in the additional one. The join of the two
+         ** plans checks all of them, empty if there is none
+         **/
+
+        private List<Condition> findConditionsBetween(BitSet original, BitSet additional) {
             BitSet combined = orWithClone(original, additional);
 
-            Optional<Condition> optionalCondition = Optional.empty();
+            List<Condition> conditions = new ArrayList<>();
             for (BitSet join : joins.keySet()) {
 
                 if (isSupersetOf(combined, join) && !isSupersetOf(original, join) && !isSupersetOf(
                         additional,
                         join)) {
-                    if (optionalCondition.isPresent()) {
-                        System.out.println("We are not prepared for two join conditions.");
-                        System.exit(1);
-                    }
+                    for (Condition joincond : joins.get(join)) {
+                        /** a copy, the plans built so far keep the orientation they were built with **/
+                        Condition cn = (Condition) joincond.clone();
+                        String righttab = ((Attribute) cn.getRhs()).getTabName();
 
-                    Condition cn = joins.get(join);
-                    String righttab = ((Attribute) cn.getRhs()).getTabName();
+                        if (!additional.get(relations.indexOf(righttab))) {
+                            cn.flip();
+                        }
 
-                    if (!righttab.equals(relations.get(additional.nextSetBit(0)))) {
-                        cn.flip();
+                        conditions.add(cn);
                     }
-
-                    optionalCondition = Optional.of(cn);
                 }
             }
-            return optionalCondition;
+            return conditions;
         }
 
         private boolean conditionExists(BitSet bs) {
@@ -134,7 +137,10 @@ public class DynamicProgrammingOptimizer extends Optimizer {
                 join.set(relations.indexOf(lefttab));
                 join.set(relations.indexOf(righttab));
 
-                joins.put(join, cn);
+                if (!joins.containsKey(join)) {
+                    joins.put(join, new ArrayList<>());
+                }
+                joins.get(join).add(cn);
             }
 
             // Generate all possible bit set
@@ -206,10 +212,9 @@ public class DynamicProgrammingOptimizer extends Optimizer {
                             continue;
                         }
 
-                        Optional<Condition> optionalCondition = findConditionBetween(complement,
-                                                                                     missing);
+                        List<Condition> conditions = findConditionsBetween(complement, missing);
 
-                        if (!optionalCondition.isPresent()) {
+                        if (conditions.isEmpty()) {
                             continue;
                         }
 
@@ -219,8 +224,11 @@ public class DynamicProgrammingOptimizer extends Optimizer {
 
                         Join jn = new Join(optPlanForPrevSubset,
                                            optPlanForMissing,
-                                           optionalCondition.get(),
+                                           conditions.get(0),
                                            OpType.JOIN);
+                        for (int c = 1; c < conditions.size(); c++) {
+                            jn.addCondition(conditions.get(c));
+                        }
 
                         Schema newsche = optPlanForPrevSubset.getSchema()
                                                              .joinWith(optPlanForMissing.getSchema());
@@ -246,26 +254,35 @@ public class DynamicProgrammingOptimizer extends Optimizer {
 
 
         private Join getBestJoinPlan(Join node) {
+            /** try every join method with both inputs in either order **/
+            Join switched = switchSubtree((Join) node.clone());
             int lowestCost = Integer.MAX_VALUE;
-            Join bestJoin = null;
+            int bestType = -1;
+            Join bestJoin = node;
             for (int i = 0; i < JoinType.numJoinTypes(); i++) {
                 node.setJoinType(i);
                 PlanCost pc = new PlanCost();
                 int cost = pc.getCost(node);
 
                 if (lowestCost > cost) {
+                    lowestCost = cost;
+                    bestType = i;
                     bestJoin = node;
                 }
 
-                node = switchSubtree((Join) node.clone());
-
+                switched.setJoinType(i);
                 pc = new PlanCost();
-                cost = pc.getCost(node);
+                cost = pc.getCost(switched);
 
                 if (lowestCost > cost) {
-                    bestJoin = (Join) node.clone();
+                    lowestCost = cost;
+                    bestType = i;
+                    bestJoin = switched;
                 }
             }
+            if (bestType >= 0) {
+                bestJoin.setJoinType(bestType);
+            }
             return bestJoin;
         }
     }
@@ -0,0 +1,66 @@
+/**
+ * LRU-K replacement
+ **/
+
+package qp.optimizer;
+
+/** Evicts the unpinned frame whose K-th most recent access is the
+ ** oldest. Frames accessed fewer than K times go first, oldest last
+ ** access first, so pages touched once by a sequential scan do not
+ ** push out pages that are used again and again. The history of a
+ ** page is forgotten when it leaves the pool.
+ **/
+
+public class LRUKPolicy implements ReplacementPolicy {
+
+    int k;               // number of accesses remembered per frame
+    long[][] history;    // times of the last k accesses to each frame, as a ring
+    int[] count;         // Number of accesses to the page in each frame
+    long time;           // Number of accesses so far
+
+
+    public LRUKPolicy(int k) {
+        this.k = k;
+    }
+
+
+    public void reset(int numFrames) {
+        history = new long[numFrames][k];
+        count = new int[numFrames];
+        time = 0;
+    }
+
+    public void accessed(int frame) {
+        history[frame][count[frame] % k] = ++time;
+        count[frame]++;
+    }
+
+    public void removed(int frame) {
+        count[frame] = 0;
+    }
+
+
+    /** time of the k-th most recent access, 0 if there were fewer **/
+
+    long kthAccess(int frame) {
+        return (count[frame] < k) ? 0 : history[frame][count[frame] % k];
+    }
+
+    long lastAccess(int frame) {
+        return history[frame][(count[frame] - 1) % k];
+    }
+
+    public int victim(int[] pinCount) {
+        int victim = -1;
+        for (int i = 0; i < count.length; i++) {
+            if (pinCount[i] > 0 || count[i] == 0) {
+                continue;
+            }
+            if (victim == -1 || kthAccess(i) < kthAccess(victim)
+                    || (kthAccess(i) == kthAccess(victim) && lastAccess(i) < lastAccess(victim))) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Least recently used replacement
+ **/
+
+package qp.optimizer;
+
+/** evicts the unpinned frame whose page was accessed longest ago **/
+
+public class LRUPolicy implements ReplacementPolicy {
+
+    long[] lastAccess;   // time of the last access to each frame
+    long time;           // Number of accesses so far
+
+
+    public void reset(int numFrames) {
+        lastAccess = new long[numFrames];
+        time = 0;
+    }
+
+    public void accessed(int frame) {
+        lastAccess[frame] = ++time;
+    }
+
+    public void removed(int frame) {
+        lastAccess[frame] = 0;
+    }
+
+    public int victim(int[] pinCount) {
+        int victim = -1;
+        for (int i = 0; i < lastAccess.length; i++) {
+            if (pinCount[i] == 0 && (victim == -1 || lastAccess[i] < lastAccess[victim])) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+}
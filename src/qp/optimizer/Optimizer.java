@@ -58,8 +58,8 @@ public abstract class Optimizer {
         Operator right = node.getRight();
         node.setLeft(right);
         node.setRight(left);
-        /*** also flip the condition i.e.,  A X a1b1 B   = B X b1a1 A  **/
-        node.getCondition().flip();
+        /*** also flip the conditions i.e.,  A X a1b1 B   = B X b1a1 A  **/
+        node.flipConditions();
 
         /** modify the schema before returning the root **/
         modifySchema(node);
@@ -9,8 +9,8 @@ import qp.operators.*;
 import qp.utils.*;
 
 import java.util.Hashtable;
-import java.util.StringTokenizer;
 import java.util.Enumeration;
+import java.util.Vector;
 import java.io.*;
 
 public class PlanCost {
@@ -93,13 +93,14 @@ public class PlanCost {
 
     protected int getStatistics(Join node) {
         int lefttuples = calculateCost(node.getLeft());
+        int rightstart = cost;
         int righttuples = calculateCost(node.getRight());
+        int rightcost = cost - rightstart;
 
         if (isFeasible == false) {
             return -1;
         }
 
-        Condition con = node.getCondition();
         Schema leftschema = node.getLeft().getSchema();
         Schema rightschema = node.getRight().getSchema();
 
@@ -117,21 +118,30 @@ public class PlanCost {
         int rightpages = (int) Math.ceil(((double) righttuples) / (double) rightcapacity);
 
 
-        Attribute leftjoinAttr = con.getLhs();
-        Attribute rightjoinAttr = (Attribute) con.getRhs();
-        int leftattrind = leftschema.indexOf(leftjoinAttr);
-        int rightattrind = rightschema.indexOf(rightjoinAttr);
-        leftjoinAttr = leftschema.getAttribute(leftattrind);
-        rightjoinAttr = rightschema.getAttribute(rightattrind);
-        /** number of distinct values of left and right join attribute **/
-        int leftattrdistn = ((Integer) ht.get(leftjoinAttr)).intValue();
-        int rightattrdistn = ((Integer) ht.get(rightjoinAttr)).intValue();
-
-        int outtuples = (int) Math.ceil(((double) lefttuples * righttuples) / (double) Math.max(leftattrdistn, rightattrdistn));
+        /** number of distinct values of the left and right join keys.
+         ** A key of several attributes has at most the product of their
+         ** distinct values, and at most one per tuple
+         **/
+        Vector conds = node.getConditionList();
+        double leftkeydistn = 1;
+        double rightkeydistn = 1;
+        for (int i = 0; i < conds.size(); i++) {
+            Condition cn = (Condition) conds.elementAt(i);
+            Attribute leftjoinAttr = leftschema.getAttribute(leftschema.indexOf(cn.getLhs()));
+            Attribute rightjoinAttr = rightschema.getAttribute(rightschema.indexOf((Attribute) cn.getRhs()));
+            int leftattrdistn = ((Integer) ht.get(leftjoinAttr)).intValue();
+            int rightattrdistn = ((Integer) ht.get(rightjoinAttr)).intValue();
+            leftkeydistn *= leftattrdistn;
+            rightkeydistn *= rightattrdistn;
+
+            int mindistinct = Math.min(leftattrdistn, rightattrdistn);
+            ht.put(leftjoinAttr, new Integer(mindistinct));
+            ht.put(rightjoinAttr, new Integer(mindistinct));
+        }
+        leftkeydistn = Math.min(leftkeydistn, Math.max(1, lefttuples));
+        rightkeydistn = Math.min(rightkeydistn, Math.max(1, righttuples));
 
-        int mindistinct = Math.min(leftattrdistn, rightattrdistn);
-        ht.put(leftjoinAttr, new Integer(mindistinct));
-        ht.put(leftjoinAttr, new Integer(mindistinct));
+        int outtuples = (int) Math.ceil(((double) lefttuples * righttuples) / Math.max(1, Math.max(leftkeydistn, rightkeydistn)));
 
 
         /** now calculate the cost of the operation**/
@@ -140,35 +150,112 @@ public class PlanCost {
 
         int numbuff = BufferManager.getBuffersPerJoin();
 
-        int joincost;
+        long joincost;
 
         //System.out.println("PlanCost: jointype="+joinType);
 
         switch (joinType) {
             case JoinType.NESTEDJOIN:
-                joincost = leftpages * rightpages;
+                joincost = (long) leftpages * rightpages;
                 break;
             case JoinType.BLOCKNESTED:
-                joincost = leftpages * Math.round(((float) rightpages) / ((float) numbuff - 2));
+                joincost = (long) leftpages * Math.round(((float) rightpages) / ((float) numbuff - 2));
                 break;
             case JoinType.SORTMERGE:
-                joincost = getExternalSortCost(leftpages, numbuff) + getExternalSortCost(rightpages, numbuff) + (leftpages + rightpages);
+                /** the final merge passes of the sorts feed the join **/
+                joincost = getExternalSortCost(leftpages, numbuff, SortMergeJoin.finalFanIn(numbuff))
+                        + getExternalSortCost(rightpages, numbuff, SortMergeJoin.finalFanIn(numbuff));
                 break;
             case JoinType.HASHJOIN:
-                joincost = 0;
+                /** on several threads a right input that fits is joined in memory **/
+                if (ParallelHashJoin.fits(rightpages, numbuff)) {
+                    joincost = (long) leftpages + rightpages;
+                } else {
+                    joincost = getHashJoinCost(leftpages, rightpages, numbuff);
+                }
+                break;
+            case JoinType.INDEXNESTED:
+                /** the right table is not read, instead every left
+                 ** tuple looks up its key in the index of the right table
+                 **/
+                if (!IndexNestedJoin.canUse(node)) {
+                    isFeasible = false;
+                    joincost = 0;
+                    break;
+                }
+                cost = cost - rightcost;
+                joincost = (long) lefttuples * getIndexProbeCost(IndexNestedJoin.innerIndexScan(node));
                 break;
             default:
                 joincost = 0;
                 break;
         }
 
-        cost = cost + joincost;
+        /** large plans may cost more than an int holds **/
+        cost = (int) Math.min(Integer.MAX_VALUE - 1, cost + joincost);
         return outtuples;
     }
 
 
-    private int getExternalSortCost(int numPage, int numBuff) {
-        return (1 + (int) Math.ceil(Math.log(Math.ceil(numPage / (double)numBuff)) / Math.log(numBuff - 1))) * (2*numPage);
+    /** pages read by one look up of a key in the index scan: the
+     ** inner nodes below the root, which stays in memory, the leaf
+     ** and a table page for each row with that key
+     **/
+
+    private int getIndexProbeCost(IndexScan iscan) {
+        Catalog.Statistics stats = null;
+        try {
+            stats = Catalog.getStatistics(iscan.getTabName());
+        } catch (IOException io) {
+            System.out.println("Error in reading file " + iscan.getTabName() + ".stat: " + io.getMessage());
+            System.exit(1);
+        }
+        int distinct = Math.max(1, stats.getDistinct(iscan.getSchema().indexOf(iscan.getAttribute())));
+        int rowsPerKey = (int) Math.ceil((double) stats.getNumTuples() / (double) distinct);
+        return iscan.indexHeight() + rowsPerKey - 1;
+    }
+
+
+    /** Pages read and written by a hybrid hash join (see HashJoin).
+     ** Both inputs are read once. The part of both inputs outside the
+     ** resident partition, all of them if the resident partition does
+     ** not fit in its pages, is written to partition files and read
+     ** back, once per partitioning pass: the first pass divides the
+     ** right input by spillPartitions + 1, the later ones by numBuff - 1
+     ** until a partition fits in numBuff - 2 pages
+     **/
+
+    private long getHashJoinCost(int leftpages, int rightpages, int numBuff) {
+        long cost = (long) leftpages + rightpages;
+        int nspill = HashJoin.spillPartitions(numBuff);
+        int nparts = Math.max(2, numBuff - 1);
+        double partpages = rightpages / (double) (nspill + 1);
+        double spilled = (partpages <= HashJoin.residentPages(numBuff)) ? nspill / (double) (nspill + 1) : 1;
+        int passes = 1;
+        while (partpages > Math.max(1, numBuff - 2) && passes <= HashJoin.MAXLEVEL) {
+            partpages = partpages / nparts;
+            passes++;
+        }
+        return cost + (long) Math.ceil(2 * spilled * passes * ((long) leftpages + rightpages));
+    }
+
+
+    /** Pages read and written by a sort whose final merge pass, of at
+     ** most finalFanIn runs, is read by its parent instead of written:
+     ** the runs are written, every other pass reads and writes them, and
+     ** the final pass reads them. The runs are as long as the run
+     ** generation of ExternalMergeSort makes them, and the other passes
+     ** merge as many runs as its merge tasks do
+     **/
+
+    private long getExternalSortCost(int numPage, int numBuff, int finalFanIn) {
+        int runs = (int) Math.ceil(numPage / (double) ExternalMergeSort.runPages(numBuff));
+        int passes = 0;
+        while (runs > finalFanIn) {
+            runs = (int) Math.ceil(runs / (double) ExternalMergeSort.mergeFanIn(numBuff));
+            passes++;
+        }
+        return (long) numPage * (2 + 2 * passes + 1);
     }
 
     /** Find number of incoming tuples, Using the selectivity find # of output tuples
@@ -237,50 +324,22 @@ public class PlanCost {
         String filename = tablename + ".stat";
         Schema schema = node.getSchema();
         int numAttr = schema.getNumCols();
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new FileReader(filename));
-        } catch (IOException io) {
-            System.out.println("Error in opening file" + filename);
-            System.exit(1);
-        }
-        String line = null;
 
-        // First line = number of tuples
+        /** the catalog parses the file once and keeps it in memory **/
+        Catalog.Statistics stats = null;
         try {
-            line = in.readLine();
+            stats = Catalog.getStatistics(tablename);
         } catch (IOException io) {
-            System.out.println("Error in readin first line of " + filename);
-            System.exit(1);
-        }
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != 1) {
-            System.out.println("incorrect format of statastics file " + filename);
+            System.out.println("Error in reading file " + filename + ": " + io.getMessage());
             System.exit(1);
         }
 
-
-        String temp = tokenizer.nextToken();
         /** number of tuples in this table; **/
-        int numtuples = Integer.parseInt(temp);
-
-
-        try {
-            line = in.readLine();
-        } catch (IOException io) {
-            System.out.println("error in reading second line of " + filename);
-            System.exit(1);
-        }
-        tokenizer = new StringTokenizer(line);
-        if (tokenizer.countTokens() != numAttr) {
-            System.out.println("incorrect format of statastics file " + filename);
-            System.exit(1);
-        }
+        int numtuples = stats.getNumTuples();
 
         for (int i = 0; i < numAttr; i++) {
             Attribute attr = schema.getAttribute(i);
-            temp = tokenizer.nextToken();
-            Integer distinctValues = Integer.valueOf(temp);
+            Integer distinctValues = Integer.valueOf(stats.getDistinct(i));
             ht.put(attr, distinctValues);
         }
         /** number of tuples per page**/
@@ -289,13 +348,34 @@ public class PlanCost {
         int pagesize = Batch.getPageSize() / tuplesize;
         //Batch.capacity();
         int numpages = (int) Math.ceil((double) numtuples / (double) pagesize);
-        cost = cost + numpages;
-        try {
-            in.close();
-        } catch (IOException io) {
-            System.out.println("error in closing the file " + filename);
-            System.exit(1);
+
+        /** a bitmap scan reads its index files and the pages holding
+         ** the rows of the combined bitmap
+         **/
+        if (node instanceof BitmapScan) {
+            BitmapScan bscan = (BitmapScan) node;
+            int pages = bscan.pagesToRead();
+            if (pages < 0) {
+                isFeasible = false;
+                return numtuples;
+            }
+            cost = cost + bscan.indexPages() + pages;
+            return numtuples;
         }
+        /** an index scan reads the nodes on the path to the first
+         ** matching leaf and at most one table page per matching row.
+         ** It returns the statistics of the whole table, the Select
+         ** above it estimates how many rows qualify
+         **/
+        if (node instanceof IndexScan) {
+            IndexScan iscan = (IndexScan) node;
+            Attribute attr = iscan.getCondition().getLhs();
+            int distinct = stats.getDistinct(schema.indexOf(attr));
+            int matches = (int) Math.ceil(numtuples * iscan.selectivity(distinct));
+            cost = cost + iscan.indexHeight() + Math.min(matches, numpages);
+            return numtuples;
+        }
+        cost = cost + numpages;
 
 
         //System.out.println("Scan: tablename="+tablename+"pres cost="+numpages+"total cost="+cost);
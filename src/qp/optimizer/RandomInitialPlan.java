@@ -82,20 +82,18 @@ public class RandomInitialPlan {
             tempop = op1;
 
 
-            /** Read the schema of the table from tablename.md file
-             ** md stands for metadata
+            /** The schema of the table from tablename.md file
+             ** md stands for metadata, the catalog reads it once
              **/
 
             String filename = tabname + ".md";
             try {
-                ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
-                Schema schm = (Schema) _if.readObject();
-                op1.setSchema(schm);
-                _if.close();
-            } catch (Exception e) {
+                op1.setSchema(Catalog.getSchema(tabname));
+            } catch (IOException e) {
                 System.err.println("RandomInitialPlan:Error reading Schema of the table " + filename);
                 System.exit(1);
             }
+            op1.setNeededAttributes(neededAttributes(tabname));
             tab_op_hash.put(tabname, op1);
         }
 
@@ -112,6 +110,44 @@ public class RandomInitialPlan {
     }
 
 
+    /** The attributes of the table that appear in the project list,
+     ** the selection conditions or the join conditions.
+     ** null if all the attributes are needed (SELECT *)
+     **/
+
+    protected Vector neededAttributes(String tabname) {
+        if (projectlist == null || projectlist.isEmpty()) {
+            return null;
+        }
+        Vector needed = new Vector();
+        for (int i = 0; i < projectlist.size(); i++) {
+            addIfOfTable(needed, (Attribute) projectlist.elementAt(i), tabname);
+        }
+        for (int i = 0; i < selectionlist.size(); i++) {
+            Condition cn = (Condition) selectionlist.elementAt(i);
+            addIfOfTable(needed, cn.getLhs(), tabname);
+        }
+        for (int i = 0; i < joinlist.size(); i++) {
+            Condition cn = (Condition) joinlist.elementAt(i);
+            addIfOfTable(needed, cn.getLhs(), tabname);
+            addIfOfTable(needed, (Attribute) cn.getRhs(), tabname);
+        }
+        return needed;
+    }
+
+    private void addIfOfTable(Vector attrs, Attribute attr, String tabname) {
+        if (!attr.getTabName().equals(tabname)) {
+            return;
+        }
+        for (int i = 0; i < attrs.size(); i++) {
+            if (attr.equals((Attribute) attrs.elementAt(i))) {
+                return;
+            }
+        }
+        attrs.add(attr);
+    }
+
+
     /** Create Selection Operators for each of the
      ** selection condition mentioned in Condition list
      **/
@@ -120,6 +156,8 @@ public class RandomInitialPlan {
     public void createSelectOp() {
         Select op1 = null;
 
+        createIndexScanOp();
+
         for (int j = 0; j < selectionlist.size(); j++) {
 
             Condition cn = (Condition) selectionlist.elementAt(j);
@@ -144,6 +182,67 @@ public class RandomInitialPlan {
             root = op1;
     }
 
+    /** Replace the scan of a table by an index scan when the table
+     ** has an index on the attribute of one of its selection
+     ** conditions and reading the matching rows through the index
+     ** costs less than reading the whole table. The cheapest index
+     ** is used, the Select operators above still check every condition
+     **/
+
+    protected void createIndexScanOp() {
+        for (int j = 0; j < selectionlist.size(); j++) {
+            Condition cn = (Condition) selectionlist.elementAt(j);
+            if (cn.getOpType() != Condition.SELECT) {
+                continue;
+            }
+            String tabname = cn.getLhs().getTabName();
+            if (!IndexScan.canUse(tabname, cn)) {
+                continue;
+            }
+            Scan scan = (Scan) tab_op_hash.get(tabname);
+            IndexScan iscan = new IndexScan(scan, cn);
+            if (new PlanCost().getCost(iscan) < new PlanCost().getCost(scan)) {
+                modifyHashtable(scan, iscan);
+            }
+        }
+        createBitmapScanOp();
+    }
+
+
+    /** Replace the scan of a table by a bitmap scan combining all its
+     ** selection conditions on attributes with bitmap indexes, when
+     ** that reads fewer pages than the current scan
+     **/
+
+    protected void createBitmapScanOp() {
+        Hashtable tab_conds = new Hashtable();
+        for (int j = 0; j < selectionlist.size(); j++) {
+            Condition cn = (Condition) selectionlist.elementAt(j);
+            if (cn.getOpType() != Condition.SELECT) {
+                continue;
+            }
+            String tabname = cn.getLhs().getTabName();
+            if (!BitmapScan.canUse(tabname, cn)) {
+                continue;
+            }
+            Vector conds = (Vector) tab_conds.get(tabname);
+            if (conds == null) {
+                conds = new Vector();
+                tab_conds.put(tabname, conds);
+            }
+            conds.add(cn);
+        }
+        for (Enumeration e = tab_conds.keys(); e.hasMoreElements(); ) {
+            String tabname = (String) e.nextElement();
+            Scan scan = (Scan) tab_op_hash.get(tabname);
+            BitmapScan bscan = new BitmapScan(scan, (Vector) tab_conds.get(tabname));
+            if (new PlanCost().getCost(bscan) < new PlanCost().getCost(scan)) {
+                modifyHashtable(scan, bscan);
+            }
+        }
+    }
+
+
     /** create join operators **/
 
     public void createJoinOp() {
@@ -167,6 +266,14 @@ public class RandomInitialPlan {
 
             Operator left = (Operator) tab_op_hash.get(lefttab);
             Operator right = (Operator) tab_op_hash.get(righttab);
+            if (left == right) {
+                /** the tables are already joined, the condition is
+                 ** checked by the join that brought them together
+                 **/
+                addJoinCondition(left, cn);
+                bitCList.set(jnnum);
+                continue;
+            }
             jn = new Join(left, right, cn, OpType.JOIN);
             jn.setNodeIndex(jnnum);
             Schema newsche = left.getSchema().joinWith(right.getSchema());
@@ -192,6 +299,31 @@ public class RandomInitialPlan {
     }
 
 
+    /** add the join condition to the lowest join of the plan whose
+     ** inputs hold one attribute each, left hand side on the left
+     **/
+
+    protected void addJoinCondition(Operator node, Condition cn) {
+        while (true) {
+            Join jn = (Join) node;
+            Schema leftschema = jn.getLeft().getSchema();
+            boolean lhsLeft = leftschema.contains(cn.getLhs());
+            boolean rhsLeft = leftschema.contains((Attribute) cn.getRhs());
+            if (lhsLeft && rhsLeft) {
+                node = jn.getLeft();
+            } else if (!lhsLeft && !rhsLeft) {
+                node = jn.getRight();
+            } else {
+                if (!lhsLeft) {
+                    cn.flip();
+                }
+                jn.addCondition(cn);
+                return;
+            }
+        }
+    }
+
+
     public void createProjectOp() {
         Operator base = root;
         if (projectlist == null)
@@ -48,7 +48,11 @@ public class RandomOptimizer {
 
     protected Operator getNeighbor(Operator root) {
         //Randomly select a node to be altered to get the neighbour
+        //a join condition between tables already joined has no node of its own
         int nodeNum = RandNumb.randInt(0, numJoin - 1);
+        while (findNodeAt(root, nodeNum) == null) {
+            nodeNum = RandNumb.randInt(0, numJoin - 1);
+        }
 
         //Randomly select type of alteration: Change Method/Associative/Commutative
         int changeType = RandNumb.randInt(0, NUMCHOICES - 1);
@@ -212,8 +216,8 @@ public class RandomOptimizer {
         Operator right = node.getRight();
         node.setLeft(right);
         node.setRight(left);
-        /*** also flip the condition i.e.,  A X a1b1 B   = B X b1a1 A  **/
-        node.getCondition().flip();
+        /*** also flip the conditions i.e.,  A X a1b1 B   = B X b1a1 A  **/
+        node.flipConditions();
         //Schema newschem = left.getSchema().joinWith(right.getSchema());
         // node.setSchema(newschem);
 
@@ -266,6 +270,8 @@ public class RandomOptimizer {
         Operator leftleft = left.getLeft();
         Operator leftright = left.getRight();
         Attribute leftAttr = op.getCondition().getLhs();
+        Vector conds = new Vector(op.getConditionList());
+        conds.addAll(left.getConditionList());
         Join temp;
 
         /** CASE 1 :  ( A X a1b1 B) X b4c4  C     =  A X a1b1 (B X b4c4 C)
@@ -282,7 +288,6 @@ public class RandomOptimizer {
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
             op.setRight(temp);
-            op.setCondition(left.getCondition());
 
         } else {
             System.out.println("--------------------CASE 2---------------");
@@ -296,10 +301,8 @@ public class RandomOptimizer {
             op.setRight(temp);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
-            Condition newcond = left.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
         }
+        distributeConditions(op, temp, conds);
     }
 
     protected void transformRighttoLeft(Join op, Join right) {
@@ -309,6 +312,8 @@ public class RandomOptimizer {
         Operator rightleft = right.getLeft();
         Operator rightright = right.getRight();
         Attribute rightAttr = (Attribute) op.getCondition().getRhs();
+        Vector conds = new Vector(op.getConditionList());
+        conds.addAll(right.getConditionList());
         Join temp;
         /** CASE 3 :  A X a1b1 (B X b4c4  C)     =  (A X a1b1 B ) X b4c4 C
          ** a1b1,  b4c4 are the join conditions at that join operator
@@ -322,7 +327,6 @@ public class RandomOptimizer {
             op.setRight(rightright);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            op.setCondition(right.getCondition());
         } else {
             /** CASE 4 :  A X a1c1 (B X b4c4  C)     =  (A X a1c1 C ) X c4b4 B
              ** a1b1,  b4c4 are the join conditions at that join operator
@@ -336,16 +340,45 @@ public class RandomOptimizer {
             op.setRight(rightleft);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            Condition newcond = right.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
 
         }
+        distributeConditions(op, temp, conds);
 
 
     }
 
 
+    /**
+     * After a join is reassociated, gives each join condition of the two
+     * joins to the lower join if both its attributes are below it, else to
+     * the upper one, with its left hand side in the left input of its join
+     **/
+
+    protected void distributeConditions(Join upper, Join lower, Vector conds) {
+        Schema lowerleft = lower.getLeft().getSchema();
+        lower.setSchema(lowerleft.joinWith(lower.getRight().getSchema()));
+        Schema upperleft = upper.getLeft().getSchema();
+        Vector upperconds = new Vector();
+        Vector lowerconds = new Vector();
+        for (int i = 0; i < conds.size(); i++) {
+            Condition cn = (Condition) conds.elementAt(i);
+            if (lower.getSchema().contains(cn.getLhs()) && lower.getSchema().contains((Attribute) cn.getRhs())) {
+                if (!lowerleft.contains(cn.getLhs())) {
+                    cn.flip();
+                }
+                lowerconds.add(cn);
+            } else {
+                if (!upperleft.contains(cn.getLhs())) {
+                    cn.flip();
+                }
+                upperconds.add(cn);
+            }
+        }
+        lower.setConditionList(lowerconds);
+        upper.setConditionList(upperconds);
+    }
+
+
     /**
      * This method traverses through the query plan and
      * * returns the node mentioned by joinNum
@@ -409,6 +442,20 @@ public class RandomOptimizer {
 
 
 
+    /** estimated number of pages of the output of a plan, the most
+     ** an int holds if the plan is not feasible
+     **/
+
+    static int estimatePages(Operator plan) {
+        PlanCost pc = new PlanCost();
+        if (pc.getCost(plan) == Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        int capacity = Math.max(1, Batch.getPageSize() / plan.getSchema().getTupleSize());
+        return (int) Math.ceil(pc.getNumTuples() / (double) capacity);
+    }
+
+
     /**
      * AFter finding a choice of method for each operator
      * prepare an execution plan by replacing the methods with
@@ -431,9 +478,6 @@ public class RandomOptimizer {
                     nj.setNumBuff(numbuff);
                     return nj;
 
-                /** Temporarity used simple nested join,
-                 replace with hasjoin, if implemented **/
-
                 case JoinType.BLOCKNESTED:
                     BLOCKNESTED bj = new BLOCKNESTED((Join) node);
                     bj.setLeft(left);
@@ -449,10 +493,27 @@ public class RandomOptimizer {
                     sm.setNumBuff(numbuff);
                     return sm;
 
-                case JoinType.HASHJOIN:
+                case JoinType.INDEXNESTED:
+                    /** the right table is only looked up through its index **/
+                    IndexNestedJoin inj = new IndexNestedJoin((Join) node);
+                    inj.setLeft(left);
+                    inj.setRight(right);
+                    inj.setNumBuff(numbuff);
+                    return inj;
 
-                    NestedJoin hj = new NestedJoin((Join) node);
-                /* + other code */
+                case JoinType.HASHJOIN:
+                    /** several threads join in memory when the right input fits **/
+                    if (ParallelHashJoin.fits(estimatePages(right), numbuff)) {
+                        ParallelHashJoin phj = new ParallelHashJoin((Join) node);
+                        phj.setLeft(left);
+                        phj.setRight(right);
+                        phj.setNumBuff(numbuff);
+                        return phj;
+                    }
+                    HashJoin hj = new HashJoin((Join) node);
+                    hj.setLeft(left);
+                    hj.setRight(right);
+                    hj.setNumBuff(numbuff);
                     return hj;
                 default:
                     return node;
@@ -460,11 +521,39 @@ public class RandomOptimizer {
         } else if (node.getOpType() == OpType.SELECT) {
             Operator base = makeExecPlan(((Select) node).getBase());
             ((Select) node).setBase(base);
+            /** let the scan below skip the rows that cannot qualify **/
+            Operator below = base;
+            while (below.getOpType() == OpType.SELECT) {
+                below = ((Select) below).getBase();
+            }
+            if (below.getOpType() == OpType.SCAN) {
+                ((Scan) below).addPushedCondition(((Select) node).getCondition());
+            }
             return node;
         } else if (node.getOpType() == OpType.PROJECT) {
             Operator base = makeExecPlan(((Project) node).getBase());
             ((Project) node).setBase(base);
             return node;
+        } else if (node.getOpType() == OpType.SCAN) {
+            Scan scan = (Scan) node;
+            /** an index scan reads single pages, there is nothing to read ahead **/
+            if (scan instanceof RowIdScan) {
+                return scan;
+            }
+            if (Scan.getAccessMethod() == Scan.MAPPED) {
+                scan = new MappedScan((Scan) node);
+            } else if (Scan.getAccessMethod() == Scan.COLUMNAR) {
+                ColumnScan cs = new ColumnScan((Scan) node);
+                /** tables without column files are read row by row **/
+                if (cs.hasColumnFiles()) {
+                    scan = cs;
+                }
+            }
+            /** read the table ahead in the background **/
+            if (PrefetchScan.getDepth() > 0) {
+                return new PrefetchScan(scan);
+            }
+            return scan;
         } else {
             return node;
         }
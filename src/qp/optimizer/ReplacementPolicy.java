@@ -0,0 +1,29 @@
+/**
+ * Chooses the page the buffer pool evicts
+ **/
+
+package qp.optimizer;
+
+/** The buffer pool (see BufferManager) tells the policy which frames
+ ** are used and asks it for a victim when it needs a frame and none
+ ** is empty. Frames are numbered from 0 to the number of frames - 1
+ **/
+
+public interface ReplacementPolicy {
+
+    /** forget all the frames, the pool now has numFrames of them **/
+
+    public void reset(int numFrames);
+
+    /** a page was loaded into the frame or pinned again **/
+
+    public void accessed(int frame);
+
+    /** the page in the frame was dropped **/
+
+    public void removed(int frame);
+
+    /** an unpinned frame to evict, -1 if all the frames are pinned **/
+
+    public int victim(int[] pinCount);
+}
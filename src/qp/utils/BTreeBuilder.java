@@ -0,0 +1,148 @@
+/**
+ * Writes a B+-tree index file from entries given in key order
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+
+/** The tree is bulk loaded bottom up: the leaves are filled in key
+ ** order and written first, then each level of inner nodes is built
+ ** from the first keys of the nodes below it, until a level has a
+ ** single node, the root. See BTreeIndex for the layout of the nodes.
+ **/
+
+public class BTreeBuilder {
+
+    FileChannel channel;
+    int keyType;        // type of the indexed attribute
+    int pageSize;       // Number of bytes per page
+    int numPages;       // Number of data pages written so far
+    int numEntries;     // Number of leaf entries written so far
+
+    ByteBuffer node;        // the node being filled
+    Vector entries;         // encoded entries of the node being filled
+    int used;               // bytes of the node used by these entries
+    Object firstKey;        // key of the first entry of the node
+
+    Vector childKeys;       // first key of each node of the level being written
+    Vector childPages;      // page of each node of the level being written
+
+    Object lastKey;         // last key added, keys must not decrease
+
+
+    public BTreeBuilder(String filename, int keyType, int pageSize) throws IOException {
+        this.keyType = keyType;
+        this.pageSize = pageSize;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        node = ByteBuffer.allocate(pageSize);
+        entries = new Vector();
+        used = BTreeIndex.NODE_HEADER;
+        childKeys = new Vector();
+        childPages = new Vector();
+        numPages = 0;
+        numEntries = 0;
+    }
+
+
+    /** add the leaf entry for a row, entries must come in key order **/
+
+    public void add(Object key, int pageno, int slot) throws IOException {
+        key = BTreeIndex.normalize(keyType, key);
+        if (lastKey != null && BTreeIndex.compare(keyType, key, lastKey) < 0) {
+            throw new IllegalArgumentException("BTreeBuilder: keys are not in order");
+        }
+        lastKey = key;
+        byte[] keyBytes = BTreeIndex.encodeKey(keyType, key);
+        ByteBuffer entry = ByteBuffer.allocate(keyBytes.length + 8);
+        entry.put(keyBytes);
+        entry.putInt(pageno);
+        entry.putInt(slot);
+        addEntry(0, key, entry.array());
+        numEntries++;
+    }
+
+
+    /** add an encoded entry to the node of the given level, writing
+     ** the node out first if the entry does not fit any more
+     **/
+
+    void addEntry(int level, Object key, byte[] entry) throws IOException {
+        int size = 4 + entry.length;
+        if (BTreeIndex.NODE_HEADER + size > pageSize) {
+            throw new IOException("BTreeBuilder: key of " + entry.length
+                    + " bytes does not fit in a page of " + pageSize + " bytes");
+        }
+        if (used + size > pageSize) {
+            flushNode(level, numPages + 1);
+        }
+        if (entries.isEmpty()) {
+            firstKey = key;
+        }
+        entries.add(entry);
+        used += size;
+    }
+
+
+    /** write the node being filled, next is the page of the next
+     ** node of the same level or -1 if it is the last one
+     **/
+
+    void flushNode(int level, int next) throws IOException {
+        node.clear();
+        node.putInt(0, level);
+        node.putInt(4, entries.size());
+        node.putInt(8, (level == 0) ? next : -1);
+        int pos = BTreeIndex.NODE_HEADER + 4 * entries.size();
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] entry = (byte[]) entries.elementAt(i);
+            node.putInt(BTreeIndex.NODE_HEADER + 4 * i, pos);
+            node.position(pos);
+            node.put(entry);
+            pos += entry.length;
+        }
+        node.clear();
+        long offset = (long) (numPages + 1) * pageSize;
+        while (node.hasRemaining()) {
+            channel.write(node, offset + node.position());
+        }
+        childKeys.add(firstKey);
+        childPages.add(Integer.valueOf(numPages));
+        numPages++;
+        entries.clear();
+        used = BTreeIndex.NODE_HEADER;
+    }
+
+
+    /** write the last leaf and the inner levels, the root is the
+     ** last page of the file
+     **/
+
+    public void close() throws IOException {
+        flushNode(0, -1);
+        int level = 0;
+        while (childPages.size() > 1) {
+            level++;
+            Vector keys = childKeys;
+            Vector pages = childPages;
+            childKeys = new Vector();
+            childPages = new Vector();
+            for (int i = 0; i < pages.size(); i++) {
+                byte[] keyBytes = BTreeIndex.encodeKey(keyType, keys.elementAt(i));
+                ByteBuffer entry = ByteBuffer.allocate(keyBytes.length + 4);
+                entry.put(keyBytes);
+                entry.putInt(((Integer) pages.elementAt(i)).intValue());
+                addEntry(level, keys.elementAt(i), entry.array());
+            }
+            flushNode(level, -1);
+        }
+        PageFile.writeHeader(channel, PageFile.BTREE, pageSize, numPages, numEntries);
+        channel.close();
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Reads a B+-tree index over one attribute of a table
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An index file is a page file (see PageFile) with the BTREE layout,
+ * written by BTreeBuilder. Each data page is a node of the tree:
+ * the level of the node (0 for leaves), the number of entries, the
+ * page of the next leaf (-1 for the last leaf and inner nodes) and
+ * the offset of each entry, followed by the entries. A leaf entry is
+ * a key and the page and slot of the row in the table file, an inner
+ * entry is the first key of a child node and the page of the child.
+ * Keys are encoded as in the table pages: INT as 4 bytes, REAL as a
+ * 4 byte float, STRING as a 2 byte length followed by its UTF-8 bytes.
+ * The root is the last page, it is read once when the index is opened.
+ */
+
+public class BTreeIndex {
+
+    static final int NODE_HEADER = 12;   // level, number of entries, next leaf
+
+    PageFile file;     // the index file
+    int keyType;       // type of the indexed attribute
+    int root;          // page of the root node
+    ByteBuffer rootNode;   // the root node, kept for repeated lookups
+    int height;        // Number of levels of the tree
+
+
+    BTreeIndex(PageFile file, int keyType) throws IOException {
+        this.file = file;
+        this.keyType = keyType;
+        root = file.getNumPages() - 1;
+        rootNode = (ByteBuffer) file.loadPage(root);
+        height = rootNode.getInt(0) + 1;
+    }
+
+
+    /** name of the index file of the attribute **/
+
+    public static String fileName(String tabname, String colname) {
+        return tabname + "." + colname + ".idx";
+    }
+
+
+    /** whether the attribute has an index that is not older than the table **/
+
+    public static boolean exists(String tabname, String colname) {
+        File idx = new File(fileName(tabname, colname));
+        File tbl = new File(tabname + ".tbl");
+        return idx.exists() && idx.lastModified() >= tbl.lastModified();
+    }
+
+
+    /** open the index file of an attribute of the given type **/
+
+    public static BTreeIndex open(String filename, int keyType) throws IOException {
+        PageFile file = PageFile.open(filename);
+        if (file.getLayout() != PageFile.BTREE || file.getNumPages() == 0) {
+            file.close();
+            throw new IOException("BTreeIndex: " + filename + " is not an index file");
+        }
+        return new BTreeIndex(file, keyType);
+    }
+
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumEntries() {
+        return file.getNumTuples();
+    }
+
+    public int getNumPages() {
+        return file.getNumPages();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+
+    /** The rows whose key lies between low and high, as page << 32 | slot
+     ** in key order. A null bound leaves that side of the range open
+     **/
+
+    public long[] lookup(Object low, boolean lowInclusive, Object high, boolean highInclusive)
+            throws IOException {
+        low = normalize(keyType, low);
+        high = normalize(keyType, high);
+        long[] rids = new long[16];
+        int count = 0;
+
+        /** go down to the first leaf that can hold the low key **/
+        int pageno = root;
+        ByteBuffer node = read(pageno);
+        while (node.getInt(0) > 0) {
+            int child = 0;
+            int n = node.getInt(4);
+            if (low != null) {
+                int lo = 0;
+                int hi = n - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (compare(keyType, decodeKey(node, entryOffset(node, mid)), low) < 0) {
+                        child = mid;
+                        lo = mid + 1;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+            }
+            int pos = entryOffset(node, child);
+            pageno = node.getInt(pos + keySize(node, pos));
+            node = read(pageno);
+        }
+
+        /** walk the leaves until a key is above the high key **/
+        while (true) {
+            int n = node.getInt(4);
+            for (int i = 0; i < n; i++) {
+                int pos = entryOffset(node, i);
+                Object key = decodeKey(node, pos);
+                if (low != null) {
+                    int cmp = compare(keyType, key, low);
+                    if (cmp < 0 || (cmp == 0 && !lowInclusive)) {
+                        continue;
+                    }
+                }
+                if (high != null) {
+                    int cmp = compare(keyType, key, high);
+                    if (cmp > 0 || (cmp == 0 && !highInclusive)) {
+                        return trim(rids, count);
+                    }
+                }
+                pos += keySize(node, pos);
+                if (count == rids.length) {
+                    long[] grown = new long[2 * count];
+                    System.arraycopy(rids, 0, grown, 0, count);
+                    rids = grown;
+                }
+                rids[count++] = ((long) node.getInt(pos) << 32) | (node.getInt(pos + 4) & 0xFFFFFFFFL);
+            }
+            int next = node.getInt(8);
+            if (next < 0) {
+                return trim(rids, count);
+            }
+            node = read(next);
+        }
+    }
+
+
+    static long[] trim(long[] rids, int count) {
+        long[] result = new long[count];
+        System.arraycopy(rids, 0, result, 0, count);
+        return result;
+    }
+
+
+    /** the smallest and the largest key of the index, null if it is empty **/
+
+    public Object[] keyRange() throws IOException {
+        Object[] range = new Object[2];
+        for (int side = 0; side < 2; side++) {
+            ByteBuffer node = read(root);
+            while (true) {
+                int n = node.getInt(4);
+                if (n == 0) {
+                    return null;
+                }
+                int pos = entryOffset(node, (side == 0) ? 0 : n - 1);
+                if (node.getInt(0) == 0) {
+                    range[side] = decodeKey(node, pos);
+                    break;
+                }
+                int child = node.getInt(pos + keySize(node, pos));
+                node = read(child);
+            }
+        }
+        return range;
+    }
+
+
+    ByteBuffer read(int pageno) throws IOException {
+        if (pageno == root) {
+            return rootNode;
+        }
+        return (ByteBuffer) file.loadPage(pageno);
+    }
+
+    static int entryOffset(ByteBuffer node, int i) {
+        return node.getInt(NODE_HEADER + 4 * i);
+    }
+
+    int keySize(ByteBuffer node, int pos) {
+        return (keyType == Attribute.STRING) ? 2 + (node.getShort(pos) & 0xFFFF) : 4;
+    }
+
+    Object decodeKey(ByteBuffer node, int pos) {
+        return decodeKey(keyType, node, pos);
+    }
+
+    static Object decodeKey(int keyType, byte[] key) {
+        return decodeKey(keyType, ByteBuffer.wrap(key), 0);
+    }
+
+    static Object decodeKey(int keyType, ByteBuffer node, int pos) {
+        if (keyType == Attribute.INT) {
+            return Integer.valueOf(node.getInt(pos));
+        } else if (keyType == Attribute.REAL) {
+            return Float.valueOf(node.getFloat(pos));
+        } else {
+            int len = node.getShort(pos) & 0xFFFF;
+            byte[] bytes = new byte[len];
+            for (int i = 0; i < len; i++) {
+                bytes[i] = node.get(pos + 2 + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    static byte[] encodeKey(int keyType, Object key) {
+        if (keyType == Attribute.STRING) {
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("BTreeIndex: string key too long");
+            }
+            ByteBuffer buf = ByteBuffer.allocate(2 + bytes.length);
+            buf.putShort((short) bytes.length);
+            buf.put(bytes);
+            return buf.array();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        if (keyType == Attribute.INT) {
+            buf.putInt(((Integer) key).intValue());
+        } else {
+            buf.putFloat(((Float) key).floatValue());
+        }
+        return buf.array();
+    }
+
+
+    /** REAL keys are kept with -0.0 turned into 0.0, so that the two
+     ** compare equal as they do in a Select
+     **/
+
+    static Object normalize(int keyType, Object key) {
+        if (keyType == Attribute.REAL && key != null) {
+            return Float.valueOf(((Float) key).floatValue() + 0.0f);
+        }
+        return key;
+    }
+
+    static int compare(int keyType, Object a, Object b) {
+        if (keyType == Attribute.INT) {
+            return Integer.compare(((Integer) a).intValue(), ((Integer) b).intValue());
+        } else if (keyType == Attribute.REAL) {
+            return Float.compare(((Float) a).floatValue(), ((Float) b).floatValue());
+        } else {
+            return ((String) a).compareTo((String) b);
+        }
+    }
+}
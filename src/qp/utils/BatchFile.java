@@ -0,0 +1,123 @@
+/**
+ * A temporary file of batches that can be read in any order
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/** Each batch is serialized on its own and the offset where it starts
+ ** is remembered, so batch i can be read without deserializing the
+ ** batches before it. Batches are read back through the buffer pool
+ ** with batch i as page i of the file. A batch added is serialized at
+ ** once and written by an I/O thread (see SpillIO) while the next one
+ ** is filled, flush() waits for the writes.
+ **/
+
+public class BatchFile implements PageSource {
+
+    String filename;
+    RandomAccessFile file;
+    long[] offsets;    // start of each batch, offsets[numBatches] is the end of the file
+    int numBatches;    // Number of batches in the file
+    Future<Object> pendingWrite;    // writing of the last batch added, null if it is done
+
+
+    /** create an empty file, replacing any file of the same name **/
+
+    public BatchFile(String filename) throws IOException {
+        this.filename = filename;
+        file = new RandomAccessFile(filename, "rw");
+        file.setLength(0);
+        offsets = new long[16];
+        numBatches = 0;
+    }
+
+
+    /** append a batch to the end of the file **/
+
+    public synchronized void add(Batch batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(batch);
+        out.close();
+        if (numBatches + 1 == offsets.length) {
+            long[] grown = new long[2 * offsets.length];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        final byte[] record = bytes.toByteArray();
+        final long offset = offsets[numBatches];
+        flush();
+        pendingWrite = SpillIO.submit(new Callable<Object>() {
+            public Object call() throws IOException {
+                synchronized (file) {
+                    file.seek(offset);
+                    file.write(record);
+                }
+                return null;
+            }
+        });
+        numBatches++;
+        offsets[numBatches] = offsets[numBatches - 1] + record.length;
+    }
+
+
+    /** wait for the batches added to be written **/
+
+    public synchronized void flush() throws IOException {
+        if (pendingWrite != null) {
+            Future<Object> last = pendingWrite;
+            pendingWrite = null;
+            SpillIO.await(last);
+        }
+    }
+
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public int getNumBatches() {
+        return numBatches;
+    }
+
+
+    /** read batch pageno back from the file **/
+
+    public Object loadPage(int pageno) throws IOException {
+        if (pageno >= numBatches) {
+            throw new EOFException("BatchFile: batch " + pageno + " missing in " + filename);
+        }
+        if (pageno == numBatches - 1) {
+            /** the batches before the last one are already written **/
+            flush();
+        }
+        byte[] bytes = new byte[(int) (offsets[pageno + 1] - offsets[pageno])];
+        synchronized (file) {
+            file.seek(offsets[pageno]);
+            file.readFully(bytes);
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException c) {
+            throw new IOException("BatchFile: error in deserialization of " + filename);
+        }
+    }
+
+
+    /** close the file and remove it **/
+
+    public void delete() throws IOException {
+        try {
+            flush();
+        } catch (IOException e) {
+            /** the file is removed anyway **/
+        }
+        file.close();
+        new File(filename).delete();
+    }
+}
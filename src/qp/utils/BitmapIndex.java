@@ -0,0 +1,149 @@
+/**
+ * A bitmap index over one attribute of a table
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * For each distinct value of the attribute the index keeps the set of
+ * rows holding it, as a RoaringBitmap. A row is numbered by its page
+ * and slot in the table file, (page << slotBits) | slot, so the rows
+ * of a bitmap come in table order and give the pages to be read
+ * directly. It suits attributes with few distinct values, whose rows
+ * a B+-tree would list one by one.
+ * The file (<tablename>.<attribute>.bmx) holds the type of the
+ * attribute, slotBits, the number of rows and of values, followed by
+ * each value (encoded as in BTreeIndex) and its bitmap, in key order.
+ */
+
+public class BitmapIndex {
+
+    int keyType;      // type of the indexed attribute
+    int slotBits;     // bits of a row number that hold the slot
+    int numRows;      // Number of rows indexed
+    TreeMap<Object, RoaringBitmap> bitmaps;   // rows of each value
+
+
+    public BitmapIndex(int keyType, int slotBits) {
+        this.keyType = keyType;
+        this.slotBits = slotBits;
+        numRows = 0;
+        bitmaps = new TreeMap<Object, RoaringBitmap>(comparator(keyType));
+    }
+
+
+    /** name of the index file of the attribute **/
+
+    public static String fileName(String tabname, String colname) {
+        return tabname + "." + colname + ".bmx";
+    }
+
+
+    /** whether the attribute has a bitmap index that is not older than the table **/
+
+    public static boolean exists(String tabname, String colname) {
+        File idx = new File(fileName(tabname, colname));
+        File tbl = new File(tabname + ".tbl");
+        return idx.exists() && idx.lastModified() >= tbl.lastModified();
+    }
+
+
+    /** number of bits needed for the slots of pages of at most maxSlots rows **/
+
+    public static int slotBitsFor(int maxSlots) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, maxSlots - 1)));
+    }
+
+
+    public int getSlotBits() {
+        return slotBits;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumValues() {
+        return bitmaps.size();
+    }
+
+
+    /** add the row in the given page and slot, rows must be added in table order **/
+
+    public void add(Object key, int pageno, int slot) {
+        key = BTreeIndex.normalize(keyType, key);
+        RoaringBitmap rows = bitmaps.get(key);
+        if (rows == null) {
+            rows = new RoaringBitmap();
+            bitmaps.put(key, rows);
+        }
+        rows.add((pageno << slotBits) | slot);
+        numRows++;
+    }
+
+
+    /** The rows whose value compares to the key as the expression
+     ** type of a selection condition requires (see Condition)
+     **/
+
+    public RoaringBitmap select(int exprtype, Object key) {
+        key = BTreeIndex.normalize(keyType, key);
+        RoaringBitmap result = new RoaringBitmap();
+        for (Map.Entry<Object, RoaringBitmap> e : bitmaps.entrySet()) {
+            int cmp = BTreeIndex.compare(keyType, e.getKey(), key);
+            if (Condition.satisfies(exprtype, cmp)) {
+                result = RoaringBitmap.or(result, e.getValue());
+            }
+        }
+        return result;
+    }
+
+
+    public void write(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        out.writeInt(keyType);
+        out.writeInt(slotBits);
+        out.writeInt(numRows);
+        out.writeInt(bitmaps.size());
+        for (Map.Entry<Object, RoaringBitmap> e : bitmaps.entrySet()) {
+            byte[] key = BTreeIndex.encodeKey(keyType, e.getKey());
+            out.writeInt(key.length);
+            out.write(key);
+            e.getValue().write(out);
+        }
+        out.close();
+    }
+
+
+    public static BitmapIndex read(String filename) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+        try {
+            int keyType = in.readInt();
+            BitmapIndex index = new BitmapIndex(keyType, in.readInt());
+            index.numRows = in.readInt();
+            int numValues = in.readInt();
+            for (int i = 0; i < numValues; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                index.bitmaps.put(BTreeIndex.decodeKey(keyType, key), RoaringBitmap.read(in));
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+
+    static Comparator<Object> comparator(final int keyType) {
+        return new Comparator<Object>() {
+            public int compare(Object a, Object b) {
+                return BTreeIndex.compare(keyType, a, b);
+            }
+        };
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Keeps the schemas and statistics of the tables in memory
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+/**
+ * The schema of a table is read from <table>.md and its statistics
+ * from <table>.stat the first time they are asked for. They are read
+ * again only when the file was modified since, so the optimizer can
+ * ask for them as often as it costs plans. The cached objects are
+ * not changed once loaded, callers get copies of the schema.
+ */
+
+public class Catalog {
+
+    static HashMap<String, Entry> schemas = new HashMap<String, Entry>();     // schema of each table
+    static HashMap<String, Entry> statistics = new HashMap<String, Entry>();  // statistics of each table
+
+
+    /** a copy of the schema of the table **/
+
+    public static Schema getSchema(String tabname) throws IOException {
+        return (Schema) loadSchema(tabname).clone();
+    }
+
+
+    /** the statistics of the table **/
+
+    public static synchronized Statistics getStatistics(String tabname) throws IOException {
+        String filename = tabname + ".stat";
+        Entry entry = statistics.get(tabname);
+        if (entry == null || !entry.isCurrent(filename)) {
+            Schema schema = loadSchema(tabname);
+            entry = new Entry(filename);
+            entry.value = readStatistics(filename, schema.getNumCols());
+            statistics.put(tabname, entry);
+        }
+        return (Statistics) entry.value;
+    }
+
+
+    /** forget what was loaded, e.g. after tables were rewritten **/
+
+    public static synchronized void clear() {
+        schemas.clear();
+        statistics.clear();
+    }
+
+
+    static synchronized Schema loadSchema(String tabname) throws IOException {
+        String filename = tabname + ".md";
+        Entry entry = schemas.get(tabname);
+        if (entry == null || !entry.isCurrent(filename)) {
+            entry = new Entry(filename);
+            entry.value = readSchema(filename);
+            schemas.put(tabname, entry);
+        }
+        return (Schema) entry.value;
+    }
+
+
+    static Schema readSchema(String filename) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
+        try {
+            return (Schema) in.readObject();
+        } catch (ClassNotFoundException c) {
+            throw new IOException("Catalog: " + filename + " does not hold a schema");
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /** The first line of the file is the number of tuples, the
+     ** second the number of distinct values of each attribute
+     **/
+
+    static Statistics readStatistics(String filename, int numAttr) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(filename));
+        try {
+            String line = in.readLine();
+            StringTokenizer tokenizer = new StringTokenizer(line == null ? "" : line);
+            if (tokenizer.countTokens() != 1) {
+                throw new IOException("incorrect format of statastics file " + filename);
+            }
+            int numtuples = Integer.parseInt(tokenizer.nextToken());
+
+            line = in.readLine();
+            tokenizer = new StringTokenizer(line == null ? "" : line);
+            if (tokenizer.countTokens() != numAttr) {
+                throw new IOException("incorrect format of statastics file " + filename);
+            }
+            int[] distinct = new int[numAttr];
+            for (int i = 0; i < numAttr; i++) {
+                distinct[i] = Integer.parseInt(tokenizer.nextToken());
+            }
+            return new Statistics(numtuples, distinct);
+        } catch (NumberFormatException e) {
+            throw new IOException("incorrect format of statastics file " + filename);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /** number of tuples of a table and distinct values of its attributes **/
+
+    public static class Statistics {
+
+        int numTuples;
+        int[] distinct;    // Number of distinct values of each attribute
+
+        Statistics(int numTuples, int[] distinct) {
+            this.numTuples = numTuples;
+            this.distinct = distinct;
+        }
+
+        public int getNumTuples() {
+            return numTuples;
+        }
+
+        /** number of distinct values of the attribute at the given index **/
+
+        public int getDistinct(int index) {
+            return distinct[index];
+        }
+    }
+
+
+    /** an object loaded from a file, with the state of the file
+     ** taken before it was read
+     **/
+
+    static class Entry {
+
+        Object value;
+        long modified;    // modification time of the file
+        long length;      // length of the file
+
+        Entry(String filename) {
+            File file = new File(filename);
+            modified = file.lastModified();
+            length = file.length();
+        }
+
+        /** whether the file is unchanged since the value was loaded **/
+
+        boolean isCurrent(String filename) {
+            File file = new File(filename);
+            return file.lastModified() == modified && file.length() == length;
+        }
+    }
+}
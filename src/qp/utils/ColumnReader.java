@@ -0,0 +1,79 @@
+/**
+ * Reads the values of one attribute back from its column file
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** The values are returned one at a time in row order,
+ ** see ColumnWriter for the layout of the pages
+ **/
+
+public class ColumnReader {
+
+    PageFile file;
+    int type;           // type of the attribute
+    ByteBuffer page;    // the page being decoded
+    int pageno;         // Number of the next page to be read
+    int remaining;      // values not yet returned from the page
+
+
+    public ColumnReader(String filename, int type) throws IOException {
+        file = PageFile.open(filename);
+        if (file.getLayout() != PageFile.COLUMN) {
+            file.close();
+            throw new IOException("ColumnReader: " + filename + " is not a column file");
+        }
+        this.type = type;
+        page = ByteBuffer.allocate(file.getPageSize());
+        pageno = 0;
+        remaining = 0;
+    }
+
+
+    /** number of values in the column **/
+
+    public int getNumValues() {
+        return file.getNumTuples();
+    }
+
+
+    /** number of bytes of the file read so far **/
+
+    public long getBytesRead() {
+        return (long) pageno * file.getPageSize();
+    }
+
+
+    /** the next value of the column, null at the end of the column **/
+
+    public Object next() throws IOException {
+        if (remaining == 0) {
+            if (pageno >= file.getNumPages()) {
+                return null;
+            }
+            file.readPage(pageno, page);
+            pageno++;
+            remaining = page.getInt(0);
+            page.position(ColumnWriter.HEADER_SIZE);
+        }
+        remaining--;
+        if (type == Attribute.INT) {
+            return Integer.valueOf(page.getInt());
+        } else if (type == Attribute.REAL) {
+            return Float.valueOf(page.getFloat());
+        } else {
+            int len = page.getShort() & 0xFFFF;
+            String value = SlottedPage.getString(page, page.position(), len);
+            page.position(page.position() + len);
+            return value;
+        }
+    }
+
+
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Writes the values of one attribute of a table into a column file
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A column file is a page file (see PageFile) with the COLUMN layout.
+ * Each data page starts with the number of values in it, followed by
+ * the values packed one after the other in the order of the rows:
+ * INT as 4 bytes, REAL as a 4 byte float, STRING as a 2 byte length
+ * followed by its UTF-8 bytes.
+ */
+
+public class ColumnWriter {
+
+    static final int HEADER_SIZE = 4;   // number of values in a page
+
+    FileChannel channel;
+    int type;           // type of the attribute
+    int pageSize;       // Number of bytes per page
+    ByteBuffer page;    // the page being filled
+    int numPages;       // Number of data pages written so far
+    int numValues;      // Number of values written so far
+
+
+    public ColumnWriter(String filename, int type, int pageSize) throws IOException {
+        if (pageSize < PageFile.HEADER_SIZE) {
+            throw new IllegalArgumentException("ColumnWriter: page size " + pageSize + " is too small");
+        }
+        this.type = type;
+        this.pageSize = pageSize;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        page = ByteBuffer.allocate(pageSize);
+        page.putInt(0);
+        numPages = 0;
+        numValues = 0;
+    }
+
+
+    /** name of the column file of the attribute **/
+
+    public static String fileName(String tabname, String colname) {
+        return tabname + "." + colname + ".col";
+    }
+
+
+    /** append one value of the attribute **/
+
+    public void add(Object value) throws IOException {
+        byte[] string = null;
+        int size = 4;
+        if (type == Attribute.STRING) {
+            string = ((String) value).getBytes(StandardCharsets.UTF_8);
+            if (string.length > 0xFFFF) {
+                throw new IllegalArgumentException("ColumnWriter: string value too long");
+            }
+            size = 2 + string.length;
+        }
+        if (size > pageSize - HEADER_SIZE) {
+            throw new IOException("ColumnWriter: value of " + size
+                    + " bytes does not fit in a page of " + pageSize + " bytes");
+        }
+        if (page.remaining() < size) {
+            flushPage();
+        }
+
+        if (type == Attribute.INT) {
+            page.putInt(((Integer) value).intValue());
+        } else if (type == Attribute.REAL) {
+            page.putFloat(((Float) value).floatValue());
+        } else {
+            page.putShort((short) string.length);
+            page.put(string);
+        }
+        page.putInt(0, page.getInt(0) + 1);
+        numValues++;
+    }
+
+
+    void flushPage() throws IOException {
+        long pos = (long) (numPages + 1) * pageSize;
+        page.clear();
+        while (page.hasRemaining()) {
+            channel.write(page, pos + page.position());
+        }
+        numPages++;
+        page.clear();
+        page.putInt(0);
+    }
+
+
+    /** write out the last page and the header page **/
+
+    public void close() throws IOException {
+        if (page.getInt(0) > 0) {
+            flushPage();
+        }
+        PageFile.writeHeader(channel, PageFile.COLUMN, pageSize, numPages, numValues);
+        channel.close();
+    }
+}
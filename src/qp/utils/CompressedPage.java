@@ -0,0 +1,342 @@
+/**
+ * Decodes a compressed page of a table file
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A compressed page holds the rows of the page column by column.
+ * It starts with the number of rows and the offset of each column
+ * chunk, followed by the chunks:
+ *
+ *   INT     base value, bit width, bit-packed (value - base) of each row
+ *   REAL    4 byte float of each row
+ *   STRING  dictionary size, the distinct strings (2 byte length and
+ *           UTF-8 bytes), bit width, bit-packed dictionary code of each row
+ *
+ * Columns are only unpacked when they are used, and string predicates
+ * are evaluated once per dictionary entry instead of once per row.
+ * See CompressedPageBuilder for the encoder.
+ */
+
+public class CompressedPage {
+
+    int[] types;        // type of each attribute
+    TupleLayout layout; // layout of the decoded tuples
+    ByteBuffer page;    // the page being decoded
+    int numRows;        // Number of rows in the page
+
+    /** columns decoded so far for the current page, null if not decoded **/
+
+    int[][] ints;        // values of INT columns, dictionary codes of STRING columns
+    float[][] reals;     // values of REAL columns
+    String[][] dicts;    // dictionary of STRING columns
+
+
+    public CompressedPage(int[] types) {
+        this.types = types;
+        layout = TupleLayout.of(types);
+        ints = new int[types.length][];
+        reals = new float[types.length][];
+        dicts = new String[types.length][];
+    }
+
+
+    /** start decoding the given page **/
+
+    public void load(ByteBuffer page) {
+        this.page = page;
+        numRows = page.getInt(0);
+        for (int i = 0; i < types.length; i++) {
+            ints[i] = null;
+            reals[i] = null;
+            dicts[i] = null;
+        }
+    }
+
+
+    public int numRows() {
+        return numRows;
+    }
+
+
+    int chunkOffset(int col) {
+        return page.getInt(4 + 4 * col);
+    }
+
+
+    /** values of an INT column **/
+
+    public int[] intColumn(int col) {
+        if (ints[col] == null) {
+            int pos = chunkOffset(col);
+            int base = page.getInt(pos);
+            int width = page.get(pos + 4);
+            int[] values = new int[numRows];
+            unpack(page, pos + 5, values, numRows, width);
+            for (int r = 0; r < numRows; r++) {
+                values[r] += base;
+            }
+            ints[col] = values;
+        }
+        return ints[col];
+    }
+
+
+    /** lower and upper bound of the values of an INT column in this page **/
+
+    public long minOf(int col) {
+        return page.getInt(chunkOffset(col));
+    }
+
+    public long maxOf(int col) {
+        int pos = chunkOffset(col);
+        int width = page.get(pos + 4);
+        return (long) page.getInt(pos) + ((1L << width) - 1);
+    }
+
+
+    /** values of a REAL column **/
+
+    public float[] realColumn(int col) {
+        if (reals[col] == null) {
+            int pos = chunkOffset(col);
+            float[] values = new float[numRows];
+            for (int r = 0; r < numRows; r++) {
+                values[r] = page.getFloat(pos + 4 * r);
+            }
+            reals[col] = values;
+        }
+        return reals[col];
+    }
+
+
+    /** dictionary of a STRING column **/
+
+    public String[] dictionary(int col) {
+        if (dicts[col] == null) {
+            int pos = chunkOffset(col);
+            int size = page.getInt(pos);
+            pos += 4;
+            String[] dict = new String[size];
+            for (int d = 0; d < size; d++) {
+                int len = page.getShort(pos) & 0xFFFF;
+                dict[d] = SlottedPage.getString(page, pos + 2, len);
+                pos += 2 + len;
+            }
+            dicts[col] = dict;
+        }
+        return dicts[col];
+    }
+
+
+    /** dictionary code of each row of a STRING column **/
+
+    public int[] codeColumn(int col) {
+        if (ints[col] == null) {
+            int pos = chunkOffset(col);
+            int size = page.getInt(pos);
+            pos += 4;
+            for (int d = 0; d < size; d++) {
+                pos += 2 + (page.getShort(pos) & 0xFFFF);
+            }
+            int width = page.get(pos);
+            int[] codes = new int[numRows];
+            unpack(page, pos + 1, codes, numRows, width);
+            ints[col] = codes;
+        }
+        return ints[col];
+    }
+
+
+    /** the value of one attribute of a row **/
+
+    public Object valueAt(int row, int col) {
+        if (types[col] == Attribute.INT) {
+            return Integer.valueOf(intColumn(col)[row]);
+        } else if (types[col] == Attribute.REAL) {
+            return Float.valueOf(realColumn(col)[row]);
+        } else {
+            return dictionary(col)[codeColumn(col)[row]];
+        }
+    }
+
+
+    /** decode one row of the page into a tuple **/
+
+    public Tuple getRow(int row) {
+        Tuple tuple = new Tuple(layout);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                tuple.setInt(i, intColumn(i)[row]);
+            } else if (types[i] == Attribute.REAL) {
+                tuple.setFloat(i, realColumn(i)[row]);
+            } else {
+                tuple.setString(i, dictionary(i)[codeColumn(i)[row]]);
+            }
+        }
+        return tuple;
+    }
+
+
+    /** decode the needed attributes of one row of the page into
+     ** a new row of the batch
+     **/
+
+    public void getRow(int row, VectorBatch batch, boolean[] needed) {
+        int to = batch.addRow();
+        for (int i = 0; i < types.length; i++) {
+            int c = layout.slot[i];
+            if (!needed[i]) {
+                continue;
+            } else if (types[i] == Attribute.INT) {
+                batch.ints[c][to] = intColumn(i)[row];
+            } else if (types[i] == Attribute.REAL) {
+                batch.floats[c][to] = realColumn(i)[row];
+            } else {
+                batch.refs[c][to] = dictionary(i)[codeColumn(i)[row]];
+            }
+        }
+    }
+
+
+    /** Find the rows of the page that can satisfy all the given
+     ** selection conditions on the attributes of the schema.
+     ** Returns null if none of the conditions applies to this schema
+     **/
+
+    public int[] select(Vector conditions, Schema schema) {
+        boolean[] keep = null;
+        for (int c = 0; c < conditions.size(); c++) {
+            Condition cn = (Condition) conditions.elementAt(c);
+            int col = schema.indexOf(cn.getLhs());
+            if (col < 0 || cn.getOpType() != Condition.SELECT) {
+                continue;
+            }
+            if (keep == null) {
+                keep = new boolean[numRows];
+                Arrays.fill(keep, true);
+            }
+            filter(cn, col, keep);
+        }
+        if (keep == null) {
+            return null;
+        }
+        int count = 0;
+        for (int r = 0; r < numRows; r++) {
+            if (keep[r]) count++;
+        }
+        int[] rows = new int[count];
+        count = 0;
+        for (int r = 0; r < numRows; r++) {
+            if (keep[r]) rows[count++] = r;
+        }
+        return rows;
+    }
+
+
+    /** clear keep[r] for each row r that does not satisfy the condition **/
+
+    void filter(Condition cn, int col, boolean[] keep) {
+        String value = (String) cn.getRhs();
+        int exprtype = cn.getExprType();
+
+        if (types[col] == Attribute.STRING) {
+            /** evaluate the condition once per dictionary entry **/
+            String[] dict = dictionary(col);
+            boolean[] match = new boolean[dict.length];
+            boolean any = false;
+            for (int d = 0; d < dict.length; d++) {
+                match[d] = Condition.satisfies(exprtype, dict[d].compareTo(value));
+                any = any || match[d];
+            }
+            if (!any) {
+                Arrays.fill(keep, false);
+                return;
+            }
+            int[] codes = codeColumn(col);
+            for (int r = 0; r < numRows; r++) {
+                keep[r] = keep[r] && match[codes[r]];
+            }
+        } else if (types[col] == Attribute.INT) {
+            int checkVal = Integer.parseInt(value);
+            /** the bit width bounds the values of the page **/
+            if (!Condition.rangeMaySatisfy(exprtype, Long.compare(minOf(col), checkVal),
+                    Long.compare(maxOf(col), checkVal))) {
+                Arrays.fill(keep, false);
+                return;
+            }
+            int[] values = intColumn(col);
+            for (int r = 0; r < numRows; r++) {
+                keep[r] = keep[r] && Condition.satisfies(exprtype, Integer.compare(values[r], checkVal));
+            }
+        } else {
+            float checkVal = Float.parseFloat(value);
+            float[] values = realColumn(col);
+            for (int r = 0; r < numRows; r++) {
+                float v = values[r];
+                int cmp = (v < checkVal) ? -1 : ((v > checkVal) ? 1 : 0);
+                keep[r] = keep[r] && (Float.isNaN(v) || Condition.satisfies(exprtype, cmp));
+            }
+        }
+    }
+
+
+    /** number of bits needed for values in 0..max (unsigned) **/
+
+    static int bitWidth(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+
+    /** number of bytes taken by n values of the given bit width **/
+
+    static int packedSize(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+
+    /** write the low width bits of each value, least significant first **/
+
+    static void pack(ByteBuffer out, int pos, int[] values, int n, int width) {
+        long acc = 0;
+        int bits = 0;
+        long mask = (width == 32) ? 0xFFFFFFFFL : (1L << width) - 1;
+        for (int i = 0; i < n; i++) {
+            acc |= (values[i] & mask) << bits;
+            bits += width;
+            while (bits >= 8) {
+                out.put(pos++, (byte) acc);
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            out.put(pos, (byte) acc);
+        }
+    }
+
+
+    static void unpack(ByteBuffer in, int pos, int[] values, int n, int width) {
+        if (width == 0) {
+            return;
+        }
+        long acc = 0;
+        int bits = 0;
+        long mask = (width == 32) ? 0xFFFFFFFFL : (1L << width) - 1;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                acc |= (in.get(pos++) & 0xFFL) << bits;
+                bits += 8;
+            }
+            values[i] = (int) (acc & mask);
+            acc >>>= width;
+            bits -= width;
+        }
+    }
+}
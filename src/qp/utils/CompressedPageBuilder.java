@@ -0,0 +1,161 @@
+/**
+ * Collects tuples into a compressed page
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+
+/** Tuples are added until the encoded page would not fit in the page
+ ** size any more, then the page is written out with write().
+ ** See CompressedPage for the layout of the page.
+ **/
+
+public class CompressedPageBuilder {
+
+    int[] types;          // type of each attribute
+    int pageSize;         // Number of bytes per page
+    Vector rows;          // tuples of the page being built
+
+    long[] min;           // smallest value of each INT column
+    long[] max;           // largest value of each INT column
+    LinkedHashMap[] dicts;    // code of each distinct string of each STRING column
+    int[] dictBytes;      // bytes taken by the entries of each dictionary
+
+
+    public CompressedPageBuilder(int[] types, int pageSize) {
+        this.types = types;
+        this.pageSize = pageSize;
+        min = new long[types.length];
+        max = new long[types.length];
+        dicts = new LinkedHashMap[types.length];
+        dictBytes = new int[types.length];
+        clear();
+    }
+
+
+    /** start an empty page **/
+
+    public void clear() {
+        rows = new Vector();
+        for (int i = 0; i < types.length; i++) {
+            min[i] = Long.MAX_VALUE;
+            max[i] = Long.MIN_VALUE;
+            dicts[i] = new LinkedHashMap();
+            dictBytes[i] = 0;
+        }
+    }
+
+
+    public int numRows() {
+        return rows.size();
+    }
+
+
+    /** Add the tuple to the page, returns false and leaves the
+     ** page unchanged if the page would not fit any more
+     **/
+
+    public boolean add(Tuple tuple) {
+        int n = rows.size() + 1;
+        int size = 4 + 4 * types.length;
+        for (int i = 0; i < types.length; i++) {
+            Object value = tuple.dataAt(i);
+            if (types[i] == Attribute.INT) {
+                long v = ((Integer) value).intValue();
+                long lo = Math.min(min[i], v);
+                long hi = Math.max(max[i], v);
+                size += 5 + CompressedPage.packedSize(n, CompressedPage.bitWidth(hi - lo));
+            } else if (types[i] == Attribute.REAL) {
+                size += 4 * n;
+            } else {
+                int entries = dicts[i].size();
+                int bytes = dictBytes[i];
+                if (!dicts[i].containsKey(value)) {
+                    entries++;
+                    bytes += 2 + utf8Length((String) value);
+                }
+                size += 5 + bytes + CompressedPage.packedSize(n, CompressedPage.bitWidth(entries - 1));
+            }
+            if (size > pageSize) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < types.length; i++) {
+            Object value = tuple.dataAt(i);
+            if (types[i] == Attribute.INT) {
+                long v = ((Integer) value).intValue();
+                min[i] = Math.min(min[i], v);
+                max[i] = Math.max(max[i], v);
+            } else if (types[i] == Attribute.STRING && !dicts[i].containsKey(value)) {
+                dicts[i].put(value, Integer.valueOf(dicts[i].size()));
+                dictBytes[i] += 2 + utf8Length((String) value);
+            }
+        }
+        rows.add(tuple);
+        return true;
+    }
+
+
+    static int utf8Length(String s) {
+        int len = s.getBytes(StandardCharsets.UTF_8).length;
+        if (len > 0xFFFF) {
+            throw new IllegalArgumentException("CompressedPageBuilder: string value too long");
+        }
+        return len;
+    }
+
+
+    /** encode the rows added so far into the page buffer **/
+
+    public void write(ByteBuffer page) {
+        int n = rows.size();
+        page.clear();
+        page.putInt(0, n);
+        int pos = 4 + 4 * types.length;
+        int[] values = new int[n];
+        for (int i = 0; i < types.length; i++) {
+            page.putInt(4 + 4 * i, pos);
+            if (types[i] == Attribute.INT) {
+                int base = (int) min[i];
+                int width = CompressedPage.bitWidth(max[i] - min[i]);
+                for (int r = 0; r < n; r++) {
+                    values[r] = ((Tuple) rows.elementAt(r)).intAt(i) - base;
+                }
+                page.putInt(pos, base);
+                page.put(pos + 4, (byte) width);
+                CompressedPage.pack(page, pos + 5, values, n, width);
+                pos += 5 + CompressedPage.packedSize(n, width);
+            } else if (types[i] == Attribute.REAL) {
+                for (int r = 0; r < n; r++) {
+                    page.putFloat(pos, ((Tuple) rows.elementAt(r)).floatAt(i));
+                    pos += 4;
+                }
+            } else {
+                page.putInt(pos, dicts[i].size());
+                pos += 4;
+                for (Iterator it = dicts[i].keySet().iterator(); it.hasNext(); ) {
+                    byte[] bytes = ((String) it.next()).getBytes(StandardCharsets.UTF_8);
+                    page.putShort(pos, (short) bytes.length);
+                    page.position(pos + 2);
+                    page.put(bytes);
+                    pos += 2 + bytes.length;
+                }
+                int width = CompressedPage.bitWidth(dicts[i].size() - 1);
+                for (int r = 0; r < n; r++) {
+                    Object value = ((Tuple) rows.elementAt(r)).dataAt(i);
+                    values[r] = ((Integer) dicts[i].get(value)).intValue();
+                }
+                page.put(pos, (byte) width);
+                CompressedPage.pack(page, pos + 1, values, n, width);
+                pos += 1 + CompressedPage.packedSize(n, width);
+            }
+        }
+        page.clear();
+    }
+}
@@ -79,6 +79,55 @@ public class Condition {
         }
     }
 
+    /** Whether a value that compares to the constant of a selection
+     ** condition as cmp (negative, zero, positive) satisfies it
+     **/
+
+    public static boolean satisfies(int exprtype, int cmp) {
+        switch (exprtype) {
+            case LESSTHAN:
+                return cmp < 0;
+            case GREATERTHAN:
+                return cmp > 0;
+            case LTOE:
+                return cmp <= 0;
+            case GTOE:
+                return cmp >= 0;
+            case EQUAL:
+                return cmp == 0;
+            case NOTEQUAL:
+                return cmp != 0;
+            default:
+                return false;
+        }
+    }
+
+
+    /** Whether some value in a range can satisfy a selection condition,
+     ** given how the smallest (cmpMin) and largest (cmpMax) value of the
+     ** range compare to the constant of the condition
+     **/
+
+    public static boolean rangeMaySatisfy(int exprtype, int cmpMin, int cmpMax) {
+        switch (exprtype) {
+            case LESSTHAN:
+                return cmpMin < 0;
+            case GREATERTHAN:
+                return cmpMax > 0;
+            case LTOE:
+                return cmpMin <= 0;
+            case GTOE:
+                return cmpMax >= 0;
+            case EQUAL:
+                return cmpMin <= 0 && cmpMax >= 0;
+            case NOTEQUAL:
+                return !(cmpMin == 0 && cmpMax == 0);
+            default:
+                return true;
+        }
+    }
+
+
     public Object clone() {
         Attribute newlhs = (Attribute) lhs.clone();
         Object newrhs;
@@ -0,0 +1,151 @@
+/**
+ * Counts the number of distinct values of an attribute
+ **/
+
+package qp.utils;
+
+/**
+ * Values are fed as 64 bit hashes (see hash()). The hashes are kept
+ * in an open addressing hash table, so the count is exact (up to hash
+ * collisions), until EXACT_LIMIT distinct values
+ * are seen. From then on the count is estimated with a HyperLogLog
+ * sketch of 2^PRECISION registers (about 1% standard error), so the
+ * memory used stays bounded however large the table is. The estimate
+ * is never more than the number of values added.
+ */
+
+public class DistinctCounter {
+
+    static final int EXACT_LIMIT = 1 << 16;
+    static final int PRECISION = 14;
+
+    long[] exact;         // hashes seen (0 is a free slot), null once the sketch is used
+    int numExact;         // number of distinct non zero hashes in exact
+    boolean seenZero;     // whether the hash 0 was seen
+    byte[] registers;     // HyperLogLog registers, null while counting exactly
+    long numAdded;        // number of values added
+
+
+    public DistinctCounter() {
+        exact = new long[2 * EXACT_LIMIT];
+        numExact = 0;
+        seenZero = false;
+        registers = null;
+        numAdded = 0;
+    }
+
+
+    /** 64 bit hash of a value of an attribute **/
+
+    public static long hash(Object value) {
+        long h;
+        if (value instanceof Integer) {
+            h = ((Integer) value).longValue();
+        } else if (value instanceof Float) {
+            h = Float.floatToIntBits(((Float) value).floatValue()) | (1L << 40);
+        } else {
+            /** FNV-1a over the characters of the string **/
+            String s = (String) value;
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        return mix(h);
+    }
+
+
+    /** scramble the bits of h (the finalizer of MurmurHash3) **/
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    public void add(long hash) {
+        numAdded++;
+        if (registers == null) {
+            addExact(hash);
+            if (numExact > EXACT_LIMIT) {
+                toSketch();
+            }
+            return;
+        }
+        addToSketch(hash);
+    }
+
+
+    void addToSketch(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+
+    void addExact(long hash) {
+        if (hash == 0) {
+            seenZero = true;
+            return;
+        }
+        int mask = exact.length - 1;
+        int slot = (int) hash & mask;
+        while (exact[slot] != 0) {
+            if (exact[slot] == hash) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        exact[slot] = hash;
+        numExact++;
+    }
+
+
+    /** move the hashes seen so far into the sketch **/
+
+    void toSketch() {
+        long[] seen = exact;
+        exact = null;
+        registers = new byte[1 << PRECISION];
+        for (int i = 0; i < seen.length; i++) {
+            if (seen[i] != 0) {
+                addToSketch(seen[i]);
+            }
+        }
+        if (seenZero) {
+            addToSketch(0);
+        }
+    }
+
+
+    /** exact or estimated number of distinct values added **/
+
+    public long count() {
+        if (registers == null) {
+            return numExact + (seenZero ? 1 : 0);
+        }
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            sum += 1.0 / (1L << registers[i]);
+            if (registers[i] == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            /** linear counting is more accurate for small counts **/
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.min(numAdded, Math.round(estimate));
+    }
+}
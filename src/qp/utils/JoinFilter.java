@@ -0,0 +1,162 @@
+/**
+ * A filter of the join keys of the build input of a join, pushed
+ * into the scan of the other input at run time
+ **/
+
+package qp.utils;
+
+/**
+ * The filter keeps the smallest and the largest key and a Bloom filter
+ * of the keys. A key outside the range or missing from the Bloom
+ * filter has no match, so the scan of the probe input can drop its
+ * tuple before it is decoded, and skip the pages whose zone map lies
+ * outside the range. Keys are first added one by one, only their hash
+ * codes are kept, and build() then sizes the Bloom filter for the
+ * number of keys added, BITS_PER_KEY bits each.
+ */
+
+public class JoinFilter {
+
+    static boolean enabled = true;    // whether joins push filters into scans
+
+    static final int BITS_PER_KEY = 8;     // about 2.5% false positives with 4 probes
+    static final int PROBES = 4;           // bits set for each key
+    static final int MAX_BITS = 1 << 27;   // largest Bloom filter, 16 MB
+
+    Attribute attr;   // attribute of the probe input the filter applies to
+    int type;         // type of the keys
+
+    int[] hashes;     // hash codes of the keys added, until the filter is built
+    int numKeys;      // Number of keys added
+    Object min;       // smallest key added, null if none
+    Object max;       // largest key added, null if none
+
+    long[] bits;      // the Bloom filter, null until built
+    int mask;         // number of bits of the Bloom filter - 1
+
+
+    public JoinFilter(Attribute attr, int type) {
+        this.attr = attr;
+        this.type = type;
+        hashes = new int[64];
+        numKeys = 0;
+    }
+
+
+    /** set whether joins push filters into the scans below them **/
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+
+    public Attribute getAttribute() {
+        return attr;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    public Object getMin() {
+        return min;
+    }
+
+    public Object getMax() {
+        return max;
+    }
+
+
+    /** add a key of the build input **/
+
+    public void add(Object key) {
+        if (type == Attribute.REAL && Float.isNaN(((Float) key).floatValue())) {
+            /** NaN is not ordered and matches no key **/
+            return;
+        }
+        if (numKeys == hashes.length) {
+            int[] grown = new int[2 * numKeys];
+            System.arraycopy(hashes, 0, grown, 0, numKeys);
+            hashes = grown;
+        }
+        hashes[numKeys++] = key.hashCode();
+        if (min == null || compare(key, min) < 0) {
+            min = key;
+        }
+        if (max == null || compare(key, max) > 0) {
+            max = key;
+        }
+    }
+
+
+    /** build the Bloom filter from the keys added **/
+
+    public void build() {
+        long wanted = Math.max(64L, (long) numKeys * BITS_PER_KEY);
+        int numBits = (int) Math.min(MAX_BITS, Long.highestOneBit(wanted - 1) << 1);
+        bits = new long[numBits >>> 6];
+        mask = numBits - 1;
+        for (int i = 0; i < numKeys; i++) {
+            int h1 = mix(hashes[i]);
+            int h2 = (h1 >>> 17) | 1;
+            for (int k = 0; k < PROBES; k++) {
+                int bit = (h1 + k * h2) & mask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+        hashes = null;
+    }
+
+
+    /** whether the key may have a match, the filter must be built **/
+
+    public boolean mayContain(Object key) {
+        if (min == null || compare(key, min) < 0 || compare(key, max) > 0) {
+            return false;
+        }
+        int h1 = mix(key.hashCode());
+        int h2 = (h1 >>> 17) | 1;
+        for (int k = 0; k < PROBES; k++) {
+            int bit = (h1 + k * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** whether keys between low and high, as in a zone map, may have a match **/
+
+    public boolean mayOverlap(Object low, Object high) {
+        return min != null && compare(high, min) >= 0 && compare(low, max) <= 0;
+    }
+
+
+    int compare(Object a, Object b) {
+        if (type == Attribute.INT) {
+            return Integer.compare(((Integer) a).intValue(), ((Integer) b).intValue());
+        } else if (type == Attribute.REAL) {
+            return Float.compare(((Float) a).floatValue(), ((Float) b).floatValue());
+        } else {
+            return ((String) a).compareTo((String) b);
+        }
+    }
+
+
+    static int mix(int h) {
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
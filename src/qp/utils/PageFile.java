@@ -0,0 +1,179 @@
+/**
+ * A table file made of fixed size binary pages
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Paths;
+
+/**
+ * Page 0 of the file is the header page, data page i (counting from 0)
+ * starts at byte (i + 1) * pageSize so every page is page aligned.
+ * The header holds the magic number, format version, page layout,
+ * page size, number of data pages and number of tuples in the table.
+ * Data pages of a table file use the SlottedPage or the CompressedPage
+ * layout, the pages of a column file hold the values of one attribute (see ColumnWriter)
+ * and the pages of an index file the nodes of a B+-tree (see BTreeIndex).
+ */
+
+public class PageFile implements PageSource {
+
+    public static final int MAGIC = 0x51504746;       // "QPGF"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    public static final int HEADER_SIZE = 24;        // bytes used in the header page
+
+    /** enumeration of the layout of the data pages **/
+
+    public static final int ROWS = 0;      // slotted pages of records
+    public static final int COLUMN = 1;    // values of a single attribute
+    public static final int COMPRESSED = 2;    // rows stored column by column, see CompressedPage
+    public static final int BTREE = 3;     // nodes of a B+-tree index, see BTreeIndex
+
+    String filename;
+    FileChannel channel;
+    int layout;       // Layout of the data pages
+    int pageSize;     // Number of bytes per page in this file
+    int numPages;     // Number of data pages
+    int numTuples;    // Number of tuples stored in the file
+
+
+    PageFile(String filename, FileChannel channel) {
+        this.filename = filename;
+        this.channel = channel;
+    }
+
+
+    /** Whether the file is a binary page file and not a
+     ** stream of serialized tuples
+     **/
+
+    public static boolean isPageFile(String filename) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException io) {
+            return false;
+        }
+    }
+
+
+    /** open the page file for reading and load its header **/
+
+    public static PageFile open(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        PageFile file = new PageFile(filename, channel);
+        try {
+            file.readHeader();
+        } catch (IOException io) {
+            channel.close();
+            throw io;
+        }
+        return file;
+    }
+
+
+    void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new EOFException("PageFile: incomplete header in " + filename);
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("PageFile: " + filename + " is not a page file");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("PageFile: unsupported version in " + filename);
+        }
+        layout = header.getInt(8);
+        pageSize = header.getInt(12);
+        numPages = header.getInt(16);
+        numTuples = header.getInt(20);
+    }
+
+
+    /** write the header page for a file of the given geometry **/
+
+    static void writeHeader(FileChannel channel, int layout, int pageSize, int numPages, int numTuples)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(layout);
+        header.putInt(pageSize);
+        header.putInt(numPages);
+        header.putInt(numTuples);
+        header.flip();
+        long pos = 0;
+        while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+        }
+    }
+
+
+    /** byte offset of the given data page **/
+
+    public long pageOffset(int pageno) {
+        return (long) (pageno + 1) * pageSize;
+    }
+
+
+    /** Read data page pageno into the buffer, the buffer
+     ** must have a capacity of (at least) one page
+     **/
+
+    public void readPage(int pageno, ByteBuffer page) throws IOException {
+        page.clear();
+        page.limit(pageSize);
+        long pos = pageOffset(pageno);
+        while (page.hasRemaining()) {
+            int n = channel.read(page, pos + page.position());
+            if (n < 0) {
+                throw new EOFException("PageFile: page " + pageno + " missing in " + filename);
+            }
+        }
+        page.clear();
+    }
+
+
+    /** read data page pageno into a new buffer **/
+
+    public Object loadPage(int pageno) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        readPage(pageno, page);
+        return page;
+    }
+
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public int getLayout() {
+        return layout;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
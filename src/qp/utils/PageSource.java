@@ -0,0 +1,21 @@
+/**
+ * A file whose pages can be read through the buffer pool
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+
+/** The buffer pool (see qp.optimizer.BufferManager) identifies a page
+ ** by the file name and the page number, and calls loadPage when the
+ ** page is not in memory
+ **/
+
+public interface PageSource {
+
+    public String getFileName();
+
+    /** read the given page from the file into a new object **/
+
+    public Object loadPage(int pageno) throws IOException;
+}
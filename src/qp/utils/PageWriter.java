@@ -0,0 +1,139 @@
+/**
+ * Writes tuples into a binary page file
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Tuples are packed into slotted pages in the order they are added,
+ * or into compressed pages (see CompressedPage) if asked for.
+ * The header page is written on close, once the number of pages and
+ * tuples is known. The bounds of the values of each page are collected
+ * into a zone map (see ZoneMap) the caller may save next to the file.
+ */
+
+public class PageWriter {
+
+    FileChannel channel;
+    int[] types;        // type of each attribute of the table
+    int pageSize;       // Number of bytes per page
+    ByteBuffer page;    // the page being filled
+    int numPages;       // Number of data pages written so far
+    int numTuples;      // Number of tuples written so far
+
+    CompressedPageBuilder builder;   // rows of the current page, if the pages are compressed
+    ZoneMap zonemap;    // bounds of the values of each page written
+
+
+    public PageWriter(String filename, Schema schema, int pageSize) throws IOException {
+        this(filename, schema, pageSize, false);
+    }
+
+
+    public PageWriter(String filename, Schema schema, int pageSize, boolean compress) throws IOException {
+        if (pageSize < PageFile.HEADER_SIZE) {
+            throw new IllegalArgumentException("PageWriter: page size " + pageSize + " is too small");
+        }
+        this.types = SlottedPage.typesOf(schema);
+        this.pageSize = pageSize;
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        page = ByteBuffer.allocate(pageSize);
+        SlottedPage.init(page);
+        if (compress) {
+            builder = new CompressedPageBuilder(types, pageSize);
+        }
+        zonemap = new ZoneMap(types);
+        numPages = 0;
+        numTuples = 0;
+    }
+
+
+    /** append the tuple to the current page, the page is written
+     ** out when the tuple does not fit any more
+     **/
+
+    public void add(Tuple tuple) throws IOException {
+        add(tuple, (builder == null) ? SlottedPage.encode(tuple, types) : null);
+    }
+
+
+    /** Append the tuple with its record already encoded by
+     ** SlottedPage.encode(), the record is not used if the
+     ** pages are compressed
+     **/
+
+    public void add(Tuple tuple, byte[] record) throws IOException {
+        if (builder != null) {
+            if (!builder.add(tuple)) {
+                flushPage();
+                if (!builder.add(tuple)) {
+                    throw new IOException("PageWriter: tuple does not fit in a compressed page of "
+                            + pageSize + " bytes");
+                }
+            }
+            zonemap.add(tuple);
+            numTuples++;
+            return;
+        }
+        if (record.length > SlottedPage.maxRecordSize(pageSize)) {
+            throw new IOException("PageWriter: record of " + record.length
+                    + " bytes does not fit in a page of " + pageSize + " bytes");
+        }
+        if (!SlottedPage.addRecord(page, record)) {
+            flushPage();
+            SlottedPage.addRecord(page, record);
+        }
+        zonemap.add(tuple);
+        numTuples++;
+    }
+
+
+    void flushPage() throws IOException {
+        long pos = (long) (numPages + 1) * pageSize;
+        if (builder != null) {
+            Arrays.fill(page.array(), (byte) 0);
+            builder.write(page);
+            builder.clear();
+        }
+        page.clear();
+        while (page.hasRemaining()) {
+            channel.write(page, pos + page.position());
+        }
+        numPages++;
+        zonemap.endPage();
+        page.clear();
+        SlottedPage.init(page);
+    }
+
+
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+
+    /** bounds of the pages written so far, complete after close **/
+
+    public ZoneMap getZoneMap() {
+        return zonemap;
+    }
+
+
+    /** write out the last page and the header page **/
+
+    public void close() throws IOException {
+        if (builder != null ? builder.numRows() > 0 : SlottedPage.numRecords(page) > 0) {
+            flushPage();
+        }
+        int layout = (builder != null) ? PageFile.COMPRESSED : PageFile.ROWS;
+        PageFile.writeHeader(channel, layout, pageSize, numPages, numTuples);
+        channel.close();
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * A compressed set of non-negative integers, used for the row numbers
+ * of bitmap indexes
+ **/
+
+package qp.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** The integers are split by their high 16 bits into containers of
+ ** at most 65536 values each (the roaring bitmap layout). A container
+ ** with at most ARRAY_MAX values is a sorted array of the low 16 bits,
+ ** a fuller one is a bitmap of 1024 words. Sparse sets thus take two
+ ** bytes per value, dense ones an eighth of a byte, and AND / OR work
+ ** container by container without decompressing anything.
+ **/
+
+public class RoaringBitmap {
+
+    static final int ARRAY_MAX = 4096;    // most values kept in an array container
+    static final int WORDS = 1024;        // words of a bitmap container
+
+    int size;              // number of containers
+    char[] keys;           // high 16 bits of the values of each container, increasing
+    Object[] containers;   // char[] of sorted low bits, or long[WORDS]
+    int[] cards;           // number of values in each container
+
+
+    public RoaringBitmap() {
+        keys = new char[4];
+        containers = new Object[4];
+        cards = new int[4];
+        size = 0;
+    }
+
+
+    /** add a value, adding the values in increasing order is fastest **/
+
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int i = (size > 0 && keys[size - 1] == high) ? size - 1 : find(high);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, high, new char[4], 0);
+        }
+        if (containers[i] instanceof long[]) {
+            long[] words = (long[]) containers[i];
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cards[i]++;
+            }
+            return;
+        }
+        char[] array = (char[]) containers[i];
+        int card = cards[i];
+        int pos = (card > 0 && array[card - 1] < low) ? -card - 1 : search(array, card, low);
+        if (pos >= 0) {
+            return;
+        }
+        pos = -pos - 1;
+        if (card == ARRAY_MAX) {
+            long[] words = toWords(array, card);
+            words[low >>> 6] |= 1L << low;
+            containers[i] = words;
+            cards[i] = card + 1;
+            return;
+        }
+        if (card == array.length) {
+            char[] grown = new char[Math.min(ARRAY_MAX, 2 * card)];
+            System.arraycopy(array, 0, grown, 0, card);
+            array = grown;
+            containers[i] = array;
+        }
+        System.arraycopy(array, pos, array, pos + 1, card - pos);
+        array[pos] = low;
+        cards[i] = card + 1;
+    }
+
+
+    public int getCardinality() {
+        int card = 0;
+        for (int i = 0; i < size; i++) {
+            card += cards[i];
+        }
+        return card;
+    }
+
+
+    /** the values in increasing order **/
+
+    public int[] toArray() {
+        int[] values = new int[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 16;
+            if (containers[i] instanceof long[]) {
+                long[] words = (long[]) containers[i];
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        values[n++] = base | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] array = (char[]) containers[i];
+                for (int k = 0; k < cards[i]; k++) {
+                    values[n++] = base | array[k];
+                }
+            }
+        }
+        return values;
+    }
+
+
+    /** the values in both bitmaps **/
+
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                result.andContainers(a.keys[i], a.containers[i], a.cards[i], b.containers[j], b.cards[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+
+    /** the values in either bitmap **/
+
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], copy(a.containers[i]), a.cards[i]);
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], copy(b.containers[j]), b.cards[j]);
+                j++;
+            } else {
+                result.orContainers(a.keys[i], a.containers[i], a.cards[i], b.containers[j], b.cards[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+
+    void andContainers(char key, Object c1, int card1, Object c2, int card2) {
+        if (c1 instanceof long[] && c2 instanceof long[]) {
+            long[] w1 = (long[]) c1;
+            long[] w2 = (long[]) c2;
+            long[] words = new long[WORDS];
+            int card = 0;
+            for (int w = 0; w < WORDS; w++) {
+                words[w] = w1[w] & w2[w];
+                card += Long.bitCount(words[w]);
+            }
+            if (card > ARRAY_MAX) {
+                append(key, words, card);
+            } else if (card > 0) {
+                append(key, toArray(words, card), card);
+            }
+            return;
+        }
+        if (c1 instanceof long[]) {
+            andContainers(key, c2, card2, c1, card1);
+            return;
+        }
+        char[] a1 = (char[]) c1;
+        char[] array = new char[card1];
+        int card = 0;
+        if (c2 instanceof long[]) {
+            long[] w2 = (long[]) c2;
+            for (int k = 0; k < card1; k++) {
+                if ((w2[a1[k] >>> 6] & (1L << a1[k])) != 0) {
+                    array[card++] = a1[k];
+                }
+            }
+        } else {
+            char[] a2 = (char[]) c2;
+            int k1 = 0;
+            int k2 = 0;
+            while (k1 < card1 && k2 < card2) {
+                if (a1[k1] < a2[k2]) {
+                    k1++;
+                } else if (a1[k1] > a2[k2]) {
+                    k2++;
+                } else {
+                    array[card++] = a1[k1];
+                    k1++;
+                    k2++;
+                }
+            }
+        }
+        if (card > 0) {
+            append(key, array, card);
+        }
+    }
+
+
+    void orContainers(char key, Object c1, int card1, Object c2, int card2) {
+        if (c1 instanceof char[] && c2 instanceof char[] && card1 + card2 <= ARRAY_MAX) {
+            char[] a1 = (char[]) c1;
+            char[] a2 = (char[]) c2;
+            char[] array = new char[card1 + card2];
+            int card = 0;
+            int k1 = 0;
+            int k2 = 0;
+            while (k1 < card1 || k2 < card2) {
+                if (k2 == card2 || (k1 < card1 && a1[k1] < a2[k2])) {
+                    array[card++] = a1[k1++];
+                } else if (k1 == card1 || a1[k1] > a2[k2]) {
+                    array[card++] = a2[k2++];
+                } else {
+                    array[card++] = a1[k1++];
+                    k2++;
+                }
+            }
+            append(key, array, card);
+            return;
+        }
+        long[] words = (c1 instanceof long[]) ? (long[]) ((long[]) c1).clone() : toWords((char[]) c1, card1);
+        if (c2 instanceof long[]) {
+            long[] w2 = (long[]) c2;
+            for (int w = 0; w < WORDS; w++) {
+                words[w] |= w2[w];
+            }
+        } else {
+            char[] a2 = (char[]) c2;
+            for (int k = 0; k < card2; k++) {
+                words[a2[k] >>> 6] |= 1L << a2[k];
+            }
+        }
+        int card = 0;
+        for (int w = 0; w < WORDS; w++) {
+            card += Long.bitCount(words[w]);
+        }
+        if (card > ARRAY_MAX) {
+            append(key, words, card);
+        } else {
+            append(key, toArray(words, card), card);
+        }
+    }
+
+
+    /** Write the bitmap: the number of containers, then for each
+     ** its key, its cardinality and its values or words
+     **/
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            out.writeInt(cards[i]);
+            if (containers[i] instanceof long[]) {
+                long[] words = (long[]) containers[i];
+                for (int w = 0; w < WORDS; w++) {
+                    out.writeLong(words[w]);
+                }
+            } else {
+                char[] array = (char[]) containers[i];
+                for (int k = 0; k < cards[i]; k++) {
+                    out.writeChar(array[k]);
+                }
+            }
+        }
+    }
+
+
+    public static RoaringBitmap read(DataInputStream in) throws IOException {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            char key = in.readChar();
+            int card = in.readInt();
+            if (card > ARRAY_MAX) {
+                long[] words = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] = in.readLong();
+                }
+                bitmap.append(key, words, card);
+            } else {
+                char[] array = new char[card];
+                for (int k = 0; k < card; k++) {
+                    array[k] = in.readChar();
+                }
+                bitmap.append(key, array, card);
+            }
+        }
+        return bitmap;
+    }
+
+
+    /** position of the container with the given key, or -(insertion point) - 1 **/
+
+    int find(char key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else if (keys[mid] > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    static int search(char[] array, int card, char value) {
+        int lo = 0;
+        int hi = card - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (array[mid] < value) {
+                lo = mid + 1;
+            } else if (array[mid] > value) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    void insert(int i, char key, Object container, int card) {
+        if (size == keys.length) {
+            char[] newkeys = new char[2 * size];
+            Object[] newcontainers = new Object[2 * size];
+            int[] newcards = new int[2 * size];
+            System.arraycopy(keys, 0, newkeys, 0, size);
+            System.arraycopy(containers, 0, newcontainers, 0, size);
+            System.arraycopy(cards, 0, newcards, 0, size);
+            keys = newkeys;
+            containers = newcontainers;
+            cards = newcards;
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        System.arraycopy(cards, i, cards, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        cards[i] = card;
+        size++;
+    }
+
+    void append(char key, Object container, int card) {
+        insert(size, key, container, card);
+    }
+
+    static Object copy(Object container) {
+        return (container instanceof long[]) ? ((long[]) container).clone() : ((char[]) container).clone();
+    }
+
+    static long[] toWords(char[] array, int card) {
+        long[] words = new long[WORDS];
+        for (int k = 0; k < card; k++) {
+            words[array[k] >>> 6] |= 1L << array[k];
+        }
+        return words;
+    }
+
+    static char[] toArray(long[] words, int card) {
+        char[] array = new char[card];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+}
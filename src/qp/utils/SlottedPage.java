@@ -0,0 +1,217 @@
+/**
+ * Layout of a page in a binary table file
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+
+/**
+ * A slotted page starts with the number of records in it, followed by
+ * the slot directory (one offset per record). The records themselves are
+ * packed from the end of the page towards the slot directory.
+ *
+ * A record stores its fields in schema order: INT as 4 bytes, REAL as a
+ * 4 byte float, STRING as a 2 byte length followed by its UTF-8 bytes.
+ */
+
+public class SlottedPage {
+
+    static final int HEADER_SIZE = 4;   // number of records in the page
+    static final int SLOT_SIZE = 4;     // offset of one record
+
+    /** buffer used to copy strings out of direct (memory mapped) pages **/
+    static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[256]);
+
+
+    /** the type of each attribute, in schema order **/
+
+    public static int[] typesOf(Schema schema) {
+        int[] types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = schema.typeOf(i);
+        }
+        return types;
+    }
+
+
+    /** make the page an empty page **/
+
+    public static void init(ByteBuffer page) {
+        page.putInt(0, 0);
+    }
+
+
+    /** number of records in the page **/
+
+    public static int numRecords(ByteBuffer page) {
+        return page.getInt(0);
+    }
+
+
+    /** offset of the record in the given slot **/
+
+    public static int recordOffset(ByteBuffer page, int slot) {
+        return page.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+
+    /** number of bytes still free for one more record and its slot **/
+
+    public static int freeSpace(ByteBuffer page) {
+        int count = numRecords(page);
+        int freeEnd = (count == 0) ? page.capacity() : recordOffset(page, count - 1);
+        return freeEnd - (HEADER_SIZE + (count + 1) * SLOT_SIZE);
+    }
+
+
+    /** size of the largest record that fits in an empty page **/
+
+    public static int maxRecordSize(int pageSize) {
+        return pageSize - HEADER_SIZE - SLOT_SIZE;
+    }
+
+
+    /** Append an encoded record to the page
+     ** returns false if there is not enough free space left
+     **/
+
+    public static boolean addRecord(ByteBuffer page, byte[] record) {
+        if (record.length > freeSpace(page)) {
+            return false;
+        }
+        int count = numRecords(page);
+        int freeEnd = (count == 0) ? page.capacity() : recordOffset(page, count - 1);
+        int offset = freeEnd - record.length;
+        ByteBuffer dst = page.duplicate();
+        dst.position(offset);
+        dst.put(record);
+        page.putInt(HEADER_SIZE + count * SLOT_SIZE, offset);
+        page.putInt(0, count + 1);
+        return true;
+    }
+
+
+    /** Encode the tuple as a record of the given attribute types **/
+
+    public static byte[] encode(Tuple tuple, int[] types) {
+        if (tuple.size() != types.length) {
+            throw new IllegalArgumentException("SlottedPage: tuple has " + tuple.size()
+                    + " fields, schema has " + types.length);
+        }
+        byte[][] strings = new byte[types.length][];
+        int size = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.STRING) {
+                strings[i] = tuple.stringAt(i).getBytes(StandardCharsets.UTF_8);
+                if (strings[i].length > 0xFFFF) {
+                    throw new IllegalArgumentException("SlottedPage: string value too long");
+                }
+                size += 2 + strings[i].length;
+            } else {
+                size += 4;
+            }
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                record.putInt(tuple.intAt(i));
+            } else if (types[i] == Attribute.REAL) {
+                record.putFloat(tuple.floatAt(i));
+            } else {
+                record.putShort((short) strings[i].length);
+                record.put(strings[i]);
+            }
+        }
+        return record.array();
+    }
+
+
+    /** Decode the record in the given slot back into a tuple of the layout **/
+
+    public static Tuple getRecord(ByteBuffer page, int slot, TupleLayout layout) {
+        int pos = recordOffset(page, slot);
+        Tuple tuple = new Tuple(layout);
+        for (int i = 0; i < layout.types.length; i++) {
+            int type = layout.types[i];
+            if (type == Attribute.INT) {
+                tuple.setInt(i, page.getInt(pos));
+                pos += 4;
+            } else if (type == Attribute.REAL) {
+                tuple.setFloat(i, page.getFloat(pos));
+                pos += 4;
+            } else {
+                int len = page.getShort(pos) & 0xFFFF;
+                tuple.setString(i, getString(page, pos + 2, len));
+                pos += 2 + len;
+            }
+        }
+        return tuple;
+    }
+
+
+    /** Decode one attribute of the record in the given slot,
+     ** the attributes before it are skipped
+     **/
+
+    public static Object getField(ByteBuffer page, int slot, int[] types, int index) {
+        int pos = recordOffset(page, slot);
+        for (int i = 0; i < index; i++) {
+            pos += (types[i] == Attribute.STRING) ? 2 + (page.getShort(pos) & 0xFFFF) : 4;
+        }
+        if (types[index] == Attribute.INT) {
+            return Integer.valueOf(page.getInt(pos));
+        } else if (types[index] == Attribute.REAL) {
+            return Float.valueOf(page.getFloat(pos));
+        } else {
+            return getString(page, pos + 2, page.getShort(pos) & 0xFFFF);
+        }
+    }
+
+
+    /** Decode the record in the given slot into a new row of the
+     ** batch, only the attributes marked as needed are decoded
+     **/
+
+    public static void getRecord(ByteBuffer page, int slot, VectorBatch batch, boolean[] needed) {
+        int pos = recordOffset(page, slot);
+        TupleLayout layout = batch.layout;
+        int row = batch.addRow();
+        for (int i = 0; i < layout.types.length; i++) {
+            int type = layout.types[i];
+            int c = layout.slot[i];
+            if (type == Attribute.INT) {
+                if (needed[i]) batch.ints[c][row] = page.getInt(pos);
+                pos += 4;
+            } else if (type == Attribute.REAL) {
+                if (needed[i]) batch.floats[c][row] = page.getFloat(pos);
+                pos += 4;
+            } else {
+                int len = page.getShort(pos) & 0xFFFF;
+                if (needed[i]) batch.refs[c][row] = getString(page, pos + 2, len);
+                pos += 2 + len;
+            }
+        }
+    }
+
+
+    /** read a UTF-8 string without moving the position of the buffer **/
+
+    static String getString(ByteBuffer page, int offset, int len) {
+        if (page.hasArray()) {
+            return new String(page.array(), page.arrayOffset() + offset, len, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = scratch.get();
+        if (bytes.length < len) {
+            bytes = new byte[len];
+            scratch.set(bytes);
+        }
+        ByteBuffer src = page.duplicate();
+        src.position(offset);
+        src.get(bytes, 0, len);
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Normalized binary prefixes of the sort keys of tuples
+ **/
+
+package qp.utils;
+
+/** The sort attributes of a tuple are encoded once into a 64 bit
+ ** prefix whose unsigned order is the order of the keys: an INTEGER
+ ** with its sign bit flipped, a REAL as its bits with the sign bit
+ ** flipped for positive values and all the bits flipped for negative
+ ** ones, which is the order of Float.compare, and a STRING as its
+ ** first characters, 16 bits each, missing characters being 0.
+ ** Attributes are packed in order until the 64 bits are used, a
+ ** STRING takes all the bits left. Two keys with different prefixes
+ ** compare as their prefixes, equal prefixes need the full key to be
+ ** compared unless the prefix holds the whole key (isExact).
+ **/
+
+public class SortKey {
+
+    int[] index;       // indexes of the sort attributes in the tuples
+    int[] types;       // their types
+    boolean exact;     // whether the prefix holds the whole key
+
+
+    public SortKey(Schema schema, int[] index) {
+        this.index = index;
+        types = new int[index.length];
+        int bits = 0;
+        exact = true;
+        for (int i = 0; i < index.length; i++) {
+            types[i] = schema.typeOf(index[i]);
+            if (types[i] == Attribute.STRING) {
+                exact = false;
+            }
+            bits += 32;
+        }
+        if (bits > 64) {
+            exact = false;
+        }
+    }
+
+
+    /** whether tuples with the same prefix have the same key **/
+
+    public boolean isExact() {
+        return exact;
+    }
+
+
+    /** the prefix of the key of the tuple **/
+
+    public long prefix(Tuple t) {
+        long prefix = 0;
+        int free = 64;    // bits of the prefix still free
+        for (int i = 0; i < index.length && free > 0; i++) {
+            if (types[i] == Attribute.STRING) {
+                String s = t.stringAt(index[i]);
+                for (int c = 0; c < s.length() && free > 0; c++) {
+                    free -= 16;
+                    prefix |= (free >= 0) ? (long) s.charAt(c) << free : (long) s.charAt(c) >>> -free;
+                }
+                break;
+            }
+            int bits;
+            if (types[i] == Attribute.INT) {
+                bits = t.intAt(index[i]) ^ Integer.MIN_VALUE;
+            } else {
+                bits = Float.floatToIntBits(t.floatAt(index[i]));
+                bits ^= (bits >> 31) | Integer.MIN_VALUE;
+            }
+            long value = bits & 0xFFFFFFFFL;
+            free -= 32;
+            prefix |= (free >= 0) ? value << free : value >>> -free;
+        }
+        return prefix;
+    }
+
+
+    /** compare two tuples given with their prefixes **/
+
+    public int compare(long prefix1, Tuple t1, long prefix2, Tuple t2) {
+        if (prefix1 != prefix2) {
+            return Long.compareUnsigned(prefix1, prefix2);
+        }
+        if (exact) {
+            return 0;
+        }
+        return Tuple.compareTuples(t1, t2, index);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Background I/O for the temporary files of sorts and joins
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/** A few daemon I/O threads read and write the pages of temporary
+ ** files for the operators. A Reader has the next batch of its run
+ ** read while the current one is used, and a Writer has the batch
+ ** given to it written while the next one is filled, so each file has
+ ** at most one page in flight and the operators wait on the disk only
+ ** when it is slower than they are. With background I/O turned off the
+ ** tasks run at once on the calling thread.
+ **/
+
+public class SpillIO {
+
+    static boolean enabled = true;    // whether temporary files are read and written in the background
+
+    static final int NUM_THREADS = 2;   // I/O threads shared by all the files
+
+    static ExecutorService threads;   // the I/O threads, started when first needed
+
+
+    /** set whether temporary files are read and written in the background **/
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /** run the task on an I/O thread, or at once if background I/O is off **/
+
+    public static <T> Future<T> submit(Callable<T> task) {
+        if (!enabled) {
+            FutureTask<T> done = new FutureTask<T>(task);
+            done.run();
+            return done;
+        }
+        return pool().submit(task);
+    }
+
+
+    static synchronized ExecutorService pool() {
+        if (threads == null) {
+            threads = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "spill-io-" + count++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return threads;
+    }
+
+
+    /** wait for a task and get its result, an IOException of the task is thrown again **/
+
+    public static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("SpillIO: " + cause);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("SpillIO: interrupted while waiting for the disk");
+        }
+    }
+
+
+    /** Reads a run of batches written by a Writer, the next batch
+     ** being read while the current one is used
+     **/
+
+    public static class Reader {
+
+        ObjectInputStream in;    // the run
+        Future<Batch> ahead;     // reading of the next batch, null at the end of the run
+
+        public Reader(ObjectInputStream in) {
+            this.in = in;
+            readAhead();
+        }
+
+        void readAhead() {
+            ahead = submit(new Callable<Batch>() {
+                public Batch call() throws IOException {
+                    try {
+                        return (Batch) in.readObject();
+                    } catch (EOFException e) {
+                        return null;
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("SpillIO: error in deserialization of a batch");
+                    }
+                }
+            });
+        }
+
+        /** the next batch of the run, null at its end **/
+
+        public Batch next() throws IOException {
+            if (ahead == null) {
+                return null;
+            }
+            Batch batch = await(ahead);
+            if (batch == null) {
+                ahead = null;
+            } else {
+                readAhead();
+            }
+            return batch;
+        }
+
+        public void close() throws IOException {
+            if (ahead != null) {
+                try {
+                    await(ahead);
+                } catch (IOException e) {
+                    /** the batch is not wanted anymore **/
+                }
+                ahead = null;
+            }
+            in.close();
+        }
+    }
+
+
+    /** Writes a run of batches, each batch being written while the
+     ** next one is filled. The caller must not change a batch after
+     ** giving it to write
+     **/
+
+    public static class Writer {
+
+        ObjectOutputStream out;    // the run
+        Future<Object> pending;    // writing of the last batch, null if it is done
+
+        public Writer(ObjectOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(final Batch batch) throws IOException {
+            finish();
+            pending = submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    out.writeObject(batch);
+                    out.reset();          //reset the ObjectOutputStream to enable appending result
+                    return null;
+                }
+            });
+        }
+
+        /** wait for the last batch to be written **/
+
+        public void finish() throws IOException {
+            if (pending != null) {
+                Future<Object> last = pending;
+                pending = null;
+                await(last);
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -3,31 +3,149 @@
  **********/
 package qp.utils;
 
+import java.util.Objects;
 import java.util.Vector;
 import java.io.Serializable;
 
 /**
- * Tuple - a simple object which holds a Vector
- * of data
+ * Tuple - the values of one row, stored according to a TupleLayout:
+ * INT values in an int array, REAL values in a float array and STRING
+ * values as references. The typed accessors (intAt, floatAt, stringAt)
+ * read the values without boxing them, dataAt returns them boxed.
  */
 
 public class Tuple implements Serializable {
-    public Vector _data;
 
+    TupleLayout layout;
+    int[] ints;        // values of the INT attributes
+    float[] floats;    // values of the REAL attributes
+    Object[] refs;     // values of the STRING attributes
+
+
+    /** a tuple of the given layout with all values 0 or null **/
+
+    public Tuple(TupleLayout layout) {
+        this.layout = layout;
+        ints = new int[layout.numInts];
+        floats = new float[layout.numFloats];
+        refs = new Object[layout.numRefs];
+    }
+
+
+    /** a tuple holding the values of the vector, the layout follows
+     ** the classes of the values (Integer, Float or String)
+     **/
 
     public Tuple(Vector d) {
-        _data = d;
+        this(TupleLayout.of(typesOf(d)));
+        for (int i = 0; i < d.size(); i++) {
+            set(i, d.elementAt(i));
+        }
+    }
+
+
+    static int[] typesOf(Vector d) {
+        int[] types = new int[d.size()];
+        for (int i = 0; i < types.length; i++) {
+            Object value = d.elementAt(i);
+            if (value instanceof Integer) {
+                types[i] = Attribute.INT;
+            } else if (value instanceof Float) {
+                types[i] = Attribute.REAL;
+            } else {
+                types[i] = Attribute.STRING;
+            }
+        }
+        return types;
+    }
+
+
+    public TupleLayout getLayout() {
+        return layout;
+    }
+
+    /** number of attributes of the tuple **/
+
+    public int size() {
+        return layout.types.length;
+    }
+
+
+    public int intAt(int index) {
+        return ints[layout.slot[index]];
     }
 
+    public float floatAt(int index) {
+        return floats[layout.slot[index]];
+    }
+
+    public String stringAt(int index) {
+        return (String) refs[layout.slot[index]];
+    }
+
+    public void setInt(int index, int value) {
+        ints[layout.slot[index]] = value;
+    }
+
+    public void setFloat(int index, float value) {
+        floats[layout.slot[index]] = value;
+    }
+
+    public void setString(int index, String value) {
+        refs[layout.slot[index]] = value;
+    }
+
+
+    /** set the value of an attribute to the value of an attribute
+     ** of the same type in another tuple, without boxing it
+     **/
+
+    public void setFrom(int index, Tuple src, int srcIndex) {
+        int type = layout.types[index];
+        if (type == Attribute.INT) {
+            setInt(index, src.intAt(srcIndex));
+        } else if (type == Attribute.REAL) {
+            setFloat(index, src.floatAt(srcIndex));
+        } else {
+            refs[layout.slot[index]] = src.refs[src.layout.slot[srcIndex]];
+        }
+    }
+
+
+    /** set a value given as an Integer, Float or String **/
+
+    public void set(int index, Object value) {
+        int type = layout.types[index];
+        if (type == Attribute.INT) {
+            setInt(index, ((Integer) value).intValue());
+        } else if (type == Attribute.REAL) {
+            setFloat(index, ((Float) value).floatValue());
+        } else {
+            refs[layout.slot[index]] = value;
+        }
+    }
+
+
     /**
-     * Accessor for data
+     * Accessor for data, the values are copied into a new vector
      */
     public Vector data() {
-        return _data;
+        Vector d = new Vector(size());
+        for (int i = 0; i < size(); i++) {
+            d.add(dataAt(i));
+        }
+        return d;
     }
 
     public Object dataAt(int index) {
-        return _data.elementAt(index);
+        int type = layout.types[index];
+        if (type == Attribute.INT) {
+            return Integer.valueOf(intAt(index));
+        } else if (type == Attribute.REAL) {
+            return Float.valueOf(floatAt(index));
+        } else {
+            return refs[layout.slot[index]];
+        }
     }
 
 
@@ -37,13 +155,19 @@ public class Tuple implements Serializable {
      **/
 
     public boolean checkJoin(Tuple right, int leftindex, int rightindex) {
-        Object leftData = dataAt(leftindex);
-        Object rightData = right.dataAt(rightindex);
+        return compareTuples(this, right, leftindex, rightindex) == 0;
+    }
 
-        if (leftData.equals(rightData))
-            return true;
-        else
-            return false;
+
+    /** as checkJoin, on several pairs of join attributes **/
+
+    public boolean checkJoin(Tuple right, int[] leftindex, int[] rightindex) {
+        for (int i = 0; i < leftindex.length; i++) {
+            if (compareTuples(this, right, leftindex[i], rightindex[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
 
@@ -53,9 +177,14 @@ public class Tuple implements Serializable {
 
 
     public Tuple joinWith(Tuple right) { //, Attribute leftAttr, Attribute rightAttr){
-        Vector newData = new Vector(this.data());
-        newData.addAll(right.data());
-        return new Tuple(newData);
+        Tuple joined = new Tuple(layout.join(right.layout));
+        System.arraycopy(ints, 0, joined.ints, 0, ints.length);
+        System.arraycopy(right.ints, 0, joined.ints, ints.length, right.ints.length);
+        System.arraycopy(floats, 0, joined.floats, 0, floats.length);
+        System.arraycopy(right.floats, 0, joined.floats, floats.length, right.floats.length);
+        System.arraycopy(refs, 0, joined.refs, 0, refs.length);
+        System.arraycopy(right.refs, 0, joined.refs, refs.length, right.refs.length);
+        return joined;
     }
 
 
@@ -68,20 +197,43 @@ public class Tuple implements Serializable {
     }
 
 
+    /**
+     * Compare two tuples in the same table on several attributes, in order
+     **/
+
+    public static int compareTuples(Tuple left, Tuple right, int[] index) {
+        return compareTuples(left, right, index, index);
+    }
+
+
+    /**
+     * comparing tuples in different tables on several attributes, the
+     * first attribute that differs decides
+     **/
+
+    public static int compareTuples(Tuple left, Tuple right, int[] leftIndex, int[] rightIndex) {
+        for (int i = 0; i < leftIndex.length; i++) {
+            int diff = compareTuples(left, right, leftIndex[i], rightIndex[i]);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+
     /**
      * comparing tuples in different tables, used for join condition checking
      **/
 
     public static int compareTuples(Tuple left, Tuple right, int leftIndex, int rightIndex) {
-        Object leftdata = left.dataAt(leftIndex);
-        Object rightdata = right.dataAt(rightIndex);
-        if (leftdata instanceof Integer) {
-            return ((Integer) leftdata).compareTo((Integer) rightdata);
-        } else if (leftdata instanceof String) {
-            return ((String) leftdata).compareTo((String) rightdata);
-
-        } else if (leftdata instanceof Float) {
-            return ((Float) leftdata).compareTo((Float) rightdata);
+        int type = left.layout.types[leftIndex];
+        if (type == Attribute.INT) {
+            return Integer.compare(left.intAt(leftIndex), right.intAt(rightIndex));
+        } else if (type == Attribute.STRING) {
+            return left.stringAt(leftIndex).compareTo(right.stringAt(rightIndex));
+        } else if (type == Attribute.REAL) {
+            return Float.compare(left.floatAt(leftIndex), right.floatAt(rightIndex));
         } else {
             System.out.println("Tuple: Unknown comparision of the tuples");
             System.exit(1);
@@ -91,10 +243,25 @@ public class Tuple implements Serializable {
 
     // precondition: the size of the two tuples has to be the same
     public static boolean isDuplicate(Tuple left, Tuple right) {
-        int size = left.data().size();
-        assert(size == right.data().size());
+        int size = left.size();
+        assert(size == right.size());
+        if (left.layout == right.layout) {
+            for (int i = 0; i < left.ints.length; i++) {
+                if (left.ints[i] != right.ints[i])
+                    return false;
+            }
+            for (int i = 0; i < left.floats.length; i++) {
+                if (Float.floatToIntBits(left.floats[i]) != Float.floatToIntBits(right.floats[i]))
+                    return false;
+            }
+            for (int i = 0; i < left.refs.length; i++) {
+                if (!Objects.equals(left.refs[i], right.refs[i]))
+                    return false;
+            }
+            return true;
+        }
         for (int i = 0; i < size; i++) {
-            if (!left.data().elementAt(i).equals(right.data().elementAt(i)))
+            if (!Objects.equals(left.dataAt(i), right.dataAt(i)))
                 return false;
         }
         return true;
@@ -102,13 +269,3 @@ public class Tuple implements Serializable {
 
 
 }
-
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,98 @@
+/**
+ * Where the values of a tuple are stored
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A tuple keeps its INT values in an int array, its REAL values in a
+ * float array and its STRING values in an array of references. The
+ * layout maps each attribute to its type and its index in the array
+ * of that type. There is one layout object per list of types, so
+ * tuples of the same schema share it and layouts compare by identity.
+ */
+
+public class TupleLayout implements Serializable {
+
+    /** layouts created so far, by list of types **/
+    static final ConcurrentHashMap<String, TupleLayout> layouts = new ConcurrentHashMap<String, TupleLayout>();
+
+    int[] types;       // type of each attribute
+    int[] slot;        // index of each attribute in the array of its type
+    int numInts;       // Number of INT attributes
+    int numFloats;     // Number of REAL attributes
+    int numRefs;       // Number of STRING attributes
+
+    transient ConcurrentHashMap<TupleLayout, TupleLayout> joined;   // layouts of joins with this one
+
+
+    TupleLayout(int[] types) {
+        this.types = types;
+        slot = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                slot[i] = numInts++;
+            } else if (types[i] == Attribute.REAL) {
+                slot[i] = numFloats++;
+            } else {
+                slot[i] = numRefs++;
+            }
+        }
+        joined = new ConcurrentHashMap<TupleLayout, TupleLayout>();
+    }
+
+
+    /** the layout of tuples with attributes of the given types **/
+
+    public static TupleLayout of(int[] types) {
+        String key = Arrays.toString(types);
+        TupleLayout layout = layouts.get(key);
+        if (layout == null) {
+            layout = new TupleLayout(types.clone());
+            TupleLayout old = layouts.putIfAbsent(key, layout);
+            if (old != null) {
+                layout = old;
+            }
+        }
+        return layout;
+    }
+
+
+    public static TupleLayout of(Schema schema) {
+        return of(SlottedPage.typesOf(schema));
+    }
+
+
+    /** the layout of the tuples this one is joined with (see Tuple.joinWith) **/
+
+    public TupleLayout join(TupleLayout right) {
+        TupleLayout layout = joined.get(right);
+        if (layout == null) {
+            int[] both = Arrays.copyOf(types, types.length + right.types.length);
+            System.arraycopy(right.types, 0, both, types.length, right.types.length);
+            layout = of(both);
+            joined.put(right, layout);
+        }
+        return layout;
+    }
+
+
+    public int getNumAttrs() {
+        return types.length;
+    }
+
+    public int typeOf(int index) {
+        return types[index];
+    }
+
+
+    /** tuples read back from a file share the layout of the running system **/
+
+    Object readResolve() {
+        return of(types);
+    }
+}
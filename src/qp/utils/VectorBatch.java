@@ -0,0 +1,254 @@
+/**
+ * A batch stored column by column, with a selection vector
+ **/
+
+package qp.utils;
+
+import java.util.Vector;
+
+/**
+ * The values of the rows are kept in one primitive array per column
+ * (see TupleLayout for how attributes map to the arrays), and the
+ * selection vector lists the rows that are part of the batch. Select
+ * filters a vector batch by shrinking its selection vector, and Project
+ * returns a view that shares the column arrays, so neither copies any
+ * value. Operators that work on rows see the selected rows through the
+ * usual Batch methods, the rows are turned into tuples the first time
+ * one is asked for.
+ */
+
+public class VectorBatch extends Batch {
+
+    static boolean enabled = false;    // whether scans produce vector batches
+
+    TupleLayout layout;    // layout of the rows
+    int[][] ints;          // INT columns, by slot of the layout
+    float[][] floats;      // REAL columns, by slot of the layout
+    Object[][] refs;       // STRING columns, by slot of the layout
+    int numRows;           // Number of rows stored in the columns
+
+    int[] sel;             // rows of the batch, in order
+    int selSize;           // Number of rows in sel
+
+    boolean materialized;  // whether the selected rows were turned into tuples
+
+
+    public VectorBatch(TupleLayout layout, int numtuple) {
+        super(numtuple);
+        this.layout = layout;
+        ints = new int[layout.numInts][numtuple];
+        floats = new float[layout.numFloats][numtuple];
+        refs = new Object[layout.numRefs][numtuple];
+        sel = new int[numtuple];
+        numRows = 0;
+        selSize = 0;
+        materialized = false;
+    }
+
+
+    /** a batch sharing the given columns and selection vector **/
+
+    VectorBatch(TupleLayout layout, int numtuple, int[][] ints, float[][] floats, Object[][] refs,
+                int numRows, int[] sel, int selSize) {
+        super(0);
+        MAX_SIZE = numtuple;
+        this.layout = layout;
+        this.ints = ints;
+        this.floats = floats;
+        this.refs = refs;
+        this.numRows = numRows;
+        this.sel = sel;
+        this.selSize = selSize;
+        materialized = false;
+    }
+
+
+    /** set whether scans produce vector batches **/
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+
+    public TupleLayout getLayout() {
+        return layout;
+    }
+
+    public int[] intColumn(int index) {
+        return ints[layout.slot[index]];
+    }
+
+    public float[] floatColumn(int index) {
+        return floats[layout.slot[index]];
+    }
+
+    public Object[] refColumn(int index) {
+        return refs[layout.slot[index]];
+    }
+
+
+    /** the selection vector, its first getSelectionSize() entries are valid **/
+
+    public int[] getSelection() {
+        return sel;
+    }
+
+    public int getSelectionSize() {
+        return selSize;
+    }
+
+    /** keep only the first n entries of the selection vector **/
+
+    public void setSelectionSize(int n) {
+        selSize = n;
+    }
+
+
+    /** Add an empty row at the end of the columns and select it,
+     ** returns the index of the row in the columns
+     **/
+
+    public int addRow() {
+        sel[selSize++] = numRows;
+        return numRows++;
+    }
+
+
+    /** A view of the batch with the attributes at the given indexes,
+     ** the view shares the column arrays and the selection vector
+     **/
+
+    public VectorBatch project(TupleLayout outLayout, int[] attrIndex) {
+        int[][] pints = new int[outLayout.numInts][];
+        float[][] pfloats = new float[outLayout.numFloats][];
+        Object[][] prefs = new Object[outLayout.numRefs][];
+        for (int j = 0; j < attrIndex.length; j++) {
+            int type = outLayout.types[j];
+            int to = outLayout.slot[j];
+            int from = layout.slot[attrIndex[j]];
+            if (type == Attribute.INT) {
+                pints[to] = ints[from];
+            } else if (type == Attribute.REAL) {
+                pfloats[to] = floats[from];
+            } else {
+                prefs[to] = refs[from];
+            }
+        }
+        return new VectorBatch(outLayout, MAX_SIZE, pints, pfloats, prefs, numRows, sel, selSize);
+    }
+
+
+    public boolean isMaterialized() {
+        return materialized;
+    }
+
+
+    /** turn the selected rows into tuples, after which the batch
+     ** behaves as a plain Batch
+     **/
+
+    void materialize() {
+        if (materialized) {
+            return;
+        }
+        materialized = true;
+        tuples = new Vector(Math.max(selSize, 1));
+        for (int s = 0; s < selSize; s++) {
+            int row = sel[s];
+            Tuple t = new Tuple(layout);
+            for (int c = 0; c < t.ints.length; c++) {
+                t.ints[c] = ints[c][row];
+            }
+            for (int c = 0; c < t.floats.length; c++) {
+                t.floats[c] = floats[c][row];
+            }
+            for (int c = 0; c < t.refs.length; c++) {
+                t.refs[c] = refs[c][row];
+            }
+            tuples.add(t);
+        }
+    }
+
+
+    /** written out as a plain batch of tuples **/
+
+    Object writeReplace() {
+        materialize();
+        Batch batch = new Batch(MAX_SIZE);
+        batch.tuples = tuples;
+        return batch;
+    }
+
+
+    public void add(Tuple t) {
+        if (materialized || t.layout != layout || numRows == sel.length) {
+            materialize();
+            super.add(t);
+            return;
+        }
+        int row = addRow();
+        for (int c = 0; c < t.ints.length; c++) {
+            ints[c][row] = t.ints[c];
+        }
+        for (int c = 0; c < t.floats.length; c++) {
+            floats[c][row] = t.floats[c];
+        }
+        for (int c = 0; c < t.refs.length; c++) {
+            refs[c][row] = t.refs[c];
+        }
+    }
+
+    public void clear() {
+        materialized = false;
+        numRows = 0;
+        selSize = 0;
+        super.clear();
+    }
+
+    public boolean contains(Tuple t) {
+        materialize();
+        return super.contains(t);
+    }
+
+    public Tuple elementAt(int i) {
+        materialize();
+        return super.elementAt(i);
+    }
+
+    public int indexOf(Tuple t) {
+        materialize();
+        return super.indexOf(t);
+    }
+
+    public void insertElementAt(Tuple t, int i) {
+        materialize();
+        super.insertElementAt(t, i);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void remove(int i) {
+        materialize();
+        super.remove(i);
+    }
+
+    public Tuple removeAndGetTail() {
+        materialize();
+        return super.removeAndGetTail();
+    }
+
+    public void setElementAt(Tuple t, int i) {
+        materialize();
+        super.setElementAt(t, i);
+    }
+
+    public int size() {
+        return materialized ? super.size() : selSize;
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Smallest and largest value of every attribute in each page of a table
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.Vector;
+
+/**
+ * The zone map of a table is kept in the sidecar file <tablename>.zm
+ * next to the page file. It holds the number of pages and attributes,
+ * then for each page the minimum and maximum of each attribute
+ * (INT as 4 bytes, REAL as a 4 byte float, STRING in modified UTF-8).
+ * A scan uses it to skip the pages that cannot hold a tuple satisfying
+ * a selection condition, without reading them.
+ */
+
+public class ZoneMap {
+
+    int[] types;      // type of each attribute
+    Vector mins;      // smallest value of each attribute, one Object[] per page
+    Vector maxs;      // largest value of each attribute, one Object[] per page
+
+    Object[] pageMin;    // bounds of the page being built, null if no tuple yet
+    Object[] pageMax;
+
+
+    public ZoneMap(int[] types) {
+        this.types = types;
+        mins = new Vector();
+        maxs = new Vector();
+        pageMin = null;
+        pageMax = null;
+    }
+
+
+    /** name of the zone map file of the table **/
+
+    public static String fileName(String tabname) {
+        return tabname + ".zm";
+    }
+
+
+    public int getNumPages() {
+        return mins.size();
+    }
+
+
+    /** widen the bounds of the current page to include the tuple **/
+
+    public void add(Tuple tuple) {
+        if (pageMin == null) {
+            pageMin = new Object[types.length];
+            pageMax = new Object[types.length];
+        }
+        for (int i = 0; i < types.length; i++) {
+            Object value = tuple.dataAt(i);
+            if (types[i] == Attribute.REAL && Float.isNaN(((Float) value).floatValue())) {
+                /** NaN is not ordered, the page may hold any value **/
+                pageMin[i] = Float.valueOf(Float.NEGATIVE_INFINITY);
+                pageMax[i] = Float.valueOf(Float.POSITIVE_INFINITY);
+                continue;
+            }
+            if (pageMin[i] == null || compare(i, value, pageMin[i]) < 0) {
+                pageMin[i] = value;
+            }
+            if (pageMax[i] == null || compare(i, value, pageMax[i]) > 0) {
+                pageMax[i] = value;
+            }
+        }
+    }
+
+
+    /** close the current page, the following tuples go to the next page **/
+
+    public void endPage() {
+        if (pageMin != null) {
+            mins.add(pageMin);
+            maxs.add(pageMax);
+        }
+        pageMin = null;
+        pageMax = null;
+    }
+
+
+    /** bounds of the values of an attribute in a page **/
+
+    public Object minOf(int pageno, int col) {
+        return ((Object[]) mins.elementAt(pageno))[col];
+    }
+
+    public Object maxOf(int pageno, int col) {
+        return ((Object[]) maxs.elementAt(pageno))[col];
+    }
+
+
+    /** compare two values of the attribute at the given index **/
+
+    int compare(int index, Object a, Object b) {
+        if (types[index] == Attribute.INT) {
+            return Integer.compare(((Integer) a).intValue(), ((Integer) b).intValue());
+        } else if (types[index] == Attribute.REAL) {
+            float x = ((Float) a).floatValue();
+            float y = ((Float) b).floatValue();
+            return (x < y) ? -1 : ((x > y) ? 1 : 0);
+        } else {
+            return ((String) a).compareTo((String) b);
+        }
+    }
+
+
+    /** Whether the page can hold a tuple that satisfies all the
+     ** selection conditions on the attributes of the schema
+     **/
+
+    public boolean mayMatch(int pageno, Vector conditions, Schema schema) {
+        Object[] min = (Object[]) mins.elementAt(pageno);
+        Object[] max = (Object[]) maxs.elementAt(pageno);
+        for (int c = 0; c < conditions.size(); c++) {
+            Condition cn = (Condition) conditions.elementAt(c);
+            int col = schema.indexOf(cn.getLhs());
+            if (col < 0 || cn.getOpType() != Condition.SELECT) {
+                continue;
+            }
+            Object value = parse(col, (String) cn.getRhs());
+            if (!Condition.rangeMaySatisfy(cn.getExprType(),
+                    compare(col, min[col], value), compare(col, max[col], value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** the constant of a condition as a value of the attribute **/
+
+    Object parse(int index, String value) {
+        if (types[index] == Attribute.INT) {
+            return Integer.valueOf(value);
+        } else if (types[index] == Attribute.REAL) {
+            return Float.valueOf(value);
+        } else {
+            return value;
+        }
+    }
+
+
+    public void write(String filename) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)))) {
+            out.writeInt(mins.size());
+            out.writeInt(types.length);
+            for (int p = 0; p < mins.size(); p++) {
+                writeValues(out, (Object[]) mins.elementAt(p));
+                writeValues(out, (Object[]) maxs.elementAt(p));
+            }
+        }
+    }
+
+
+    void writeValues(DataOutputStream out, Object[] values) throws IOException {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                out.writeInt(((Integer) values[i]).intValue());
+            } else if (types[i] == Attribute.REAL) {
+                out.writeFloat(((Float) values[i]).floatValue());
+            } else {
+                out.writeUTF((String) values[i]);
+            }
+        }
+    }
+
+
+    /** load the zone map of a table with attributes of the given types **/
+
+    public static ZoneMap read(String filename, int[] types) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename)))) {
+            int numPages = in.readInt();
+            if (in.readInt() != types.length) {
+                throw new IOException("ZoneMap: " + filename + " does not match the schema");
+            }
+            ZoneMap zonemap = new ZoneMap(types);
+            for (int p = 0; p < numPages; p++) {
+                zonemap.mins.add(zonemap.readValues(in));
+                zonemap.maxs.add(zonemap.readValues(in));
+            }
+            return zonemap;
+        }
+    }
+
+
+    Object[] readValues(DataInputStream in) throws IOException {
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                values[i] = Integer.valueOf(in.readInt());
+            } else if (types[i] == Attribute.REAL) {
+                values[i] = Float.valueOf(in.readFloat());
+            } else {
+                values[i] = in.readUTF();
+            }
+        }
+        return values;
+    }
+}
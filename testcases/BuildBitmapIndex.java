@@ -0,0 +1,94 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import qp.utils.*;
+/*
+  builds a bitmap index over one attribute of a table and writes it
+  to <tablename>.<attribute>.bmx (see qp.utils.BitmapIndex).
+  meant for attributes with few distinct values, use BuildIndex for
+  the others. the table must be a page file, use ConvertTblToPages
+  first if it is a stream of serialized tuples. the index must be
+  built again when the table is rewritten, older indexes are ignored
+  by the optimizer.
+*/
+
+public class BuildBitmapIndex {
+
+    public static void main(String[] args) throws IOException {
+        // check the arguments
+        if (args.length != 2) {
+            System.out.println("usage: java BuildBitmapIndex <tablename> <attribute> \n writes <tablename>.<attribute>.bmx");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        String colname = args[1];
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+
+        if (!PageFile.isPageFile(tblfile)) {
+            System.out.println(tblfile + " is not a page file, convert it with ConvertTblToPages first");
+            System.exit(1);
+        }
+
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+        int attrIndex = -1;
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            if (schema.getAttribute(i).getColName().equals(colname)) {
+                attrIndex = i;
+            }
+        }
+        if (attrIndex < 0) {
+            System.out.println("no attribute " + colname + " in " + tblname);
+            System.exit(1);
+        }
+        int keyType = schema.typeOf(schema.getAttribute(attrIndex));
+
+        /** read the value of every row, in table order **/
+        PageFile table = PageFile.open(tblfile);
+        int[] types = SlottedPage.typesOf(schema);
+        TupleLayout layout = TupleLayout.of(types);
+        CompressedPage cpage = (table.getLayout() == PageFile.COMPRESSED) ? new CompressedPage(types) : null;
+        ByteBuffer page = ByteBuffer.allocate(table.getPageSize());
+        Object[][] values = new Object[table.getNumPages()][];
+        int maxSlots = 1;
+        for (int pageno = 0; pageno < table.getNumPages(); pageno++) {
+            table.readPage(pageno, page);
+            if (cpage != null) {
+                cpage.load(page);
+            }
+            int numrows = (cpage != null) ? cpage.numRows() : SlottedPage.numRecords(page);
+            values[pageno] = new Object[numrows];
+            for (int slot = 0; slot < numrows; slot++) {
+                Tuple t = (cpage != null) ? cpage.getRow(slot) : SlottedPage.getRecord(page, slot, layout);
+                values[pageno][slot] = t.dataAt(attrIndex);
+            }
+            maxSlots = Math.max(maxSlots, numrows);
+        }
+        table.close();
+
+        int slotBits = BitmapIndex.slotBitsFor(maxSlots);
+        if (((long) values.length << slotBits) > Integer.MAX_VALUE) {
+            System.out.println(tblname + " has too many rows for a bitmap index");
+            System.exit(1);
+        }
+        BitmapIndex index = new BitmapIndex(keyType, slotBits);
+        for (int pageno = 0; pageno < values.length; pageno++) {
+            for (int slot = 0; slot < values[pageno].length; slot++) {
+                index.add(values[pageno][slot], pageno, slot);
+            }
+        }
+        String idxfile = BitmapIndex.fileName(tblname, colname);
+        index.write(idxfile);
+        System.out.println(idxfile + ": " + index.getNumRows() + " rows, "
+                + index.getNumValues() + " distinct values indexed");
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import qp.utils.*;
+/*
+  builds a B+-tree index over one attribute of a table and writes it
+  to <tablename>.<attribute>.idx (see qp.utils.BTreeIndex).
+  the table must be a page file, use ConvertTblToPages first if it is
+  a stream of serialized tuples. the index must be built again when
+  the table is rewritten, older indexes are ignored by the optimizer.
+*/
+
+public class BuildIndex {
+
+    public static void main(String[] args) throws IOException {
+        // check the arguments
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("usage: java BuildIndex <tablename> <attribute> [pagesize] \n writes <tablename>.<attribute>.idx");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        String colname = args[1];
+        int pagesize = PageFile.DEFAULT_PAGE_SIZE;
+        if (args.length == 3) {
+            pagesize = Integer.parseInt(args[2]);
+        }
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+
+        if (!PageFile.isPageFile(tblfile)) {
+            System.out.println(tblfile + " is not a page file, convert it with ConvertTblToPages first");
+            System.exit(1);
+        }
+
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+        int attrIndex = -1;
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            if (schema.getAttribute(i).getColName().equals(colname)) {
+                attrIndex = i;
+            }
+        }
+        if (attrIndex < 0) {
+            System.out.println("no attribute " + colname + " in " + tblname);
+            System.exit(1);
+        }
+        int keyType = schema.typeOf(schema.getAttribute(attrIndex));
+
+        /** collect the key and the place of every row, in key order **/
+        PageFile table = PageFile.open(tblfile);
+        int[] types = SlottedPage.typesOf(schema);
+        TupleLayout layout = TupleLayout.of(types);
+        CompressedPage cpage = (table.getLayout() == PageFile.COMPRESSED) ? new CompressedPage(types) : null;
+        ByteBuffer page = ByteBuffer.allocate(table.getPageSize());
+        Entry[] entries = new Entry[table.getNumTuples()];
+        int count = 0;
+        for (int pageno = 0; pageno < table.getNumPages(); pageno++) {
+            table.readPage(pageno, page);
+            if (cpage != null) {
+                cpage.load(page);
+            }
+            int numrows = (cpage != null) ? cpage.numRows() : SlottedPage.numRecords(page);
+            for (int slot = 0; slot < numrows; slot++) {
+                Tuple t = (cpage != null) ? cpage.getRow(slot) : SlottedPage.getRecord(page, slot, layout);
+                if (count == entries.length) {
+                    entries = Arrays.copyOf(entries, 2 * count + 1);
+                }
+                entries[count++] = new Entry(t.dataAt(attrIndex), pageno, slot);
+            }
+        }
+        table.close();
+        Arrays.sort(entries, 0, count);
+
+        String idxfile = BTreeIndex.fileName(tblname, colname);
+        BTreeBuilder out = new BTreeBuilder(idxfile, keyType, pagesize);
+        for (int i = 0; i < count; i++) {
+            out.add(entries[i].key, entries[i].pageno, entries[i].slot);
+        }
+        out.close();
+        System.out.println(idxfile + ": " + count + " entries indexed");
+    }
+
+
+    /** key of a row and its place in the table file **/
+
+    static class Entry implements Comparable<Entry> {
+
+        Comparable key;
+        int pageno;
+        int slot;
+
+        Entry(Object key, int pageno, int slot) {
+            if (key instanceof Float) {
+                key = Float.valueOf(((Float) key).floatValue() + 0.0f);
+            }
+            this.key = (Comparable) key;
+            this.pageno = pageno;
+            this.slot = slot;
+        }
+
+        public int compareTo(Entry other) {
+            int cmp = key.compareTo(other.key);
+            if (cmp == 0) {
+                cmp = (pageno != other.pageno) ? Integer.compare(pageno, other.pageno)
+                        : Integer.compare(slot, other.slot);
+            }
+            return cmp;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.*;
+import java.util.*;
+
+import qp.utils.*;
+/*
+  converts a <tablename>.tbl file written as a stream of serialized
+  tuples into a binary page file (see qp.utils.PageFile) and writes
+  its zone map to <tablename>.zm.
+  the schema is read from <tablename>.md, the converted file replaces
+  the old one.
+*/
+
+public class ConvertTblToPages {
+
+    public static void main(String[] args) throws IOException {
+        // check the arguments
+        if (args.length != 1 && args.length != 2) {
+            System.out.println("usage: java ConvertTblToPages <tablename> [pagesize] \n rewrites <tablename>.tbl as a page file");
+            System.exit(1);
+        }
+        String tblname = args[0];
+        int pagesize = PageFile.DEFAULT_PAGE_SIZE;
+        if (args.length == 2) {
+            pagesize = Integer.parseInt(args[1]);
+        }
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+        String tmpfile = tblname + ".tbl.tmp";
+
+        if (PageFile.isPageFile(tblfile)) {
+            System.out.println(tblfile + " is already a page file");
+            return;
+        }
+
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
+
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(tblfile));
+        PageWriter out = new PageWriter(tmpfile, schema, pagesize);
+        try {
+            while (true) {
+                Tuple tuple = (Tuple) in.readObject();
+                out.add(tuple);
+            }
+        } catch (EOFException eof) {
+            // all tuples are read
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in table file " + tblfile);
+            System.exit(1);
+        }
+        in.close();
+        out.close();
+
+        File converted = new File(tmpfile);
+        File original = new File(tblfile);
+        if (!original.delete() || !converted.renameTo(original)) {
+            System.out.println("could not replace " + tblfile + ", converted file left in " + tmpfile);
+            System.exit(1);
+        }
+        out.getZoneMap().write(ZoneMap.fileName(tblname));
+        System.out.println(tblfile + ": " + out.getNumTuples() + " tuples converted");
+    }
+}